@@ -17,6 +17,9 @@
  */
 package com.phloc.event.scopes;
 
+import javax.annotation.Nullable;
+
+import com.phloc.commons.callback.INonThrowingRunnable;
 import com.phloc.event.impl.helper.AbstractEventHelper;
 import com.phloc.event.impl.helper.SynchronousEventHelper;
 import com.phloc.event.resultaggregator.impl.DispatchResultAggregatorBooleanAnd;
@@ -30,16 +33,35 @@ import com.phloc.scopes.IScopeDestructionAware;
  */
 final class MainEventManager extends BidirectionalSynchronousMulticastEventManager implements IScopeDestructionAware
 {
+  private final INonThrowingRunnable m_aDestructionCallback;
+
   public MainEventManager ()
+  {
+    this (null);
+  }
+
+  /**
+   * Constructor
+   * 
+   * @param aDestructionCallback
+   *        An optional callback that is invoked after the event manager was
+   *        stopped because the owning scope is destroyed. May be
+   *        <code>null</code>.
+   */
+  public MainEventManager (@Nullable final INonThrowingRunnable aDestructionCallback)
   {
     super (AbstractEventHelper.getObserverQueueFactory (),
            SynchronousEventHelper.createSynchronousEventDispatcherFactory (DispatchResultAggregatorBooleanAnd.class,
                                                                            new ScopedEventObservingExceptionHandler ()));
+    m_aDestructionCallback = aDestructionCallback;
   }
 
   public void onScopeDestruction () throws Exception
   {
     // Stop the event manager
     stop ();
+
+    if (m_aDestructionCallback != null)
+      m_aDestructionCallback.run ();
   }
 }
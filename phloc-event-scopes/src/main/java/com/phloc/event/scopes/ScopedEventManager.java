@@ -17,6 +17,8 @@
  */
 package com.phloc.event.scopes;
 
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
@@ -24,12 +26,20 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.phloc.commons.ValueEnforcer;
+import com.phloc.commons.callback.INonThrowingCallableWithParameter;
+import com.phloc.commons.callback.INonThrowingRunnable;
 import com.phloc.commons.state.EChange;
 import com.phloc.event.IEvent;
 import com.phloc.event.IEventObserver;
 import com.phloc.event.IEventType;
 import com.phloc.event.impl.BaseEvent;
 import com.phloc.scopes.IScope;
+import com.phloc.scopes.IScopeWithAtomicOps;
+import com.phloc.scopes.domain.IApplicationScope;
+import com.phloc.scopes.domain.IGlobalScope;
+import com.phloc.scopes.domain.IRequestScope;
+import com.phloc.scopes.domain.ISessionApplicationScope;
+import com.phloc.scopes.domain.ISessionScope;
 import com.phloc.scopes.mgr.EScope;
 
 /**
@@ -41,34 +51,59 @@ public final class ScopedEventManager
 {
   private static final Logger s_aLogger = LoggerFactory.getLogger (ScopedEventManager.class);
   private static final String ATTR_EVENT_MANAGER = ScopedEventManager.class.getName ();
+  private static final EScope [] ALL_SCOPES = EScope.values ();
+
+  /**
+   * The number of existing scopes holding an event manager, indexed by the
+   * ordinal of the {@link EScope}. Scope types without an event manager are
+   * not resolved upon notification at all.
+   */
+  private static final AtomicIntegerArray s_aEventMgrCounts = new AtomicIntegerArray (ALL_SCOPES.length);
 
   private ScopedEventManager ()
   {}
 
   @Nullable
-  private static IScope _getScope (@Nonnull final EScope eScope, final boolean bCreateIfNotExisting)
+  private static MainEventManager _getEventMgr (@Nonnull final IScope aScope)
   {
-    try
-    {
-      return eScope.getScope (bCreateIfNotExisting);
-    }
-    catch (final RuntimeException ex)
-    {
-      if (bCreateIfNotExisting)
-      {
-        // Scope was required - rethrow
-        throw ex;
-      }
-      return null;
-    }
+    ValueEnforcer.notNull (aScope, "Scope");
+
+    return aScope.getCastedAttribute (ATTR_EVENT_MANAGER);
   }
 
   @Nullable
-  private static MainEventManager _getEventMgr (@Nonnull final IScope aScope)
+  private static EScope _getScopeType (@Nonnull final IScope aScope)
   {
-    ValueEnforcer.notNull (aScope, "Scope");
+    // Check the most specific types first
+    if (aScope instanceof IRequestScope)
+      return EScope.REQUEST;
+    if (aScope instanceof ISessionApplicationScope)
+      return EScope.SESSION_APPLICATION;
+    if (aScope instanceof ISessionScope)
+      return EScope.SESSION;
+    if (aScope instanceof IApplicationScope)
+      return EScope.APPLICATION;
+    if (aScope instanceof IGlobalScope)
+      return EScope.GLOBAL;
+    return null;
+  }
 
-    return aScope.getCastedAttribute (ATTR_EVENT_MANAGER);
+  @Nonnull
+  private static MainEventManager _createEventMgr (@Nonnull final IScope aScope)
+  {
+    final EScope eScopeType = _getScopeType (aScope);
+    if (eScopeType == null)
+      return new MainEventManager ();
+
+    // Remember the scope type until the scope is destroyed
+    s_aEventMgrCounts.incrementAndGet (eScopeType.ordinal ());
+    return new MainEventManager (new INonThrowingRunnable ()
+    {
+      public void run ()
+      {
+        s_aEventMgrCounts.decrementAndGet (eScopeType.ordinal ());
+      }
+    });
   }
 
   @Nonnull
@@ -76,27 +111,44 @@ public final class ScopedEventManager
   {
     ValueEnforcer.notNull (aScope, "Scope");
 
-    // Does the scope already contain an event manager?
-    MainEventManager aEventMgr = _getEventMgr (aScope);
-    if (aEventMgr == null)
+    // Does the scope already contain an event manager? If not, build it and
+    // put it in scope - the scope takes care of the cleanup
+    if (aScope instanceof IScopeWithAtomicOps)
+      return ((IScopeWithAtomicOps) aScope).computeAttributeIfAbsent (ATTR_EVENT_MANAGER,
+                                                                      new INonThrowingCallableWithParameter <MainEventManager, String> ()
+                                                                      {
+                                                                        @Nonnull
+                                                                        public MainEventManager call (@Nonnull final String sName)
+                                                                        {
+                                                                          return _createEventMgr (aScope);
+                                                                        }
+                                                                      });
+
+    // Other scope implementations
+    return aScope.runAtomic (new INonThrowingCallableWithParameter <MainEventManager, IScope> ()
     {
-      // Build the event manager
-      aEventMgr = new MainEventManager ();
-
-      // put it in scope and register the cleanup handler
-      aScope.setAttribute (ATTR_EVENT_MANAGER, aEventMgr);
-    }
-    return aEventMgr;
+      @Nonnull
+      public MainEventManager call (@Nonnull final IScope aCurScope)
+      {
+        MainEventManager aEventMgr = _getEventMgr (aCurScope);
+        if (aEventMgr == null)
+        {
+          aEventMgr = _createEventMgr (aCurScope);
+          aCurScope.setAttribute (ATTR_EVENT_MANAGER, aEventMgr);
+        }
+        return aEventMgr;
+      }
+    });
   }
 
   @Nonnull
   public static EChange registerObserver (@Nonnull final EScope eScope, final IEventObserver aObserver)
   {
-    IScope aScope = _getScope (eScope, false);
+    IScope aScope = eScope.getScopeOrNull ();
     if (aScope == null)
     {
       s_aLogger.warn ("Creating scope of type " + eScope + " because of event observer registration");
-      aScope = _getScope (eScope, true);
+      aScope = eScope.getScope (true);
     }
     return registerObserver (aScope, aObserver);
   }
@@ -110,7 +162,7 @@ public final class ScopedEventManager
   @Nonnull
   public static EChange unregisterObserver (@Nonnull final EScope eScope, @Nonnull final IEventObserver aObserver)
   {
-    final IScope aScope = _getScope (eScope, false);
+    final IScope aScope = eScope.getScopeOrNull ();
     if (aScope != null)
     {
       final MainEventManager aEventMgr = _getEventMgr (aScope);
@@ -144,10 +196,15 @@ public final class ScopedEventManager
     boolean bReturn = true;
 
     // for all scopes
-    for (final EScope eCurrentScope : EScope.values ())
+    for (final EScope eCurrentScope : ALL_SCOPES)
     {
-      // get current instance of scope
-      final IScope aScope = _getScope (eCurrentScope, false);
+      // Skip the scope types where no scope has an event manager
+      if (s_aEventMgrCounts.get (eCurrentScope.ordinal ()) == 0)
+        continue;
+
+      // get current instance of scope - without creating it and without
+      // exceptions in case e.g. no request scope is present
+      final IScope aScope = eCurrentScope.getScopeOrNull ();
       if (aScope != null)
       {
         // get event manager (may be null)
@@ -26,6 +26,7 @@ import org.junit.rules.TestRule;
 
 import com.phloc.event.impl.BaseEvent;
 import com.phloc.scopes.mgr.EScope;
+import com.phloc.scopes.mgr.ScopeManager;
 import com.phloc.scopes.mock.ScopeTestRule;
 
 /**
@@ -82,4 +83,22 @@ public final class ScopedEventManagerTest
     // unregister again should fail :)
     assertTrue (ScopedEventManager.unregisterObserver (EScope.GLOBAL, aGlobal).isUnchanged ());
   }
+
+  @Test
+  public void testNoRequestScope ()
+  {
+    final MockCountingObserver aGlobal = new MockCountingObserver ();
+    final MockCountingObserver aRequest = new MockCountingObserver ();
+    assertTrue (ScopedEventManager.registerObserver (EScope.GLOBAL, aGlobal).isChanged ());
+    assertTrue (ScopedEventManager.registerObserver (EScope.REQUEST, aRequest).isChanged ());
+
+    // Like in a background thread: the request scope is gone and no
+    // application ID can be resolved
+    ScopeManager.onRequestEnd ();
+    assertTrue (ScopedEventManager.notifyObservers (new BaseEvent (MockCountingObserver.TOPIC)));
+    assertEquals (1, aGlobal.getInvocationCount ());
+    assertEquals (0, aRequest.getInvocationCount ());
+    assertTrue (ScopedEventManager.unregisterObserver (EScope.REQUEST, aRequest).isUnchanged ());
+    assertTrue (ScopedEventManager.unregisterObserver (EScope.GLOBAL, aGlobal).isChanged ());
+  }
 }
@@ -17,8 +17,16 @@
  */
 package com.phloc.scopes;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -30,13 +38,20 @@ import org.slf4j.LoggerFactory;
 import com.phloc.commons.ValueEnforcer;
 import com.phloc.commons.annotations.Nonempty;
 import com.phloc.commons.annotations.OverrideOnDemand;
+import com.phloc.commons.annotations.ReturnsImmutableObject;
 import com.phloc.commons.annotations.ReturnsMutableCopy;
 import com.phloc.commons.callback.AdapterRunnableToCallableWithParameter;
 import com.phloc.commons.callback.INonThrowingCallableWithParameter;
 import com.phloc.commons.callback.INonThrowingRunnableWithParameter;
 import com.phloc.commons.collections.attrs.MapBasedAttributeContainerThreadSafe;
+import com.phloc.commons.equals.EqualsUtils;
 import com.phloc.commons.hash.HashCodeGenerator;
+import com.phloc.commons.state.EChange;
+import com.phloc.commons.state.EContinue;
 import com.phloc.commons.string.ToStringGenerator;
+import com.phloc.scopes.stats.ScopeLifeCycleMetrics;
+import com.phloc.scopes.util.KeyedLock;
+import com.phloc.scopes.util.ParallelTaskRunner;
 
 /**
  * Abstract scope implementation based on a Map containing the attribute values.
@@ -44,7 +59,7 @@ import com.phloc.commons.string.ToStringGenerator;
  * @author Philip Helger
  */
 @ThreadSafe
-public abstract class AbstractMapBasedScope extends MapBasedAttributeContainerThreadSafe implements IScope
+public abstract class AbstractMapBasedScope extends MapBasedAttributeContainerThreadSafe implements IScopeWithAtomicOps, IScopeWithSlots
 {
   private static final Logger s_aLogger = LoggerFactory.getLogger (AbstractMapBasedScope.class);
 
@@ -54,6 +69,25 @@ public abstract class AbstractMapBasedScope extends MapBasedAttributeContainerTh
   private boolean m_bInDestruction = false;
   private boolean m_bDestroyed = false;
 
+  /** Used for the on demand creation of the members below */
+  private final Object m_aOnDemandLock = new Object ();
+  /** All counters - created on demand and independent of the scope lock */
+  private volatile ConcurrentMap <String, AtomicLong> m_aCounters;
+  /** The per attribute locks used by the compute methods */
+  private volatile KeyedLock <String> m_aComputeLocks;
+  /** The values of all typed scope keys by key index - created on demand */
+  private volatile AtomicReferenceArray <Object> m_aSlots;
+  /** Immutable copy of all attributes - reset upon each modification */
+  private volatile Map <String, Object> m_aSnapshot;
+  /** All attributes implementing {@link IScopeRenewalAware} */
+  private final Map <String, IScopeRenewalAware> m_aRenewalAwareAttrs = new LinkedHashMap <String, IScopeRenewalAware> ();
+  /** All attributes implementing {@link IScopeDestructionAware} */
+  private final Map <String, IScopeDestructionAware> m_aDestructionAwareAttrs = new LinkedHashMap <String, IScopeDestructionAware> ();
+  /** All singleton attributes by their name */
+  private final Map <String, AbstractSingleton> m_aSingletonsByName = new HashMap <String, AbstractSingleton> ();
+  /** All singleton attributes by each of their singleton base classes */
+  private final Map <Class <?>, Map <String, AbstractSingleton>> m_aSingletonsByType = new HashMap <Class <?>, Map <String, AbstractSingleton>> ();
+
   public AbstractMapBasedScope (@Nonnull @Nonempty final String sScopeID)
   {
     m_sScopeID = ValueEnforcer.notEmpty (sScopeID, "ScopeID");
@@ -133,16 +167,51 @@ public abstract class AbstractMapBasedScope extends MapBasedAttributeContainerTh
     destroyOwnedScopes ();
 
     // Call callback (if special interface is implemented)
-    for (final Object aValue : getAllAttributeValues ())
-      if (aValue instanceof IScopeDestructionAware)
-        try
+    final List <IScopeDestructionAware> aDestructionAwares;
+    m_aRWLock.readLock ().lock ();
+    try
+    {
+      aDestructionAwares = new ArrayList <IScopeDestructionAware> (m_aDestructionAwareAttrs.values ());
+      final AtomicReferenceArray <Object> aSlots = m_aSlots;
+      if (aSlots != null)
+        for (int i = 0; i < aSlots.length (); ++i)
         {
-          ((IScopeDestructionAware) aValue).onScopeDestruction ();
+          final Object aValue = aSlots.get (i);
+          if (aValue instanceof IScopeDestructionAware)
+            aDestructionAwares.add ((IScopeDestructionAware) aValue);
         }
-        catch (final Throwable t)
+    }
+    finally
+    {
+      m_aRWLock.readLock ().unlock ();
+    }
+
+    if (!aDestructionAwares.isEmpty ())
+    {
+      final INonThrowingRunnableWithParameter <IScopeDestructionAware> aDestroyAction = new INonThrowingRunnableWithParameter <IScopeDestructionAware> ()
+      {
+        public void run (@Nonnull final IScopeDestructionAware aValue)
         {
-          s_aLogger.error ("Failed to call destruction method in scope " + getID () + " for " + aValue, t);
+          try
+          {
+            aValue.onScopeDestruction ();
+          }
+          catch (final Throwable t)
+          {
+            ScopeLifeCycleMetrics.onScopeDestructionFailure ();
+            s_aLogger.error ("Failed to call destruction method in scope " + getID () + " for " + aValue, t);
+          }
         }
+      };
+
+      // Destroy dependent singletons before their dependencies; independent
+      // ones may be destroyed concurrently. Levels with a single value are
+      // destroyed in this thread, and all values are destroyed before the
+      // scope is cleared.
+      final int nThreads = ScopeUtils.getSingletonDestructionThreads ();
+      for (final List <IScopeDestructionAware> aLevel : ScopeDestructionOrder.getDestructionLevels (aDestructionAwares))
+        ParallelTaskRunner.runAll (aLevel, aDestroyAction, nThreads, 0, "destroy-" + getID ());
+    }
 
     // Finished destruction process -> remember this
     m_aRWLock.writeLock ().lock ();
@@ -151,8 +220,14 @@ public abstract class AbstractMapBasedScope extends MapBasedAttributeContainerTh
       // remove all attributes (double write lock is no problem)
       clear ();
 
+      m_aSlots = null;
       m_bDestroyed = true;
       m_bInDestruction = false;
+      synchronized (m_aOnDemandLock)
+      {
+        // Counters are created without the scope lock
+        m_aCounters = null;
+      }
     }
     finally
     {
@@ -184,20 +259,474 @@ public abstract class AbstractMapBasedScope extends MapBasedAttributeContainerTh
     }
   }
 
+  private void _updateAttributeIndexes (@Nonnull final String sName, @Nullable final Object aNewValue)
+  {
+    // Always invoked within the write lock
+    m_aSnapshot = null;
+
+    // Marker interfaces
+    if (aNewValue instanceof IScopeRenewalAware)
+      m_aRenewalAwareAttrs.put (sName, (IScopeRenewalAware) aNewValue);
+    else
+      m_aRenewalAwareAttrs.remove (sName);
+    if (aNewValue instanceof IScopeDestructionAware)
+      m_aDestructionAwareAttrs.put (sName, (IScopeDestructionAware) aNewValue);
+    else
+      m_aDestructionAwareAttrs.remove (sName);
+
+    // Singletons by type
+    final AbstractSingleton aOldSingleton = m_aSingletonsByName.remove (sName);
+    if (aOldSingleton != null)
+    {
+      Class <?> aClass = aOldSingleton.getClass ();
+      while (true)
+      {
+        final Map <String, AbstractSingleton> aSingletons = m_aSingletonsByType.get (aClass);
+        if (aSingletons != null)
+        {
+          aSingletons.remove (sName);
+          if (aSingletons.isEmpty ())
+            m_aSingletonsByType.remove (aClass);
+        }
+        if (aClass == AbstractSingleton.class)
+          break;
+        aClass = aClass.getSuperclass ();
+      }
+    }
+
+    if (aNewValue instanceof AbstractSingleton)
+    {
+      final AbstractSingleton aNewSingleton = (AbstractSingleton) aNewValue;
+      m_aSingletonsByName.put (sName, aNewSingleton);
+      Class <?> aClass = aNewSingleton.getClass ();
+      while (true)
+      {
+        Map <String, AbstractSingleton> aSingletons = m_aSingletonsByType.get (aClass);
+        if (aSingletons == null)
+        {
+          aSingletons = new LinkedHashMap <String, AbstractSingleton> ();
+          m_aSingletonsByType.put (aClass, aSingletons);
+        }
+        aSingletons.put (sName, aNewSingleton);
+        if (aClass == AbstractSingleton.class)
+          break;
+        aClass = aClass.getSuperclass ();
+      }
+    }
+  }
+
+  @Override
+  @Nonnull
+  public EChange setAttribute (@Nonnull final String sName, @Nullable final Object aValue)
+  {
+    m_aRWLock.writeLock ().lock ();
+    try
+    {
+      final EChange eChange = super.setAttribute (sName, aValue);
+      // A value equal to the old one is stored as well but reported as
+      // unchanged, so check by identity whether the value was stored
+      if (eChange.isChanged () || (aValue != null && super.getAttributeObject (sName) == aValue))
+        _updateAttributeIndexes (sName, aValue);
+      return eChange;
+    }
+    finally
+    {
+      m_aRWLock.writeLock ().unlock ();
+    }
+  }
+
+  @Override
+  @Nonnull
+  public EChange removeAttribute (@Nullable final String sName)
+  {
+    m_aRWLock.writeLock ().lock ();
+    try
+    {
+      final EChange eChange = super.removeAttribute (sName);
+      if (eChange.isChanged ())
+        _updateAttributeIndexes (sName, null);
+      return eChange;
+    }
+    finally
+    {
+      m_aRWLock.writeLock ().unlock ();
+    }
+  }
+
+  @Override
+  @Nonnull
+  public EChange clear ()
+  {
+    m_aRWLock.writeLock ().lock ();
+    try
+    {
+      m_aSnapshot = null;
+      m_aRenewalAwareAttrs.clear ();
+      m_aDestructionAwareAttrs.clear ();
+      m_aSingletonsByName.clear ();
+      m_aSingletonsByType.clear ();
+      return super.clear ();
+    }
+    finally
+    {
+      m_aRWLock.writeLock ().unlock ();
+    }
+  }
+
+  /**
+   * Get an immutable snapshot of all attributes of this scope. The snapshot is
+   * only created once after each modification of the scope, so repeated calls
+   * without modifications in between are cheap and return the same object.
+   * 
+   * @return An immutable map with all attributes at the time of the call.
+   *         Never <code>null</code>.
+   */
+  @Nonnull
+  @ReturnsImmutableObject
+  public final Map <String, Object> getAttributeSnapshot ()
+  {
+    Map <String, Object> ret = m_aSnapshot;
+    if (ret == null)
+    {
+      m_aRWLock.readLock ().lock ();
+      try
+      {
+        // No modification is possible while the read lock is held
+        ret = Collections.unmodifiableMap (super.getAllAttributes ());
+        m_aSnapshot = ret;
+      }
+      finally
+      {
+        m_aRWLock.readLock ().unlock ();
+      }
+    }
+    return ret;
+  }
+
+  /**
+   * Visit all attributes of this scope. The attribute snapshot is iterated, so
+   * no copy is created as long as the scope is not modified, and the visitor
+   * may safely modify this scope.
+   * 
+   * @param aVisitor
+   *        The visitor to invoke. May not be <code>null</code>.
+   * @return {@link EContinue#BREAK} if the visitor stopped the iteration,
+   *         {@link EContinue#CONTINUE} otherwise.
+   */
+  @Nonnull
+  public final EContinue forEachAttribute (@Nonnull final IScopeAttributeVisitor aVisitor)
+  {
+    ValueEnforcer.notNull (aVisitor, "Visitor");
+
+    for (final Map.Entry <String, Object> aEntry : getAttributeSnapshot ().entrySet ())
+      if (aVisitor.visitAttribute (aEntry.getKey (), aEntry.getValue ()).isBreak ())
+        return EContinue.BREAK;
+    return EContinue.CONTINUE;
+  }
+
+  /**
+   * Get all singletons of the passed type contained in this scope. Uses the
+   * internal type index, so only the matching singletons are touched.
+   * 
+   * @param aDesiredClass
+   *        The singleton class to search. May not be <code>null</code>.
+   * @return A non-<code>null</code> list with all matching singletons.
+   */
   @Nonnull
   @ReturnsMutableCopy
-  public final Map <String, IScopeRenewalAware> getAllScopeRenewalAwareAttributes ()
+  final <T extends AbstractSingleton> List <T> getAllSingletons (@Nonnull final Class <T> aDesiredClass)
+  {
+    m_aRWLock.readLock ().lock ();
+    try
+    {
+      final Map <String, AbstractSingleton> aSingletons = m_aSingletonsByType.get (aDesiredClass);
+      if (aSingletons == null)
+        return new ArrayList <T> ();
+
+      final List <T> ret = new ArrayList <T> (aSingletons.size ());
+      for (final AbstractSingleton aSingleton : aSingletons.values ())
+        ret.add (aDesiredClass.cast (aSingleton));
+      return ret;
+    }
+    finally
+    {
+      m_aRWLock.readLock ().unlock ();
+    }
+  }
+
+  @Nonnull
+  private KeyedLock <String> _getComputeLocks ()
+  {
+    KeyedLock <String> ret = m_aComputeLocks;
+    if (ret == null)
+    {
+      synchronized (m_aOnDemandLock)
+      {
+        ret = m_aComputeLocks;
+        if (ret == null)
+        {
+          ret = new KeyedLock <String> ();
+          m_aComputeLocks = ret;
+        }
+      }
+    }
+    return ret;
+  }
+
+  private void _setOrRemoveAttribute (@Nonnull final String sName, @Nullable final Object aValue)
+  {
+    if (aValue == null)
+      removeAttribute (sName);
+    else
+      setAttribute (sName, aValue);
+  }
+
+  @Nullable
+  @SuppressWarnings ("unchecked")
+  public final <T> T computeAttributeIfAbsent (@Nonnull @Nonempty final String sName,
+                                               @Nonnull final INonThrowingCallableWithParameter <T, String> aFactory)
   {
-    final Map <String, IScopeRenewalAware> ret = new HashMap <String, IScopeRenewalAware> ();
-    for (final Map.Entry <String, Object> aEntry : getAllAttributes ().entrySet ())
+    ValueEnforcer.notEmpty (sName, "Name");
+    ValueEnforcer.notNull (aFactory, "Factory");
+
+    // Fast path - no additional locking
+    Object aValue = getAttributeObject (sName);
+    if (aValue != null)
+      return (T) aValue;
+
+    final KeyedLock <String> aLocks = _getComputeLocks ();
+    aLocks.lock (sName);
+    try
+    {
+      // Maybe another thread created it in the meantime
+      aValue = getAttributeObject (sName);
+      if (aValue == null)
+      {
+        // Invoke the factory without holding the scope lock
+        aValue = aFactory.call (sName);
+        if (aValue != null)
+          setAttribute (sName, aValue);
+      }
+      return (T) aValue;
+    }
+    finally
+    {
+      aLocks.unlock (sName);
+    }
+  }
+
+  @Nullable
+  @SuppressWarnings ("unchecked")
+  public final <T> T computeAttribute (@Nonnull @Nonempty final String sName,
+                                       @Nonnull final IScopeAttributeFunction <T> aFunction)
+  {
+    ValueEnforcer.notEmpty (sName, "Name");
+    ValueEnforcer.notNull (aFunction, "Function");
+
+    final KeyedLock <String> aLocks = _getComputeLocks ();
+    aLocks.lock (sName);
+    try
+    {
+      final T aNewValue = aFunction.apply (sName, (T) getAttributeObject (sName));
+      _setOrRemoveAttribute (sName, aNewValue);
+      return aNewValue;
+    }
+    finally
+    {
+      aLocks.unlock (sName);
+    }
+  }
+
+  @Nullable
+  @SuppressWarnings ("unchecked")
+  public final <T> T mergeAttribute (@Nonnull @Nonempty final String sName,
+                                     @Nonnull final T aValue,
+                                     @Nonnull final IScopeAttributeMerger <T> aMerger)
+  {
+    ValueEnforcer.notEmpty (sName, "Name");
+    ValueEnforcer.notNull (aValue, "Value");
+    ValueEnforcer.notNull (aMerger, "Merger");
+
+    final KeyedLock <String> aLocks = _getComputeLocks ();
+    aLocks.lock (sName);
+    try
+    {
+      final T aOldValue = (T) getAttributeObject (sName);
+      final T aNewValue = aOldValue == null ? aValue : aMerger.merge (aOldValue, aValue);
+      _setOrRemoveAttribute (sName, aNewValue);
+      return aNewValue;
+    }
+    finally
+    {
+      aLocks.unlock (sName);
+    }
+  }
+
+  /**
+   * @return The counter with the passed name, or <code>null</code> if the scope
+   *         is already destroyed.
+   */
+  @Nullable
+  private AtomicLong _getOrCreateCounter (@Nonnull @Nonempty final String sName)
+  {
+    ValueEnforcer.notEmpty (sName, "Name");
+
+    ConcurrentMap <String, AtomicLong> aCounters = m_aCounters;
+    if (aCounters == null)
+    {
+      synchronized (m_aOnDemandLock)
+      {
+        aCounters = m_aCounters;
+        if (aCounters == null)
+        {
+          // m_bDestroyed is set before the counters are reset in this lock
+          if (m_bDestroyed)
+          {
+            s_aLogger.warn ("Scope '" + getID () + "' is already destroyed - ignoring counter '" + sName + "'");
+            return null;
+          }
+          // Most scopes have only few counters
+          aCounters = new ConcurrentHashMap <String, AtomicLong> (4, 0.75f, 4);
+          m_aCounters = aCounters;
+        }
+      }
+    }
+
+    AtomicLong ret = aCounters.get (sName);
+    if (ret == null)
     {
-      final Object aValue = aEntry.getValue ();
-      if (aValue instanceof IScopeRenewalAware)
-        ret.put (aEntry.getKey (), (IScopeRenewalAware) aValue);
+      final AtomicLong aNewCounter = new AtomicLong (0);
+      ret = aCounters.putIfAbsent (sName, aNewCounter);
+      if (ret == null)
+        ret = aNewCounter;
     }
     return ret;
   }
 
+  @Nonnull
+  public final AtomicLong getCounter (@Nonnull @Nonempty final String sName)
+  {
+    final AtomicLong ret = _getOrCreateCounter (sName);
+    return ret != null ? ret : new AtomicLong (0);
+  }
+
+  public final long incrementAndGetCounter (@Nonnull @Nonempty final String sName)
+  {
+    final AtomicLong aCounter = _getOrCreateCounter (sName);
+    return aCounter == null ? 0 : aCounter.incrementAndGet ();
+  }
+
+  public final long addAndGetCounter (@Nonnull @Nonempty final String sName, final long nDelta)
+  {
+    final AtomicLong aCounter = _getOrCreateCounter (sName);
+    return aCounter == null ? 0 : aCounter.addAndGet (nDelta);
+  }
+
+  public final long getCounterValue (@Nullable final String sName)
+  {
+    final ConcurrentMap <String, AtomicLong> aCounters = m_aCounters;
+    if (aCounters == null || sName == null)
+      return 0;
+    final AtomicLong aCounter = aCounters.get (sName);
+    return aCounter == null ? 0 : aCounter.get ();
+  }
+
+  @Nonnull
+  public final EChange removeCounter (@Nullable final String sName)
+  {
+    final ConcurrentMap <String, AtomicLong> aCounters = m_aCounters;
+    if (aCounters == null || sName == null)
+      return EChange.UNCHANGED;
+    return EChange.valueOf (aCounters.remove (sName) != null);
+  }
+
+  @Nullable
+  @SuppressWarnings ("unchecked")
+  public final <T> T getSlotValue (@Nonnull final IScopeKey <T> aKey)
+  {
+    ValueEnforcer.notNull (aKey, "Key");
+
+    // No locking needed - the slot array is only replaced as a whole
+    final AtomicReferenceArray <Object> aSlots = m_aSlots;
+    final int nIndex = aKey.getIndex ();
+    if (aSlots == null || nIndex >= aSlots.length ())
+      return null;
+    return (T) aSlots.get (nIndex);
+  }
+
+  @Nonnull
+  public final <T> EChange setSlotValue (@Nonnull final IScopeKey <T> aKey, @Nullable final T aValue)
+  {
+    ValueEnforcer.notNull (aKey, "Key");
+    if (aValue == null)
+      return removeSlotValue (aKey);
+
+    final int nIndex = aKey.getIndex ();
+    m_aRWLock.writeLock ().lock ();
+    try
+    {
+      if (m_bDestroyed)
+      {
+        s_aLogger.warn ("Scope '" + getID () + "' is already destroyed - ignoring value for key " + aKey);
+        return EChange.UNCHANGED;
+      }
+
+      AtomicReferenceArray <Object> aSlots = m_aSlots;
+      if (aSlots == null || nIndex >= aSlots.length ())
+      {
+        // Grow to the number of keys known so far, so that the array is
+        // usually resized only once
+        final AtomicReferenceArray <Object> aNewSlots = new AtomicReferenceArray <Object> (Math.max (nIndex + 1,
+                                                                                                   ScopeKey.getKeyCount ()));
+        if (aSlots != null)
+          for (int i = 0; i < aSlots.length (); ++i)
+            aNewSlots.set (i, aSlots.get (i));
+        aSlots = aNewSlots;
+        m_aSlots = aSlots;
+      }
+      return EChange.valueOf (!EqualsUtils.equals (aSlots.getAndSet (nIndex, aValue), aValue));
+    }
+    finally
+    {
+      m_aRWLock.writeLock ().unlock ();
+    }
+  }
+
+  @Nonnull
+  public final EChange removeSlotValue (@Nonnull final IScopeKey <?> aKey)
+  {
+    ValueEnforcer.notNull (aKey, "Key");
+
+    final int nIndex = aKey.getIndex ();
+    m_aRWLock.writeLock ().lock ();
+    try
+    {
+      final AtomicReferenceArray <Object> aSlots = m_aSlots;
+      if (aSlots == null || nIndex >= aSlots.length ())
+        return EChange.UNCHANGED;
+      return EChange.valueOf (aSlots.getAndSet (nIndex, null) != null);
+    }
+    finally
+    {
+      m_aRWLock.writeLock ().unlock ();
+    }
+  }
+
+  @Nonnull
+  @ReturnsMutableCopy
+  public final Map <String, IScopeRenewalAware> getAllScopeRenewalAwareAttributes ()
+  {
+    m_aRWLock.readLock ().lock ();
+    try
+    {
+      return new HashMap <String, IScopeRenewalAware> (m_aRenewalAwareAttrs);
+    }
+    finally
+    {
+      m_aRWLock.readLock ().unlock ();
+    }
+  }
+
   @Override
   public boolean equals (final Object o)
   {
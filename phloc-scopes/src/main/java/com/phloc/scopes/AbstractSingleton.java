@@ -22,8 +22,11 @@ import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.lang.reflect.Constructor;
 import java.security.AccessController;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -40,10 +43,12 @@ import com.phloc.commons.callback.INonThrowingCallableWithParameter;
 import com.phloc.commons.exceptions.LoggedRuntimeException;
 import com.phloc.commons.lang.ClassHelper;
 import com.phloc.commons.mutable.MutableBoolean;
+import com.phloc.commons.mutable.MutableLong;
 import com.phloc.commons.priviledged.PrivilegedActionAccessibleObjectSetAccessible;
 import com.phloc.commons.stats.IStatisticsHandlerKeyedCounter;
 import com.phloc.commons.stats.StatisticsManager;
 import com.phloc.commons.string.ToStringGenerator;
+import com.phloc.scopes.spi.ScopeSPIManager;
 
 /**
  * Base class for all singletons.
@@ -52,14 +57,48 @@ import com.phloc.commons.string.ToStringGenerator;
  */
 public abstract class AbstractSingleton implements IScopeDestructionAware
 {
+  /** The prefix of all singleton scope keys */
+  public static final String SCOPE_KEY_PREFIX = "singleton.";
+
   private static final int DEFAULT_KEY_LENGTH = 255;
   private static final Logger s_aLogger = LoggerFactory.getLogger (AbstractSingleton.class);
   private static final IStatisticsHandlerKeyedCounter s_aStatsCounterInstantiate = StatisticsManager.getKeyedCounterHandler (AbstractSingleton.class);
 
+  // Number of singleton instantiations currently running in any thread - used
+  // to avoid the thread local lookup in the regular case
+  private static final AtomicInteger s_aInstantiationsInProgress = new AtomicInteger (0);
+
+  /**
+   * The singletons of a single scope used by an instantiation in progress.
+   */
+  private static final class DependencyCollector
+  {
+    private final IScope m_aScope;
+    private final List <AbstractSingleton> m_aDependencies = new ArrayList <AbstractSingleton> ();
+
+    DependencyCollector (@Nonnull final IScope aScope)
+    {
+      m_aScope = aScope;
+    }
+  }
+
+  // Per thread: the singletons used by the instantiations in progress
+  private static final ThreadLocal <Deque <DependencyCollector>> s_aDependencyCollectors = new ThreadLocal <Deque <DependencyCollector>> ()
+  {
+    @Override
+    protected Deque <DependencyCollector> initialValue ()
+    {
+      return new ArrayDeque <DependencyCollector> ();
+    }
+  };
+
   private boolean m_bInInstantiation = false;
   private boolean m_bInstantiated = false;
   private boolean m_bInDestruction = false;
   private boolean m_bDestroyed = false;
+  // All singletons of the same scope used during the instantiation of this
+  // singleton
+  private transient volatile List <AbstractSingleton> m_aDependencies;
 
   @Deprecated
   @UsedViaReflection ("For Serializable interface implementation in derived classes!")
@@ -214,6 +253,24 @@ public abstract class AbstractSingleton implements IScopeDestructionAware
     return m_bDestroyed;
   }
 
+  /**
+   * @return A list with all singletons of the same scope that were retrieved
+   *         while this singleton was instantiated (in the constructor or in
+   *         {@link #onAfterInstantiation()}). These singletons are destroyed
+   *         after this singleton. Singletons of other scopes are not contained,
+   *         as their life cycle is independent of this singleton. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public final List <AbstractSingleton> getAllDependencies ()
+  {
+    final List <AbstractSingleton> aDependencies = m_aDependencies;
+    if (aDependencies == null)
+      return new ArrayList <AbstractSingleton> ();
+    return new ArrayList <AbstractSingleton> (aDependencies);
+  }
+
   /**
    * Called when the singleton is destroyed. Perform all cleanup in this method.
    * 
@@ -279,8 +336,13 @@ public abstract class AbstractSingleton implements IScopeDestructionAware
   {
     ValueEnforcer.notNull (aClass, "Class");
 
+    // Use the precomputed key if present
+    final String sIndexedKey = SingletonIndex.getSingletonScopeKey (aClass);
+    if (sIndexedKey != null)
+      return sIndexedKey;
+
     // Preallocate some bytes
-    return new StringBuilder (DEFAULT_KEY_LENGTH).append ("singleton.").append (aClass.getName ()).toString ();
+    return new StringBuilder (DEFAULT_KEY_LENGTH).append (SCOPE_KEY_PREFIX).append (aClass.getName ()).toString ();
   }
 
   /**
@@ -346,6 +408,11 @@ public abstract class AbstractSingleton implements IScopeDestructionAware
       if (s_aLogger.isDebugEnabled ())
         s_aLogger.debug ("Created singleton for '" + aClass + "' in scope " + aScope.toString ());
 
+      // Use the build-time index if possible
+      final T aIndexed = SingletonIndex.createSingleton (aClass);
+      if (aIndexed != null)
+        return aIndexed;
+
       // Check if class is public, non-abstract etc.
       if (!ClassHelper.isInstancableClass (aClass))
         throw new IllegalStateException ("Class " + aClass + " is not instancable!");
@@ -368,6 +435,39 @@ public abstract class AbstractSingleton implements IScopeDestructionAware
     }
   }
 
+  @Nonnull
+  private static List <AbstractSingleton> _beginInstantiation (@Nonnull final IScope aScope)
+  {
+    final DependencyCollector aCollector = new DependencyCollector (aScope);
+    s_aDependencyCollectors.get ().push (aCollector);
+    s_aInstantiationsInProgress.incrementAndGet ();
+    return aCollector.m_aDependencies;
+  }
+
+  private static void _endInstantiation ()
+  {
+    s_aInstantiationsInProgress.decrementAndGet ();
+    final Deque <DependencyCollector> aCollectors = s_aDependencyCollectors.get ();
+    aCollectors.pop ();
+    if (aCollectors.isEmpty ())
+      s_aDependencyCollectors.remove ();
+  }
+
+  private static void _registerDependency (@Nonnull final IScope aScope, @Nonnull final AbstractSingleton aInstance)
+  {
+    // Is the current thread instantiating a singleton?
+    final DependencyCollector aCollector = s_aDependencyCollectors.get ().peek ();
+    if (aCollector != null)
+    {
+      // Singletons of other scopes may be destroyed earlier or later, so
+      // keeping them would only keep dead instances reachable
+      if (aCollector.m_aScope == aScope && !aCollector.m_aDependencies.contains (aInstance))
+        aCollector.m_aDependencies.add (aInstance);
+    }
+    else
+      s_aDependencyCollectors.remove ();
+  }
+
   /**
    * Get the singleton object in the passed scope, using the passed class. If
    * the singleton is not yet instantiated, a new instance is created.
@@ -395,53 +495,95 @@ public abstract class AbstractSingleton implements IScopeDestructionAware
       // Some final objects to access them from the nested inner class
       final MutableBoolean aFinalWasInstantiated = new MutableBoolean (false);
 
-      // Safe instantiation:
-      aInstance = aScope.runAtomic (new INonThrowingCallableWithParameter <T, IScope> ()
+      // Only measure the time if somebody is interested
+      final boolean bMeasureTime = ScopeSPIManager.hasSingletonLifeCycleSPIs ();
+      final long nStartNanos = bMeasureTime ? System.nanoTime () : 0;
+      final MutableLong aFinalLockedNanos = new MutableLong (nStartNanos);
+
+      // Collect all singletons used during the instantiation
+      final List <AbstractSingleton> aDependencies = _beginInstantiation (aScope);
+      try
       {
-        public T call (@Nullable final IScope aInnerScope)
+        // Safe instantiation:
+        aInstance = aScope.runAtomic (new INonThrowingCallableWithParameter <T, IScope> ()
         {
-          // try to resolve again in case it was set in the meantime
-          T aInnerInstance = aClass.cast (aScope.getAttributeObject (sSingletonScopeKey));
-          if (aInnerInstance == null)
+          public T call (@Nullable final IScope aInnerScope)
           {
-            // Main instantiation
-            aInnerInstance = _instantiateSingleton (aClass, aScope);
+            if (bMeasureTime)
+              aFinalLockedNanos.set (System.nanoTime ());
+
+            // try to resolve again in case it was set in the meantime
+            T aInnerInstance = aClass.cast (aScope.getAttributeObject (sSingletonScopeKey));
+            if (aInnerInstance == null)
+            {
+              // Main instantiation
+              aInnerInstance = _instantiateSingleton (aClass, aScope);
+
+              // Set in scope
+              aScope.setAttribute (sSingletonScopeKey, aInnerInstance);
 
-            // Set in scope
-            aScope.setAttribute (sSingletonScopeKey, aInnerInstance);
+              // Remember that we instantiated the object
+              aFinalWasInstantiated.set (true);
 
-            // Remember that we instantiated the object
-            aFinalWasInstantiated.set (true);
+              // And some statistics
+              s_aStatsCounterInstantiate.increment (sSingletonScopeKey);
+            }
 
-            // And some statistics
-            s_aStatsCounterInstantiate.increment (sSingletonScopeKey);
+            // We have the instance - maybe from re-querying the scope, maybe from
+            // instantiation
+            return aInnerInstance;
           }
+        });
 
-          // We have the instance - maybe from re-querying the scope, maybe from
-          // instantiation
-          return aInnerInstance;
+        // Call outside the scope sync block, and after the instance was
+        // registered in the scope
+        if (aFinalWasInstantiated.booleanValue ())
+        {
+          aInstance.setInInstantiation (true);
+          try
+          {
+            // Invoke virtual method
+            aInstance.onAfterInstantiation ();
+            aInstance.setInstantiated (true);
+          }
+          finally
+          {
+            // Ensure field is reset even in case of an exception
+            aInstance.setInInstantiation (false);
+          }
         }
-      });
+      }
+      finally
+      {
+        _endInstantiation ();
+      }
 
-      // Call outside the scope sync block, and after the instance was
-      // registered in the scope
       if (aFinalWasInstantiated.booleanValue ())
       {
-        aInstance.setInInstantiation (true);
-        try
+        // A singleton accessing itself is no dependency
+        aDependencies.remove (aInstance);
+        if (!aDependencies.isEmpty ())
+          ((AbstractSingleton) aInstance).m_aDependencies = aDependencies;
+
+        if (bMeasureTime)
         {
-          // Invoke virtual method
-          aInstance.onAfterInstantiation ();
-          aInstance.setInstantiated (true);
+          final long nDurationNanos = System.nanoTime () - aFinalLockedNanos.longValue ();
+          ScopeSPIManager.onSingletonInstantiated (aScope, aClass, nDurationNanos);
         }
-        finally
+      }
+      else
+        if (bMeasureTime)
         {
-          // Ensure field is reset even in case of an exception
-          aInstance.setInInstantiation (false);
+          // Another thread instantiated the object while we were waiting
+          ScopeSPIManager.onSingletonInstantiationWait (aScope, aClass, aFinalLockedNanos.longValue () - nStartNanos);
         }
-      }
     }
 
+    // Remember the dependency if called during the instantiation of another
+    // singleton
+    if (s_aInstantiationsInProgress.get () > 0)
+      _registerDependency (aScope, aInstance);
+
     if (false)
     {
       // Just a small note in case we're returning an incomplete object
@@ -471,6 +613,10 @@ public abstract class AbstractSingleton implements IScopeDestructionAware
   {
     ValueEnforcer.notNull (aDesiredClass, "DesiredClass");
 
+    // Use the type index of the scope if possible
+    if (aScope instanceof AbstractMapBasedScope)
+      return ((AbstractMapBasedScope) aScope).getAllSingletons (aDesiredClass);
+
     final List <T> ret = new ArrayList <T> ();
     if (aScope != null)
       for (final Object aScopeValue : aScope.getAllAttributeValues ())
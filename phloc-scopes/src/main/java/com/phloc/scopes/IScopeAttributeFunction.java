@@ -0,0 +1,47 @@
+/**
+ * Copyright (C) 2006-2014 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.scopes;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Callback interface to calculate the new value of a scope attribute from its
+ * old value.
+ * 
+ * @author Philip Helger
+ * @param <DATATYPE>
+ *        The attribute value type
+ * @see IScopeWithAtomicOps#computeAttribute(String, IScopeAttributeFunction)
+ */
+public interface IScopeAttributeFunction <DATATYPE>
+{
+  /**
+   * Calculate the new attribute value.
+   * 
+   * @param sName
+   *        The attribute name. Never <code>null</code>.
+   * @param aOldValue
+   *        The current value of the attribute. May be <code>null</code> if the
+   *        attribute is not present.
+   * @return The new value of the attribute. If <code>null</code> the attribute
+   *         is removed.
+   */
+  @Nullable
+  DATATYPE apply (@Nonnull String sName, @Nullable DATATYPE aOldValue);
+}
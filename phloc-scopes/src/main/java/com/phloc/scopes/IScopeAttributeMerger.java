@@ -0,0 +1,46 @@
+/**
+ * Copyright (C) 2006-2014 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.scopes;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Callback interface to merge an existing scope attribute value with a new
+ * value.
+ * 
+ * @author Philip Helger
+ * @param <DATATYPE>
+ *        The attribute value type
+ * @see IScopeWithAtomicOps#mergeAttribute(String, Object, IScopeAttributeMerger)
+ */
+public interface IScopeAttributeMerger <DATATYPE>
+{
+  /**
+   * Merge the two values.
+   * 
+   * @param aOldValue
+   *        The current value of the attribute. Never <code>null</code>.
+   * @param aValue
+   *        The value passed to the merge call. Never <code>null</code>.
+   * @return The new value of the attribute. If <code>null</code> the attribute
+   *         is removed.
+   */
+  @Nullable
+  DATATYPE merge (@Nonnull DATATYPE aOldValue, @Nonnull DATATYPE aValue);
+}
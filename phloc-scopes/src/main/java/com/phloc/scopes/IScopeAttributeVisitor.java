@@ -0,0 +1,47 @@
+/**
+ * Copyright (C) 2006-2014 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.scopes;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.phloc.commons.state.EContinue;
+
+/**
+ * Callback interface for iterating the attributes of a scope without creating
+ * a copy of them.
+ * 
+ * @author Philip Helger
+ * @see AbstractMapBasedScope#forEachAttribute(IScopeAttributeVisitor)
+ */
+public interface IScopeAttributeVisitor
+{
+  /**
+   * Called for each attribute of the scope. The visited scope must not be
+   * modified from within this method.
+   * 
+   * @param sName
+   *        The attribute name. Never <code>null</code>.
+   * @param aValue
+   *        The attribute value. May be <code>null</code>.
+   * @return {@link EContinue#CONTINUE} to visit the next attribute,
+   *         {@link EContinue#BREAK} to stop the iteration.
+   */
+  @Nonnull
+  EContinue visitAttribute (@Nonnull String sName, @Nullable Object aValue);
+}
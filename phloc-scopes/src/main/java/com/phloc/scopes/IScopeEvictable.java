@@ -0,0 +1,32 @@
+/**
+ * Copyright (C) 2006-2014 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.scopes;
+
+/**
+ * This is a marker interface for scope attribute values that can be recreated
+ * on demand (e.g. caches). If a session memory budget is exceeded and the
+ * budget policy is {@link com.phloc.scopes.impl.ESessionBudgetPolicy#EVICT},
+ * attributes implementing this interface are removed from the session to make
+ * room for the new attribute.
+ * 
+ * @author Philip Helger
+ */
+public interface IScopeEvictable
+{
+  /* empty */
+}
@@ -0,0 +1,55 @@
+/**
+ * Copyright (C) 2006-2014 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.scopes;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+
+import com.phloc.commons.annotations.Nonempty;
+
+/**
+ * A typed key for values stored in a scope. Each key has a unique index that
+ * is assigned upon creation, so that scopes can store the values in an indexed
+ * slot array instead of a map. Use {@link ScopeKey#create(String, Class)} to
+ * create new keys.
+ * 
+ * @author Philip Helger
+ * @param <DATATYPE>
+ *        The value type
+ */
+public interface IScopeKey <DATATYPE>
+{
+  /**
+   * @return The unique index of this key. Always &ge; 0.
+   */
+  @Nonnegative
+  int getIndex ();
+
+  /**
+   * @return The unique name of this key. Only used for display purposes.
+   */
+  @Nonnull
+  @Nonempty
+  String getName ();
+
+  /**
+   * @return The class of the values stored for this key.
+   */
+  @Nonnull
+  Class <DATATYPE> getValueClass ();
+}
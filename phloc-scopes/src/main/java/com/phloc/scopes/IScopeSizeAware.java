@@ -0,0 +1,37 @@
+/**
+ * Copyright (C) 2006-2014 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.scopes;
+
+import javax.annotation.Nonnegative;
+
+/**
+ * Interface for scope attribute values that know their approximate memory
+ * consumption. If a session memory budget is configured, this size hint is
+ * used instead of a reflective size estimation, which is both more exact and
+ * cheaper.
+ * 
+ * @author Philip Helger
+ */
+public interface IScopeSizeAware
+{
+  /**
+   * @return The approximate number of bytes retained by this object.
+   */
+  @Nonnegative
+  long getEstimatedSizeInBytes ();
+}
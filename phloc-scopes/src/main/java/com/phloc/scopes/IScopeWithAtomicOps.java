@@ -0,0 +1,148 @@
+/**
+ * Copyright (C) 2006-2014 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.scopes;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.phloc.commons.annotations.Nonempty;
+import com.phloc.commons.callback.INonThrowingCallableWithParameter;
+import com.phloc.commons.state.EChange;
+
+/**
+ * Extended scope interface with atomic operations that go beyond the plain
+ * attribute handling of {@link IScope}. It is implemented by
+ * {@link AbstractMapBasedScope}, so all scopes of this library support it,
+ * while custom {@link IScope} implementations are not forced to.
+ * 
+ * @author Philip Helger
+ */
+public interface IScopeWithAtomicOps extends IScope
+{
+  /**
+   * Get the value of the attribute with the passed name. If the attribute is
+   * not present, it is created with the passed factory. Concurrent calls of
+   * the compute methods for the same attribute wait for each other, so the
+   * factory is invoked only once. The scope lock is not held while the
+   * factory is invoked, so other attributes are not affected.
+   * 
+   * @param sName
+   *        The attribute name. May neither be <code>null</code> nor empty.
+   * @param aFactory
+   *        The factory that is invoked with the attribute name if the
+   *        attribute is not present. May not be <code>null</code>. If it
+   *        returns <code>null</code> nothing is stored.
+   * @return The existing or the newly created value. May be <code>null</code>
+   *         if the factory returned <code>null</code>.
+   */
+  @Nullable
+  <T> T computeAttributeIfAbsent (@Nonnull @Nonempty String sName,
+                                  @Nonnull INonThrowingCallableWithParameter <T, String> aFactory);
+
+  /**
+   * Calculate the new value of the attribute with the passed name from its
+   * current value. Concurrent calls of the compute methods for the same
+   * attribute are serialized. The scope lock is not held while the function is
+   * invoked.
+   * 
+   * @param sName
+   *        The attribute name. May neither be <code>null</code> nor empty.
+   * @param aFunction
+   *        The function calculating the new value. May not be
+   *        <code>null</code>.
+   * @return The new value or <code>null</code> if the attribute was removed.
+   */
+  @Nullable
+  <T> T computeAttribute (@Nonnull @Nonempty String sName, @Nonnull IScopeAttributeFunction <T> aFunction);
+
+  /**
+   * Set the passed value if the attribute is not present, or merge it with the
+   * existing value otherwise. Concurrent calls of the compute methods for the
+   * same attribute are serialized. The scope lock is not held while the
+   * merger is invoked.
+   * 
+   * @param sName
+   *        The attribute name. May neither be <code>null</code> nor empty.
+   * @param aValue
+   *        The value to set or to merge. May not be <code>null</code>.
+   * @param aMerger
+   *        The merger to be invoked if the attribute is present. May not be
+   *        <code>null</code>.
+   * @return The new value or <code>null</code> if the attribute was removed.
+   */
+  @Nullable
+  <T> T mergeAttribute (@Nonnull @Nonempty String sName, @Nonnull T aValue, @Nonnull IScopeAttributeMerger <T> aMerger);
+
+  /**
+   * Get the counter with the passed name, and create it if it is not yet
+   * present. Counters are independent of the attributes and are updated
+   * without the scope lock. The returned object may be kept by the caller to
+   * avoid further lookups. After the scope was destroyed, no counter is
+   * created and a new counter that is not part of this scope is returned.
+   * 
+   * @param sName
+   *        The name of the counter. May neither be <code>null</code> nor empty.
+   * @return The counter. Never <code>null</code>.
+   */
+  @Nonnull
+  AtomicLong getCounter (@Nonnull @Nonempty String sName);
+
+  /**
+   * Increment the counter with the passed name. If the counter is not yet
+   * present, it is created with the value 0 before.
+   * 
+   * @param sName
+   *        The name of the counter. May neither be <code>null</code> nor empty.
+   * @return The new value of the counter or 0 if the scope was already
+   *         destroyed.
+   */
+  long incrementAndGetCounter (@Nonnull @Nonempty String sName);
+
+  /**
+   * Add the passed value to the counter with the passed name. If the counter is
+   * not yet present, it is created with the value 0 before.
+   * 
+   * @param sName
+   *        The name of the counter. May neither be <code>null</code> nor empty.
+   * @param nDelta
+   *        The value to be added. May be negative.
+   * @return The new value of the counter or 0 if the scope was already
+   *         destroyed.
+   */
+  long addAndGetCounter (@Nonnull @Nonempty String sName, long nDelta);
+
+  /**
+   * @param sName
+   *        The name of the counter. May be <code>null</code>.
+   * @return The current value of the counter with the passed name or 0 if no
+   *         such counter is present.
+   */
+  long getCounterValue (@Nullable String sName);
+
+  /**
+   * Remove the counter with the passed name.
+   * 
+   * @param sName
+   *        The name of the counter. May be <code>null</code>.
+   * @return {@link EChange#CHANGED} if the counter was removed.
+   */
+  @Nonnull
+  EChange removeCounter (@Nullable String sName);
+}
@@ -0,0 +1,70 @@
+/**
+ * Copyright (C) 2006-2014 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.scopes;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.phloc.commons.state.EChange;
+
+/**
+ * Extended scope interface for values stored by typed {@link IScopeKey}s. It
+ * is implemented by {@link AbstractMapBasedScope}, so all scopes of this
+ * library support it, while custom {@link IScope} implementations are not
+ * forced to.
+ * 
+ * @author Philip Helger
+ */
+public interface IScopeWithSlots extends IScope
+{
+  /**
+   * Get the value stored for the passed typed key. Values of typed keys are
+   * stored in an indexed slot array and are independent of the attributes.
+   * 
+   * @param aKey
+   *        The key to query. May not be <code>null</code>.
+   * @return <code>null</code> if no value is stored for the passed key.
+   */
+  @Nullable
+  <T> T getSlotValue (@Nonnull IScopeKey <T> aKey);
+
+  /**
+   * Set the value for the passed typed key. If the value implements
+   * {@link IScopeDestructionAware} it is notified upon scope destruction, like
+   * attributes. After the scope was destroyed, no value is set.
+   * 
+   * @param aKey
+   *        The key to set. May not be <code>null</code>.
+   * @param aValue
+   *        The value to set. If it is <code>null</code> the value is removed.
+   * @return {@link EChange}. Always {@link EChange#UNCHANGED} if the scope is
+   *         already destroyed.
+   */
+  @Nonnull
+  <T> EChange setSlotValue (@Nonnull IScopeKey <T> aKey, @Nullable T aValue);
+
+  /**
+   * Remove the value stored for the passed typed key.
+   * 
+   * @param aKey
+   *        The key to remove. May not be <code>null</code>.
+   * @return {@link EChange}
+   */
+  @Nonnull
+  EChange removeSlotValue (@Nonnull IScopeKey <?> aKey);
+}
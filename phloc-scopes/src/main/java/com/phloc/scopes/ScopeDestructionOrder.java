@@ -0,0 +1,138 @@
+/**
+ * Copyright (C) 2006-2014 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.scopes;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.Immutable;
+
+import com.phloc.commons.annotations.PresentForCodeCoverage;
+import com.phloc.commons.annotations.ReturnsMutableCopy;
+
+/**
+ * Internal helper class that determines the order in which the
+ * {@link IScopeDestructionAware} values of a scope are destroyed. A singleton
+ * is destroyed before all singletons it used during its instantiation (see
+ * {@link AbstractSingleton#getAllDependencies()}). The result is a list of
+ * levels: all objects within one level are independent of each other and may
+ * therefore be destroyed concurrently, whereas the levels must be processed
+ * one after the other.
+ * 
+ * @author Philip Helger
+ */
+@Immutable
+final class ScopeDestructionOrder
+{
+  @SuppressWarnings ("unused")
+  @PresentForCodeCoverage
+  private static final ScopeDestructionOrder s_aInstance = new ScopeDestructionOrder ();
+
+  private ScopeDestructionOrder ()
+  {}
+
+  @Nonnull
+  private static List <AbstractSingleton> _getDependencies (@Nonnull final IScopeDestructionAware aObject)
+  {
+    if (aObject instanceof AbstractSingleton)
+      return ((AbstractSingleton) aObject).getAllDependencies ();
+    return new ArrayList <AbstractSingleton> ();
+  }
+
+  /**
+   * Group the passed objects into destruction levels.
+   * 
+   * @param aObjects
+   *        The objects to be destroyed, in their natural order. May not be
+   *        <code>null</code>.
+   * @return A list of non-empty levels in destruction order. Within each level
+   *         the order of the passed objects is retained. Objects that are part
+   *         of a dependency cycle are put into separate levels at the end.
+   *         Never <code>null</code>.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  static List <List <IScopeDestructionAware>> getDestructionLevels (@Nonnull final List <? extends IScopeDestructionAware> aObjects)
+  {
+    // Determine the number of objects depending on each object
+    final Map <Object, Integer> aDependentCount = new IdentityHashMap <Object, Integer> (aObjects.size ());
+    for (final IScopeDestructionAware aObject : aObjects)
+      aDependentCount.put (aObject, Integer.valueOf (0));
+    boolean bAnyDependency = false;
+    for (final IScopeDestructionAware aObject : aObjects)
+      for (final AbstractSingleton aDependency : _getDependencies (aObject))
+      {
+        final Integer aCount = aDependentCount.get (aDependency);
+        if (aCount != null)
+        {
+          aDependentCount.put (aDependency, Integer.valueOf (aCount.intValue () + 1));
+          bAnyDependency = true;
+        }
+      }
+
+    final List <List <IScopeDestructionAware>> ret = new ArrayList <List <IScopeDestructionAware>> ();
+    if (!bAnyDependency)
+    {
+      // Shortcut: everything is independent
+      if (!aObjects.isEmpty ())
+        ret.add (new ArrayList <IScopeDestructionAware> (aObjects));
+      return ret;
+    }
+
+    List <IScopeDestructionAware> aRemaining = new ArrayList <IScopeDestructionAware> (aObjects);
+    while (!aRemaining.isEmpty ())
+    {
+      // All objects no other remaining object depends on
+      final List <IScopeDestructionAware> aLevel = new ArrayList <IScopeDestructionAware> ();
+      final List <IScopeDestructionAware> aNextRemaining = new ArrayList <IScopeDestructionAware> ();
+      for (final IScopeDestructionAware aObject : aRemaining)
+        if (aDependentCount.get (aObject).intValue () == 0)
+          aLevel.add (aObject);
+        else
+          aNextRemaining.add (aObject);
+
+      if (aLevel.isEmpty ())
+      {
+        // Only cycles left - destroy them serially in the natural order
+        for (final IScopeDestructionAware aObject : aNextRemaining)
+        {
+          final List <IScopeDestructionAware> aCycleLevel = new ArrayList <IScopeDestructionAware> (1);
+          aCycleLevel.add (aObject);
+          ret.add (aCycleLevel);
+        }
+        break;
+      }
+
+      // The dependencies of this level may be destroyed afterwards
+      for (final IScopeDestructionAware aObject : aLevel)
+        for (final AbstractSingleton aDependency : _getDependencies (aObject))
+        {
+          final Integer aCount = aDependentCount.get (aDependency);
+          if (aCount != null)
+            aDependentCount.put (aDependency, Integer.valueOf (aCount.intValue () - 1));
+        }
+
+      ret.add (aLevel);
+      aRemaining = aNextRemaining;
+    }
+    return ret;
+  }
+}
@@ -0,0 +1,137 @@
+/**
+ * Copyright (C) 2006-2014 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.scopes;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.Immutable;
+
+import com.phloc.commons.ValueEnforcer;
+import com.phloc.commons.annotations.Nonempty;
+import com.phloc.commons.string.ToStringGenerator;
+
+/**
+ * Default implementation of {@link IScopeKey}. All keys are registered
+ * globally, so that each key name is mapped to exactly one index. Keys should
+ * be created once and stored in static final fields.
+ * 
+ * @author Philip Helger
+ * @param <DATATYPE>
+ *        The value type
+ */
+@Immutable
+public final class ScopeKey <DATATYPE> implements IScopeKey <DATATYPE>
+{
+  @GuardedBy ("s_aAllKeys")
+  private static final Map <String, ScopeKey <?>> s_aAllKeys = new HashMap <String, ScopeKey <?>> ();
+
+  private final int m_nIndex;
+  private final String m_sName;
+  private final Class <DATATYPE> m_aValueClass;
+
+  private ScopeKey (@Nonnegative final int nIndex,
+                    @Nonnull @Nonempty final String sName,
+                    @Nonnull final Class <DATATYPE> aValueClass)
+  {
+    m_nIndex = nIndex;
+    m_sName = sName;
+    m_aValueClass = aValueClass;
+  }
+
+  @Nonnegative
+  public int getIndex ()
+  {
+    return m_nIndex;
+  }
+
+  @Nonnull
+  @Nonempty
+  public String getName ()
+  {
+    return m_sName;
+  }
+
+  @Nonnull
+  public Class <DATATYPE> getValueClass ()
+  {
+    return m_aValueClass;
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("index", m_nIndex)
+                                       .append ("name", m_sName)
+                                       .append ("valueClass", m_aValueClass)
+                                       .toString ();
+  }
+
+  /**
+   * Get or create the key with the passed name. If a key with the same name
+   * was already created, it is returned.
+   * 
+   * @param sName
+   *        The unique key name. May neither be <code>null</code> nor empty.
+   * @param aValueClass
+   *        The value class. May not be <code>null</code>.
+   * @return The key and never <code>null</code>.
+   * @throws IllegalArgumentException
+   *         If a key with the same name but a different value class exists
+   */
+  @Nonnull
+  @SuppressWarnings ("unchecked")
+  public static <T> ScopeKey <T> create (@Nonnull @Nonempty final String sName, @Nonnull final Class <T> aValueClass)
+  {
+    ValueEnforcer.notEmpty (sName, "Name");
+    ValueEnforcer.notNull (aValueClass, "ValueClass");
+
+    synchronized (s_aAllKeys)
+    {
+      final ScopeKey <?> aExisting = s_aAllKeys.get (sName);
+      if (aExisting != null)
+      {
+        if (!aExisting.m_aValueClass.equals (aValueClass))
+          throw new IllegalArgumentException ("The scope key '" +
+                                              sName +
+                                              "' is already registered with value class " +
+                                              aExisting.m_aValueClass.getName ());
+        return (ScopeKey <T>) aExisting;
+      }
+      final ScopeKey <T> ret = new ScopeKey <T> (s_aAllKeys.size (), sName, aValueClass);
+      s_aAllKeys.put (sName, ret);
+      return ret;
+    }
+  }
+
+  /**
+   * @return The number of keys created so far. This is the exclusive upper
+   *         bound of all key indices.
+   */
+  @Nonnegative
+  public static int getKeyCount ()
+  {
+    synchronized (s_aAllKeys)
+    {
+      return s_aAllKeys.size ();
+    }
+  }
+}
@@ -17,12 +17,10 @@
  */
 package com.phloc.scopes;
 
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
-import javax.annotation.concurrent.GuardedBy;
 import javax.annotation.concurrent.ThreadSafe;
 
 import org.slf4j.Logger;
@@ -42,26 +40,59 @@ public final class ScopeUtils
   public static final boolean DEFAULT_DEBUG_SESSION_APPLICATION_SCOPE = false;
   public static final boolean DEFAULT_DEBUG_REQUEST_SCOPE = false;
   public static final boolean DEFAULT_DEBUG_WITH_STACK_TRACE = false;
+  public static final int DEFAULT_OWNED_SCOPE_DESTRUCTION_THREADS = 1;
+  public static final long DEFAULT_OWNED_SCOPE_DESTRUCTION_TIMEOUT_MILLIS = 60 * 1000L;
+  public static final int DEFAULT_SINGLETON_DESTRUCTION_THREADS = 1;
 
-  private static final ReadWriteLock s_aRWLock = new ReentrantReadWriteLock ();
-  @GuardedBy ("s_aRWLock")
-  private static boolean s_bDebugLifeCycle = DEFAULT_DEBUG_LIFE_CYCLE;
-  @GuardedBy ("s_aRWLock")
-  private static boolean s_bDebugGlobalScope = DEFAULT_DEBUG_GLOBAL_SCOPE;
-  @GuardedBy ("s_aRWLock")
-  private static boolean s_bDebugApplicationScope = DEFAULT_DEBUG_APPLICATION_SCOPE;
-  @GuardedBy ("s_aRWLock")
-  private static boolean s_bDebugSessionScope = DEFAULT_DEBUG_SESSION_SCOPE;
-  @GuardedBy ("s_aRWLock")
-  private static boolean s_bDebugSessionApplicationScope = DEFAULT_DEBUG_SESSION_APPLICATION_SCOPE;
-  @GuardedBy ("s_aRWLock")
-  private static boolean s_bDebugRequestScope = DEFAULT_DEBUG_REQUEST_SCOPE;
-  @GuardedBy ("s_aRWLock")
-  private static boolean s_bDebugWithStackTrace = DEFAULT_DEBUG_WITH_STACK_TRACE;
+  // Bits of the debug flags
+  private static final int FLAG_LIFE_CYCLE = 1 << 0;
+  private static final int FLAG_GLOBAL_SCOPE = 1 << 1;
+  private static final int FLAG_APPLICATION_SCOPE = 1 << 2;
+  private static final int FLAG_SESSION_SCOPE = 1 << 3;
+  private static final int FLAG_SESSION_APPLICATION_SCOPE = 1 << 4;
+  private static final int FLAG_REQUEST_SCOPE = 1 << 5;
+  private static final int FLAG_WITH_STACK_TRACE = 1 << 6;
+
+  /**
+   * All debug flags as a single bit mask, so that checking them is a single
+   * volatile read without any locking.
+   */
+  private static final AtomicInteger s_aDebugFlags = new AtomicInteger (0);
+
+  private static volatile int s_nOwnedScopeDestructionThreads = DEFAULT_OWNED_SCOPE_DESTRUCTION_THREADS;
+  private static volatile long s_nOwnedScopeDestructionTimeoutMillis = DEFAULT_OWNED_SCOPE_DESTRUCTION_TIMEOUT_MILLIS;
+  private static volatile int s_nSingletonDestructionThreads = DEFAULT_SINGLETON_DESTRUCTION_THREADS;
+
+  static
+  {
+    _setFlag (FLAG_LIFE_CYCLE, DEFAULT_DEBUG_LIFE_CYCLE);
+    _setFlag (FLAG_GLOBAL_SCOPE, DEFAULT_DEBUG_GLOBAL_SCOPE);
+    _setFlag (FLAG_APPLICATION_SCOPE, DEFAULT_DEBUG_APPLICATION_SCOPE);
+    _setFlag (FLAG_SESSION_SCOPE, DEFAULT_DEBUG_SESSION_SCOPE);
+    _setFlag (FLAG_SESSION_APPLICATION_SCOPE, DEFAULT_DEBUG_SESSION_APPLICATION_SCOPE);
+    _setFlag (FLAG_REQUEST_SCOPE, DEFAULT_DEBUG_REQUEST_SCOPE);
+    _setFlag (FLAG_WITH_STACK_TRACE, DEFAULT_DEBUG_WITH_STACK_TRACE);
+  }
 
   private ScopeUtils ()
   {}
 
+  private static void _setFlag (final int nFlag, final boolean bSet)
+  {
+    int nOldFlags;
+    int nNewFlags;
+    do
+    {
+      nOldFlags = s_aDebugFlags.get ();
+      nNewFlags = bSet ? nOldFlags | nFlag : nOldFlags & ~nFlag;
+    } while (!s_aDebugFlags.compareAndSet (nOldFlags, nNewFlags));
+  }
+
+  private static boolean _isAnyFlagSet (final int nFlags)
+  {
+    return (s_aDebugFlags.get () & nFlags) != 0;
+  }
+
   /**
    * Enable or disable scope life cycle debugging for all scopes.
    * 
@@ -71,15 +102,7 @@ public final class ScopeUtils
    */
   public static void setLifeCycleDebuggingEnabled (final boolean bDebugLifeCycle)
   {
-    s_aRWLock.writeLock ().lock ();
-    try
-    {
-      s_bDebugLifeCycle = bDebugLifeCycle;
-    }
-    finally
-    {
-      s_aRWLock.writeLock ().unlock ();
-    }
+    _setFlag (FLAG_LIFE_CYCLE, bDebugLifeCycle);
   }
 
   /**
@@ -89,15 +112,7 @@ public final class ScopeUtils
    */
   public static boolean isLifeCycleDebuggingEnabled ()
   {
-    s_aRWLock.readLock ().lock ();
-    try
-    {
-      return s_bDebugLifeCycle;
-    }
-    finally
-    {
-      s_aRWLock.readLock ().unlock ();
-    }
+    return _isAnyFlagSet (FLAG_LIFE_CYCLE);
   }
 
   /**
@@ -109,15 +124,7 @@ public final class ScopeUtils
    */
   public static void setDebugGlobalScopeEnabled (final boolean bDebugScope)
   {
-    s_aRWLock.writeLock ().lock ();
-    try
-    {
-      s_bDebugGlobalScope = bDebugScope;
-    }
-    finally
-    {
-      s_aRWLock.writeLock ().unlock ();
-    }
+    _setFlag (FLAG_GLOBAL_SCOPE, bDebugScope);
   }
 
   /**
@@ -127,15 +134,7 @@ public final class ScopeUtils
    */
   public static boolean isDebugGlobalScopeEnabled ()
   {
-    s_aRWLock.readLock ().lock ();
-    try
-    {
-      return s_bDebugGlobalScope;
-    }
-    finally
-    {
-      s_aRWLock.readLock ().unlock ();
-    }
+    return _isAnyFlagSet (FLAG_GLOBAL_SCOPE);
   }
 
   /**
@@ -148,15 +147,7 @@ public final class ScopeUtils
    */
   public static void setDebugApplicationScopeEnabled (final boolean bDebugScope)
   {
-    s_aRWLock.writeLock ().lock ();
-    try
-    {
-      s_bDebugApplicationScope = bDebugScope;
-    }
-    finally
-    {
-      s_aRWLock.writeLock ().unlock ();
-    }
+    _setFlag (FLAG_APPLICATION_SCOPE, bDebugScope);
   }
 
   /**
@@ -166,15 +157,7 @@ public final class ScopeUtils
    */
   public static boolean isDebugApplicationScopeEnabled ()
   {
-    s_aRWLock.readLock ().lock ();
-    try
-    {
-      return s_bDebugApplicationScope;
-    }
-    finally
-    {
-      s_aRWLock.readLock ().unlock ();
-    }
+    return _isAnyFlagSet (FLAG_APPLICATION_SCOPE);
   }
 
   /**
@@ -187,15 +170,7 @@ public final class ScopeUtils
    */
   public static void setDebugSessionScopeEnabled (final boolean bDebugScope)
   {
-    s_aRWLock.writeLock ().lock ();
-    try
-    {
-      s_bDebugSessionScope = bDebugScope;
-    }
-    finally
-    {
-      s_aRWLock.writeLock ().unlock ();
-    }
+    _setFlag (FLAG_SESSION_SCOPE, bDebugScope);
   }
 
   /**
@@ -205,15 +180,7 @@ public final class ScopeUtils
    */
   public static boolean isDebugSessionScopeEnabled ()
   {
-    s_aRWLock.readLock ().lock ();
-    try
-    {
-      return s_bDebugSessionScope;
-    }
-    finally
-    {
-      s_aRWLock.readLock ().unlock ();
-    }
+    return _isAnyFlagSet (FLAG_SESSION_SCOPE);
   }
 
   /**
@@ -226,15 +193,7 @@ public final class ScopeUtils
    */
   public static void setDebugSessionApplicationScopeEnabled (final boolean bDebugScope)
   {
-    s_aRWLock.writeLock ().lock ();
-    try
-    {
-      s_bDebugSessionApplicationScope = bDebugScope;
-    }
-    finally
-    {
-      s_aRWLock.writeLock ().unlock ();
-    }
+    _setFlag (FLAG_SESSION_APPLICATION_SCOPE, bDebugScope);
   }
 
   /**
@@ -244,15 +203,7 @@ public final class ScopeUtils
    */
   public static boolean isDebugSessionApplicationScopeEnabled ()
   {
-    s_aRWLock.readLock ().lock ();
-    try
-    {
-      return s_bDebugSessionApplicationScope;
-    }
-    finally
-    {
-      s_aRWLock.readLock ().unlock ();
-    }
+    return _isAnyFlagSet (FLAG_SESSION_APPLICATION_SCOPE);
   }
 
   /**
@@ -265,15 +216,7 @@ public final class ScopeUtils
    */
   public static void setDebugRequestScopeEnabled (final boolean bDebugScope)
   {
-    s_aRWLock.writeLock ().lock ();
-    try
-    {
-      s_bDebugRequestScope = bDebugScope;
-    }
-    finally
-    {
-      s_aRWLock.writeLock ().unlock ();
-    }
+    _setFlag (FLAG_REQUEST_SCOPE, bDebugScope);
   }
 
   /**
@@ -283,15 +226,7 @@ public final class ScopeUtils
    */
   public static boolean isDebugRequestScopeEnabled ()
   {
-    s_aRWLock.readLock ().lock ();
-    try
-    {
-      return s_bDebugRequestScope;
-    }
-    finally
-    {
-      s_aRWLock.readLock ().unlock ();
-    }
+    return _isAnyFlagSet (FLAG_REQUEST_SCOPE);
   }
 
   /**
@@ -303,15 +238,7 @@ public final class ScopeUtils
    */
   public static void setDebugWithStackTrace (final boolean bDebugWithStackTrace)
   {
-    s_aRWLock.writeLock ().lock ();
-    try
-    {
-      s_bDebugWithStackTrace = bDebugWithStackTrace;
-    }
-    finally
-    {
-      s_aRWLock.writeLock ().unlock ();
-    }
+    _setFlag (FLAG_WITH_STACK_TRACE, bDebugWithStackTrace);
   }
 
   /**
@@ -320,15 +247,7 @@ public final class ScopeUtils
    */
   public static boolean isDebugWithStackTrace ()
   {
-    s_aRWLock.readLock ().lock ();
-    try
-    {
-      return s_bDebugWithStackTrace;
-    }
-    finally
-    {
-      s_aRWLock.readLock ().unlock ();
-    }
+    return _isAnyFlagSet (FLAG_WITH_STACK_TRACE);
   }
 
   /**
@@ -357,7 +276,7 @@ public final class ScopeUtils
    */
   public static boolean debugGlobalScopeLifeCycle (@Nonnull final Logger aLogger)
   {
-    return (isLifeCycleDebuggingEnabled () || isDebugGlobalScopeEnabled ()) && aLogger.isInfoEnabled ();
+    return _isAnyFlagSet (FLAG_LIFE_CYCLE | FLAG_GLOBAL_SCOPE) && aLogger.isInfoEnabled ();
   }
 
   /**
@@ -371,7 +290,7 @@ public final class ScopeUtils
    */
   public static boolean debugApplicationScopeLifeCycle (@Nonnull final Logger aLogger)
   {
-    return (isLifeCycleDebuggingEnabled () || isDebugApplicationScopeEnabled ()) && aLogger.isInfoEnabled ();
+    return _isAnyFlagSet (FLAG_LIFE_CYCLE | FLAG_APPLICATION_SCOPE) && aLogger.isInfoEnabled ();
   }
 
   /**
@@ -385,7 +304,7 @@ public final class ScopeUtils
    */
   public static boolean debugSessionScopeLifeCycle (@Nonnull final Logger aLogger)
   {
-    return (isLifeCycleDebuggingEnabled () || isDebugSessionScopeEnabled ()) && aLogger.isInfoEnabled ();
+    return _isAnyFlagSet (FLAG_LIFE_CYCLE | FLAG_SESSION_SCOPE) && aLogger.isInfoEnabled ();
   }
 
   /**
@@ -399,7 +318,7 @@ public final class ScopeUtils
    */
   public static boolean debugSessionApplicationScopeLifeCycle (@Nonnull final Logger aLogger)
   {
-    return (isLifeCycleDebuggingEnabled () || isDebugSessionApplicationScopeEnabled ()) && aLogger.isInfoEnabled ();
+    return _isAnyFlagSet (FLAG_LIFE_CYCLE | FLAG_SESSION_APPLICATION_SCOPE) && aLogger.isInfoEnabled ();
   }
 
   /**
@@ -413,7 +332,7 @@ public final class ScopeUtils
    */
   public static boolean debugRequestScopeLifeCycle (@Nonnull final Logger aLogger)
   {
-    return (isLifeCycleDebuggingEnabled () || isDebugRequestScopeEnabled ()) && aLogger.isInfoEnabled ();
+    return _isAnyFlagSet (FLAG_LIFE_CYCLE | FLAG_REQUEST_SCOPE) && aLogger.isInfoEnabled ();
   }
 
   /**
@@ -424,6 +343,80 @@ public final class ScopeUtils
   @Nullable
   public static Throwable getDebugStackTrace ()
   {
-    return isDebugWithStackTrace () ? new Exception () : null;
+    return _isAnyFlagSet (FLAG_WITH_STACK_TRACE) ? new Exception () : null;
+  }
+
+  /**
+   * Set the maximum number of threads used to destroy the owned scopes of a
+   * scope (e.g. the application scopes of the global scope) in parallel. Only
+   * use values &gt; 1 if all scope SPIs and all singletons can be safely
+   * destroyed from a different thread. The request scope of the destroying
+   * thread (if any) is available in all threads.
+   * 
+   * @param nThreads
+   *        The maximum number of threads. Values &le; 1 mean serial destruction
+   *        in the calling thread, which is the default.
+   */
+  public static void setOwnedScopeDestructionThreads (final int nThreads)
+  {
+    s_nOwnedScopeDestructionThreads = nThreads;
+  }
+
+  /**
+   * @return The maximum number of threads used to destroy owned scopes.
+   */
+  public static int getOwnedScopeDestructionThreads ()
+  {
+    return s_nOwnedScopeDestructionThreads;
+  }
+
+  /**
+   * Set the maximum time the parallel destruction of owned scopes is waited
+   * for. Owned scopes that are not destroyed when the timeout passed are
+   * logged and continue to be destroyed in the background, while the owning
+   * scope is destroyed. The serial destruction in the calling thread (see
+   * {@link #setOwnedScopeDestructionThreads(int)}) is not affected.
+   * 
+   * @param nTimeoutMillis
+   *        The timeout in milliseconds. Values &le; 0 mean no timeout.
+   */
+  public static void setOwnedScopeDestructionTimeoutMillis (final long nTimeoutMillis)
+  {
+    s_nOwnedScopeDestructionTimeoutMillis = nTimeoutMillis;
+  }
+
+  /**
+   * @return The maximum time in milliseconds the parallel destruction of
+   *         owned scopes is waited for.
+   */
+  public static long getOwnedScopeDestructionTimeoutMillis ()
+  {
+    return s_nOwnedScopeDestructionTimeoutMillis;
+  }
+
+  /**
+   * Set the maximum number of threads used to destroy the singletons (and all
+   * other {@link IScopeDestructionAware} objects) of a single scope. Singletons
+   * are always destroyed before the singletons they used during their
+   * instantiation, so only independent singletons are destroyed concurrently.
+   * Only use values &gt; 1 if all singletons can be safely destroyed from a
+   * different thread.
+   * 
+   * @param nThreads
+   *        The maximum number of threads. Values &le; 1 mean serial destruction
+   *        in the calling thread, which is the default.
+   */
+  public static void setSingletonDestructionThreads (final int nThreads)
+  {
+    s_nSingletonDestructionThreads = nThreads;
+  }
+
+  /**
+   * @return The maximum number of threads used to destroy the singletons of a
+   *         scope.
+   */
+  public static int getSingletonDestructionThreads ()
+  {
+    return s_nSingletonDestructionThreads;
   }
 }
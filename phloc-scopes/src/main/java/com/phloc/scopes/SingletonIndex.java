@@ -0,0 +1,134 @@
+/**
+ * Copyright (C) 2006-2014 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.scopes;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.phloc.commons.ValueEnforcer;
+import com.phloc.commons.annotations.PresentForCodeCoverage;
+import com.phloc.commons.annotations.ReturnsMutableCopy;
+import com.phloc.commons.lang.ServiceLoaderUtils;
+import com.phloc.scopes.spi.ISingletonIndexSPI;
+
+/**
+ * Provides access to all singleton classes contained in the build-time indices
+ * ({@link ISingletonIndexSPI} implementations, usually generated by the
+ * {@link com.phloc.scopes.processor.SingletonIndexProcessor}). Indexed
+ * singletons are instantiated without reflection. The known classes can also
+ * be used e.g. for the {@link com.phloc.scopes.singleton.SingletonWarmUp} or
+ * for diagnostics without any classpath scanning.
+ * 
+ * @author Philip Helger
+ */
+@Immutable
+public final class SingletonIndex
+{
+  private static final Logger s_aLogger = LoggerFactory.getLogger (SingletonIndex.class);
+
+  /** The responsible index per singleton class - never modified after init */
+  private static final Map <Class <?>, ISingletonIndexSPI> s_aIndexPerClass = new HashMap <Class <?>, ISingletonIndexSPI> ();
+  /** All indexed classes in the order of the indices */
+  private static final List <Class <? extends AbstractSingleton>> s_aAllClasses = new ArrayList <Class <? extends AbstractSingleton>> ();
+
+  static
+  {
+    for (final ISingletonIndexSPI aSPI : ServiceLoaderUtils.getAllSPIImplementations (ISingletonIndexSPI.class))
+      for (final Class <? extends AbstractSingleton> aClass : aSPI.getAllSingletonClasses ())
+        if (!s_aIndexPerClass.containsKey (aClass))
+        {
+          s_aIndexPerClass.put (aClass, aSPI);
+          s_aAllClasses.add (aClass);
+        }
+    if (s_aLogger.isDebugEnabled ())
+      s_aLogger.debug ("Indexed " + s_aAllClasses.size () + " singleton classes");
+  }
+
+  @SuppressWarnings ("unused")
+  @PresentForCodeCoverage
+  private static final SingletonIndex s_aInstance = new SingletonIndex ();
+
+  private SingletonIndex ()
+  {}
+
+  /**
+   * @return All indexed singleton classes. Never <code>null</code>.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public static List <Class <? extends AbstractSingleton>> getAllIndexedSingletonClasses ()
+  {
+    return new ArrayList <Class <? extends AbstractSingleton>> (s_aAllClasses);
+  }
+
+  /**
+   * Get all indexed singleton classes that are derived from the passed base
+   * class.
+   * 
+   * @param aBaseClass
+   *        The base class to use, e.g.
+   *        {@link com.phloc.scopes.singleton.GlobalSingleton}. May not be
+   *        <code>null</code>.
+   * @return All matching indexed singleton classes. Never <code>null</code>.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public static <T extends AbstractSingleton> List <Class <? extends T>> getAllIndexedSingletonClasses (@Nonnull final Class <T> aBaseClass)
+  {
+    ValueEnforcer.notNull (aBaseClass, "BaseClass");
+
+    final List <Class <? extends T>> ret = new ArrayList <Class <? extends T>> ();
+    for (final Class <? extends AbstractSingleton> aClass : s_aAllClasses)
+      if (aBaseClass.isAssignableFrom (aClass))
+        ret.add (aClass.asSubclass (aBaseClass));
+    return ret;
+  }
+
+  /**
+   * @param aClass
+   *        The singleton class to check. May be <code>null</code>.
+   * @return <code>true</code> if the passed class is contained in an index.
+   */
+  public static boolean isIndexed (@Nullable final Class <? extends AbstractSingleton> aClass)
+  {
+    return aClass != null && s_aIndexPerClass.containsKey (aClass);
+  }
+
+  @Nullable
+  static String getSingletonScopeKey (@Nonnull final Class <? extends AbstractSingleton> aClass)
+  {
+    final ISingletonIndexSPI aSPI = s_aIndexPerClass.get (aClass);
+    return aSPI == null ? null : aSPI.getSingletonScopeKey (aClass);
+  }
+
+  @Nullable
+  static <T extends AbstractSingleton> T createSingleton (@Nonnull final Class <T> aClass)
+  {
+    final ISingletonIndexSPI aSPI = s_aIndexPerClass.get (aClass);
+    return aSPI == null ? null : aSPI.createSingleton (aClass);
+  }
+}
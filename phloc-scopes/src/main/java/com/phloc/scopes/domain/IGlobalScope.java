@@ -40,7 +40,8 @@ public interface IGlobalScope extends IScope
    * @param bCreateIfNotExisting
    *        if <code>true</code> the scope is created on first demand
    * @return <code>null</code> if bCreateIfNotExisting is <code>false</code> and
-   *         the scope is not present
+   *         the scope is not present, or if the scope is not present and this
+   *         global scope is in destruction or destroyed
    */
   @Nullable
   IApplicationScope getApplicationScope (String sAppID, boolean bCreateIfNotExisting);
@@ -83,7 +83,8 @@ public interface ISessionScope extends IScope
    *        <code>false</code> and the scope does not exist than
    *        <code>null</code> is returned.
    * @return <code>null</code> if bCreateIfNotExisting is <code>false</code> and
-   *         the scope is not present
+   *         the scope is not present, or if the scope is not present and this
+   *         session scope is in destruction or destroyed
    */
   @Nullable
   ISessionApplicationScope getSessionApplicationScope (@Nonnull @Nonempty String sApplicationID,
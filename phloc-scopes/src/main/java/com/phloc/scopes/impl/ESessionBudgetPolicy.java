@@ -0,0 +1,39 @@
+/**
+ * Copyright (C) 2006-2014 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.scopes.impl;
+
+/**
+ * Defines what happens if setting a session attribute would exceed the memory
+ * budget of a session.
+ * 
+ * @author Philip Helger
+ * @see SessionScope#setMemoryBudget(long, ESessionBudgetPolicy)
+ */
+public enum ESessionBudgetPolicy
+{
+  /** The attribute is not set and a warning is emitted. */
+  REJECT,
+  /**
+   * Attributes implementing {@link com.phloc.scopes.IScopeEvictable} are
+   * removed until the new attribute fits. If this is not sufficient, the
+   * attribute is rejected.
+   */
+  EVICT,
+  /** The attribute is set anyway and only a warning is emitted. */
+  LOG;
+}
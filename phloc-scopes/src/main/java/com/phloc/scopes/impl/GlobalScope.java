@@ -17,8 +17,12 @@
  */
 package com.phloc.scopes.impl;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.annotation.Nonnegative;
 import javax.annotation.Nonnull;
@@ -32,6 +36,7 @@ import com.phloc.commons.ValueEnforcer;
 import com.phloc.commons.annotations.Nonempty;
 import com.phloc.commons.annotations.OverrideOnDemand;
 import com.phloc.commons.annotations.ReturnsMutableCopy;
+import com.phloc.commons.callback.INonThrowingRunnableWithParameter;
 import com.phloc.commons.collections.ContainerHelper;
 import com.phloc.commons.hash.HashCodeGenerator;
 import com.phloc.commons.lang.CGStringHelper;
@@ -55,7 +60,18 @@ public class GlobalScope extends AbstractMapBasedScope implements IGlobalScope
 {
   private static final Logger s_aLogger = LoggerFactory.getLogger (GlobalScope.class);
 
-  private final Map <String, IApplicationScope> m_aAppScopes = new HashMap <String, IApplicationScope> ();
+  /** All fully initialized application scopes - read without locking */
+  private final ConcurrentMap <String, IApplicationScope> m_aAppScopes = new ConcurrentHashMap <String, IApplicationScope> ();
+  /**
+   * Application scopes currently in creation. Only accessed within the write
+   * lock, so that re-entrant calls of the creating thread find the new scope.
+   */
+  private final Map <String, IApplicationScope> m_aAppScopesInCreation = new HashMap <String, IApplicationScope> ();
+  /**
+   * The detached application scopes that are currently destroyed. They can
+   * still be resolved until their destruction finished.
+   */
+  private volatile Map <String, IApplicationScope> m_aAppScopesInDestruction;
 
   public GlobalScope (@Nonnull @Nonempty final String sScopeID)
   {
@@ -72,23 +88,37 @@ public class GlobalScope extends AbstractMapBasedScope implements IGlobalScope
   @Override
   protected void destroyOwnedScopes ()
   {
+    // Detach all application scopes atomically
+    final Map <String, IApplicationScope> aAppScopes;
     m_aRWLock.writeLock ().lock ();
     try
     {
-      for (final IApplicationScope aAppScope : m_aAppScopes.values ())
-      {
-        // Invoke SPIs
-        ScopeSPIManager.onApplicationScopeEnd (aAppScope);
-
-        // Destroy the scope
-        aAppScope.destroyScope ();
-      }
+      aAppScopes = ContainerHelper.newMap (m_aAppScopes);
+      m_aAppScopesInDestruction = aAppScopes;
       m_aAppScopes.clear ();
     }
     finally
     {
       m_aRWLock.writeLock ().unlock ();
     }
+
+    // Destroy them outside of the lock, so that SPIs and singletons are not
+    // invoked within the lock
+    try
+    {
+      final List <IApplicationScope> aScopes = new ArrayList <IApplicationScope> (aAppScopes.values ());
+      OwnedScopeDestroyer.destroyAll (getID (), aScopes, new INonThrowingRunnableWithParameter <IApplicationScope> ()
+      {
+        public void run (@Nonnull final IApplicationScope aAppScope)
+        {
+          ScopeSPIManager.onApplicationScopeEnd (aAppScope);
+        }
+      });
+    }
+    finally
+    {
+      m_aAppScopesInDestruction = null;
+    }
   }
 
   @Override
@@ -120,21 +150,19 @@ public class GlobalScope extends AbstractMapBasedScope implements IGlobalScope
   {
     ValueEnforcer.notEmpty (sApplicationID, "ApplicationID");
 
-    // Read-lock only
-    IApplicationScope aAppScope;
-    m_aRWLock.readLock ().lock ();
-    try
+    // No lock needed
+    IApplicationScope aAppScope = m_aAppScopes.get (sApplicationID);
+    if (aAppScope == null)
     {
-      aAppScope = m_aAppScopes.get (sApplicationID);
-    }
-    finally
-    {
-      m_aRWLock.readLock ().unlock ();
+      // Maybe it is currently destroyed
+      final Map <String, IApplicationScope> aInDestruction = m_aAppScopesInDestruction;
+      if (aInDestruction != null)
+        aAppScope = aInDestruction.get (sApplicationID);
     }
 
     if (aAppScope == null && bCreateIfNotExisting)
     {
-      // now write lock
+      // now write lock - only one thread at a time creates scopes
       m_aRWLock.writeLock ().lock ();
       try
       {
@@ -142,12 +170,38 @@ public class GlobalScope extends AbstractMapBasedScope implements IGlobalScope
         aAppScope = m_aAppScopes.get (sApplicationID);
         if (aAppScope == null)
         {
-          aAppScope = createApplicationScope (sApplicationID);
-          m_aAppScopes.put (sApplicationID, aAppScope);
-          aAppScope.initScope ();
-
-          // Invoke SPIs
-          ScopeSPIManager.onApplicationScopeBegin (aAppScope);
+          // Re-entrant call from initScope or an SPI of this thread?
+          aAppScope = m_aAppScopesInCreation.get (sApplicationID);
+          if (aAppScope == null)
+          {
+            if (!isValid ())
+            {
+              // Would never be destroyed
+              s_aLogger.warn ("Not creating application scope '" +
+                              sApplicationID +
+                              "' in global scope '" +
+                              getID () +
+                              "' because it is in destruction or destroyed");
+              return null;
+            }
+
+            aAppScope = createApplicationScope (sApplicationID);
+            m_aAppScopesInCreation.put (sApplicationID, aAppScope);
+            try
+            {
+              aAppScope.initScope ();
+
+              // Invoke SPIs
+              ScopeSPIManager.onApplicationScopeBegin (aAppScope);
+
+              // Publish only after initialization
+              m_aAppScopes.put (sApplicationID, aAppScope);
+            }
+            finally
+            {
+              m_aAppScopesInCreation.remove (sApplicationID);
+            }
+          }
         }
       }
       finally
@@ -162,29 +216,13 @@ public class GlobalScope extends AbstractMapBasedScope implements IGlobalScope
   @ReturnsMutableCopy
   public Map <String, IApplicationScope> getAllApplicationScopes ()
   {
-    m_aRWLock.readLock ().lock ();
-    try
-    {
-      return ContainerHelper.newMap (m_aAppScopes);
-    }
-    finally
-    {
-      m_aRWLock.readLock ().unlock ();
-    }
+    return ContainerHelper.newMap (m_aAppScopes);
   }
 
   @Nonnegative
   public int getApplicationScopeCount ()
   {
-    m_aRWLock.readLock ().lock ();
-    try
-    {
-      return m_aAppScopes.size ();
-    }
-    finally
-    {
-      m_aRWLock.readLock ().unlock ();
-    }
+    return m_aAppScopes.size ();
   }
 
   @Override
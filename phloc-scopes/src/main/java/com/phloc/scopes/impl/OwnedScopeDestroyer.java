@@ -0,0 +1,127 @@
+/**
+ * Copyright (C) 2006-2014 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.scopes.impl;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.Immutable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.phloc.commons.annotations.Nonempty;
+import com.phloc.commons.annotations.PresentForCodeCoverage;
+import com.phloc.commons.callback.INonThrowingRunnableWithParameter;
+import com.phloc.scopes.IScope;
+import com.phloc.scopes.ScopeUtils;
+import com.phloc.scopes.util.ParallelTaskRunner;
+
+/**
+ * Internal helper class to destroy the owned scopes of a scope, optionally in
+ * parallel. All owned scopes are completely destroyed when
+ * {@link #destroyAll(String, List, INonThrowingRunnableWithParameter)}
+ * returns, unless the parallel destruction exceeds
+ * {@link ScopeUtils#getOwnedScopeDestructionTimeoutMillis()}.
+ * 
+ * @author Philip Helger
+ * @see ScopeUtils#setOwnedScopeDestructionThreads(int)
+ */
+@Immutable
+final class OwnedScopeDestroyer
+{
+  private static final Logger s_aLogger = LoggerFactory.getLogger (OwnedScopeDestroyer.class);
+
+  @SuppressWarnings ("unused")
+  @PresentForCodeCoverage
+  private static final OwnedScopeDestroyer s_aInstance = new OwnedScopeDestroyer ();
+
+  private OwnedScopeDestroyer ()
+  {}
+
+  /**
+   * Invoke the end SPIs and destroy all passed scopes.
+   * 
+   * @param sParentScopeID
+   *        The ID of the owning scope. Used for logging and thread names only.
+   * @param aScopes
+   *        The scopes to be destroyed. May not be <code>null</code>.
+   * @param aEndSPIInvoker
+   *        The callback invoking the end SPIs for a single scope. Called
+   *        directly before the scope is destroyed. May not be
+   *        <code>null</code>.
+   */
+  static <T extends IScope> void destroyAll (@Nonnull @Nonempty final String sParentScopeID,
+                                             @Nonnull final List <T> aScopes,
+                                             @Nonnull final INonThrowingRunnableWithParameter <T> aEndSPIInvoker)
+  {
+    final INonThrowingRunnableWithParameter <T> aDestroyAction = new INonThrowingRunnableWithParameter <T> ()
+    {
+      public void run (@Nonnull final T aScope)
+      {
+        // Invoke SPIs
+        aEndSPIInvoker.run (aScope);
+
+        // Destroy the scope
+        aScope.destroyScope ();
+      }
+    };
+    final long nTimeoutMillis = ScopeUtils.getOwnedScopeDestructionTimeoutMillis ();
+    final long [] aDurations = ParallelTaskRunner.runAll (aScopes,
+                                                          aDestroyAction,
+                                                          ScopeUtils.getOwnedScopeDestructionThreads (),
+                                                          nTimeoutMillis,
+                                                          "destroy-" + sParentScopeID);
+
+    // Report the timings
+    for (int i = 0; i < aDurations.length; ++i)
+    {
+      final String sScopeID = aScopes.get (i).getID ();
+      if (aDurations[i] < 0)
+      {
+        s_aLogger.warn ("Owned scope '" +
+                        sScopeID +
+                        "' of scope '" +
+                        sParentScopeID +
+                        "' is still being destroyed after " +
+                        nTimeoutMillis +
+                        " ms - not waiting for it");
+        continue;
+      }
+      final long nMillis = TimeUnit.NANOSECONDS.toMillis (aDurations[i]);
+      if (nTimeoutMillis > 0 && nMillis > nTimeoutMillis)
+        s_aLogger.warn ("Destroying owned scope '" +
+                        sScopeID +
+                        "' of scope '" +
+                        sParentScopeID +
+                        "' took " +
+                        nMillis +
+                        " ms");
+      else
+        if (s_aLogger.isDebugEnabled ())
+          s_aLogger.debug ("Destroyed owned scope '" +
+                           sScopeID +
+                           "' of scope '" +
+                           sParentScopeID +
+                           "' in " +
+                           nMillis +
+                           " ms");
+    }
+  }
+}
@@ -17,8 +17,13 @@
  */
 package com.phloc.scopes.impl;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.annotation.Nonnegative;
 import javax.annotation.Nonnull;
@@ -31,17 +36,25 @@ import org.slf4j.LoggerFactory;
 import com.phloc.commons.ValueEnforcer;
 import com.phloc.commons.annotations.Nonempty;
 import com.phloc.commons.annotations.ReturnsMutableCopy;
+import com.phloc.commons.callback.INonThrowingRunnableWithParameter;
 import com.phloc.commons.collections.ContainerHelper;
 import com.phloc.commons.lang.CGStringHelper;
+import com.phloc.commons.state.EChange;
 import com.phloc.commons.state.EContinue;
+import com.phloc.commons.state.ESuccess;
 import com.phloc.commons.string.StringHelper;
 import com.phloc.commons.string.ToStringGenerator;
 import com.phloc.scopes.AbstractMapBasedScope;
+import com.phloc.scopes.IScopeEvictable;
+import com.phloc.scopes.IScopeSizeAware;
 import com.phloc.scopes.MetaScopeFactory;
 import com.phloc.scopes.ScopeUtils;
 import com.phloc.scopes.domain.ISessionApplicationScope;
 import com.phloc.scopes.domain.ISessionScope;
+import com.phloc.scopes.mgr.EScope;
 import com.phloc.scopes.spi.ScopeSPIManager;
+import com.phloc.scopes.stats.ScopeLifeCycleMetrics;
+import com.phloc.scopes.stats.ScopeSizeEstimator;
 
 /**
  * Default implementation of the {@link ISessionScope} interface
@@ -51,13 +64,60 @@ import com.phloc.scopes.spi.ScopeSPIManager;
 @ThreadSafe
 public class SessionScope extends AbstractMapBasedScope implements ISessionScope
 {
+  /** By default no memory budget is used */
+  public static final long DEFAULT_MEMORY_BUDGET_BYTES = 0;
+  /** The default memory budget policy */
+  public static final ESessionBudgetPolicy DEFAULT_MEMORY_BUDGET_POLICY = ESessionBudgetPolicy.LOG;
+  /**
+   * The maximum number of objects visited when sizing a single attribute value
+   * for the memory budget. Much lower than for scope estimations, as this
+   * happens upon each modification.
+   */
+  public static final int MEMORY_BUDGET_MAX_VISITED_OBJECTS = 1000;
+
   private static final Logger s_aLogger = LoggerFactory.getLogger (SessionScope.class);
 
-  private final Map <String, ISessionApplicationScope> m_aSessionAppScopes = new HashMap <String, ISessionApplicationScope> ();
+  private static volatile long s_nDefaultMemoryBudgetBytes = DEFAULT_MEMORY_BUDGET_BYTES;
+  private static volatile ESessionBudgetPolicy s_eDefaultMemoryBudgetPolicy = DEFAULT_MEMORY_BUDGET_POLICY;
+
+  /** The prefix for all session application scope IDs */
+  private final String m_sApplicationScopeIDPrefix;
+  /**
+   * All fully initialized session application scopes, indexed by application
+   * ID - read without locking
+   */
+  private final ConcurrentMap <String, ISessionApplicationScope> m_aSessionAppScopes = new ConcurrentHashMap <String, ISessionApplicationScope> ();
+  /**
+   * Session application scopes currently in creation, indexed by application
+   * ID. Only accessed within the write lock, so that re-entrant calls of the
+   * creating thread find the new scope.
+   */
+  private final Map <String, ISessionApplicationScope> m_aSessionAppScopesInCreation = new HashMap <String, ISessionApplicationScope> ();
+  /**
+   * The detached session application scopes that are currently destroyed,
+   * indexed by application ID. They can still be resolved until their
+   * destruction finished.
+   */
+  private volatile Map <String, ISessionApplicationScope> m_aSessionAppScopesInDestruction;
+
+  // Memory budget handling - all guarded by m_aRWLock
+  private volatile long m_nMemoryBudgetBytes;
+  private ESessionBudgetPolicy m_eMemoryBudgetPolicy;
+  private final Map <String, Long> m_aAttributeSizes = new HashMap <String, Long> ();
+  private long m_nUsedMemoryBytes = 0;
+  // The size of the value currently set, determined outside of the lock
+  private Object m_aPendingValue;
+  private long m_nPendingSize;
+  // The estimator is not thread-safe and used outside of m_aRWLock
+  private final Object m_aSizeEstimatorLock = new Object ();
+  private ScopeSizeEstimator m_aSizeEstimator;
 
   public SessionScope (@Nonnull @Nonempty final String sScopeID)
   {
     super (sScopeID);
+    m_sApplicationScopeIDPrefix = sScopeID + '.';
+    m_nMemoryBudgetBytes = s_nDefaultMemoryBudgetBytes;
+    m_eMemoryBudgetPolicy = s_eDefaultMemoryBudgetPolicy;
 
     // Sessions are always displayed to see what's happening
     if (ScopeUtils.debugSessionScopeLifeCycle (s_aLogger))
@@ -71,23 +131,45 @@ public class SessionScope extends AbstractMapBasedScope implements ISessionScope
   @Override
   protected final void destroyOwnedScopes ()
   {
+    // Detach all session application scopes atomically
+    final Map <String, ISessionApplicationScope> aSessionAppScopes;
     m_aRWLock.writeLock ().lock ();
     try
     {
-      for (final ISessionApplicationScope aSessionAppScope : m_aSessionAppScopes.values ())
-      {
-        // Invoke SPIs
-        ScopeSPIManager.onSessionApplicationScopeEnd (aSessionAppScope);
-
-        // destroy the scope
-        aSessionAppScope.destroyScope ();
-      }
+      aSessionAppScopes = ContainerHelper.newMap (m_aSessionAppScopes);
+      m_aSessionAppScopesInDestruction = aSessionAppScopes;
       m_aSessionAppScopes.clear ();
     }
     finally
     {
       m_aRWLock.writeLock ().unlock ();
     }
+
+    // Destroy them outside of the lock, so that SPIs and singletons are not
+    // invoked within the lock
+    try
+    {
+      // Remember the application IDs, as they are the keys of the map
+      final Map <ISessionApplicationScope, String> aAppIDs = new IdentityHashMap <ISessionApplicationScope, String> ();
+      for (final Map.Entry <String, ISessionApplicationScope> aEntry : aSessionAppScopes.entrySet ())
+        aAppIDs.put (aEntry.getValue (), aEntry.getKey ());
+
+      final List <ISessionApplicationScope> aScopes = new ArrayList <ISessionApplicationScope> (aAppIDs.keySet ());
+      OwnedScopeDestroyer.destroyAll (getID (),
+                                      aScopes,
+                                      new INonThrowingRunnableWithParameter <ISessionApplicationScope> ()
+                                      {
+                                        public void run (@Nonnull final ISessionApplicationScope aSessionAppScope)
+                                        {
+                                          final String sAppID = aAppIDs.get (aSessionAppScope);
+                                          ScopeSPIManager.onSessionApplicationScopeEnd (sAppID, aSessionAppScope);
+                                        }
+                                      });
+    }
+    finally
+    {
+      m_aSessionAppScopesInDestruction = null;
+    }
   }
 
   @Override
@@ -108,13 +190,6 @@ public class SessionScope extends AbstractMapBasedScope implements ISessionScope
     return EContinue.CONTINUE;
   }
 
-  @Nonnull
-  @Nonempty
-  private String _getApplicationScopeIDPrefix ()
-  {
-    return getID () + '.';
-  }
-
   @Nonnull
   @Nonempty
   public String createApplicationScopeID (@Nonnull @Nonempty final String sApplicationID)
@@ -122,7 +197,7 @@ public class SessionScope extends AbstractMapBasedScope implements ISessionScope
     ValueEnforcer.notEmpty (sApplicationID, "ApplicationID");
 
     // To make the ID unique, prepend the application ID with this scope ID
-    return _getApplicationScopeIDPrefix () + sApplicationID;
+    return m_sApplicationScopeIDPrefix + sApplicationID;
   }
 
   @Nullable
@@ -131,9 +206,8 @@ public class SessionScope extends AbstractMapBasedScope implements ISessionScope
     if (StringHelper.hasNoText (sApplicationScopeID))
       return null;
 
-    final String sPrefix = _getApplicationScopeIDPrefix ();
-    if (sApplicationScopeID.startsWith (sPrefix))
-      return sApplicationScopeID.substring (sPrefix.length ());
+    if (sApplicationScopeID.startsWith (m_sApplicationScopeIDPrefix))
+      return sApplicationScopeID.substring (m_sApplicationScopeIDPrefix.length ());
 
     // Not a valid application scope ID
     return null;
@@ -151,19 +225,14 @@ public class SessionScope extends AbstractMapBasedScope implements ISessionScope
   {
     ValueEnforcer.notEmpty (sApplicationID, "ApplicationID");
 
-    final String sAppScopeID = createApplicationScopeID (sApplicationID);
-
-    ISessionApplicationScope aSessionAppScope;
-
-    // Try with read-lock only
-    m_aRWLock.readLock ().lock ();
-    try
+    // No lock needed
+    ISessionApplicationScope aSessionAppScope = m_aSessionAppScopes.get (sApplicationID);
+    if (aSessionAppScope == null)
     {
-      aSessionAppScope = m_aSessionAppScopes.get (sAppScopeID);
-    }
-    finally
-    {
-      m_aRWLock.readLock ().unlock ();
+      // Maybe it is currently destroyed
+      final Map <String, ISessionApplicationScope> aInDestruction = m_aSessionAppScopesInDestruction;
+      if (aInDestruction != null)
+        aSessionAppScope = aInDestruction.get (sApplicationID);
     }
 
     if (aSessionAppScope == null && bCreateIfNotExisting)
@@ -172,16 +241,42 @@ public class SessionScope extends AbstractMapBasedScope implements ISessionScope
       try
       {
         // Check again - now in write lock
-        aSessionAppScope = m_aSessionAppScopes.get (sAppScopeID);
+        aSessionAppScope = m_aSessionAppScopes.get (sApplicationID);
         if (aSessionAppScope == null)
         {
-          // Definitively not present
-          aSessionAppScope = createSessionApplicationScope (sAppScopeID);
-          m_aSessionAppScopes.put (sAppScopeID, aSessionAppScope);
-          aSessionAppScope.initScope ();
-
-          // Invoke SPIs
-          ScopeSPIManager.onSessionApplicationScopeBegin (aSessionAppScope);
+          // Re-entrant call from initScope or an SPI of this thread?
+          aSessionAppScope = m_aSessionAppScopesInCreation.get (sApplicationID);
+          if (aSessionAppScope == null)
+          {
+            if (!isValid ())
+            {
+              // Would never be destroyed
+              s_aLogger.warn ("Not creating session application scope '" +
+                              sApplicationID +
+                              "' in session scope '" +
+                              getID () +
+                              "' because it is in destruction or destroyed");
+              return null;
+            }
+
+            // Definitively not present
+            aSessionAppScope = createSessionApplicationScope (createApplicationScopeID (sApplicationID));
+            m_aSessionAppScopesInCreation.put (sApplicationID, aSessionAppScope);
+            try
+            {
+              aSessionAppScope.initScope ();
+
+              // Invoke SPIs
+              ScopeSPIManager.onSessionApplicationScopeBegin (sApplicationID, aSessionAppScope);
+
+              // Publish only after initialization
+              m_aSessionAppScopes.put (sApplicationID, aSessionAppScope);
+            }
+            finally
+            {
+              m_aSessionAppScopesInCreation.remove (sApplicationID);
+            }
+          }
         }
       }
       finally
@@ -198,29 +293,180 @@ public class SessionScope extends AbstractMapBasedScope implements ISessionScope
     ValueEnforcer.notEmpty (sScopeID, "ScopeID");
     ValueEnforcer.notNull (aScope, "Scope");
 
+    // The scopes are indexed by application ID
+    String sApplicationID = getApplicationIDFromApplicationScopeID (sScopeID);
+    if (StringHelper.hasNoText (sApplicationID))
+    {
+      // Scope ID was not created via createApplicationScopeID
+      sApplicationID = sScopeID;
+    }
+
     m_aRWLock.writeLock ().lock ();
     try
     {
-      if (m_aSessionAppScopes.containsKey (sScopeID))
+      if (m_aSessionAppScopes.putIfAbsent (sApplicationID, aScope) != null)
         throw new IllegalArgumentException ("A session application scope with the ID '" +
                                             sScopeID +
                                             "' is already contained!");
-      m_aSessionAppScopes.put (sScopeID, aScope);
     }
     finally
     {
       m_aRWLock.writeLock ().unlock ();
     }
+
+    // The end SPIs are invoked for restored scopes as well
+    ScopeLifeCycleMetrics.onScopeCreated (EScope.SESSION_APPLICATION);
   }
 
   @Nonnull
   @ReturnsMutableCopy
   public Map <String, ISessionApplicationScope> getAllSessionApplicationScopes ()
+  {
+    // Return them indexed by scope ID
+    final Map <String, ISessionApplicationScope> ret = new HashMap <String, ISessionApplicationScope> ();
+    for (final ISessionApplicationScope aSessionAppScope : m_aSessionAppScopes.values ())
+      ret.put (aSessionAppScope.getID (), aSessionAppScope);
+    return ret;
+  }
+
+  @Nonnegative
+  public int getSessionApplicationScopeCount ()
+  {
+    return m_aSessionAppScopes.size ();
+  }
+
+  /**
+   * Set the memory budget that is used for all session scopes created
+   * afterwards.
+   * 
+   * @param nBudgetBytes
+   *        The maximum number of bytes all attributes of a session may retain.
+   *        Values &le; 0 disable the budget.
+   * @param ePolicy
+   *        The policy to apply if the budget is exceeded. May not be
+   *        <code>null</code>.
+   */
+  public static void setDefaultMemoryBudget (final long nBudgetBytes, @Nonnull final ESessionBudgetPolicy ePolicy)
+  {
+    ValueEnforcer.notNull (ePolicy, "Policy");
+    s_nDefaultMemoryBudgetBytes = nBudgetBytes;
+    s_eDefaultMemoryBudgetPolicy = ePolicy;
+  }
+
+  /**
+   * @return The default memory budget in bytes for new session scopes. Values
+   *         &le; 0 mean that no budget is used.
+   */
+  public static long getDefaultMemoryBudgetBytes ()
+  {
+    return s_nDefaultMemoryBudgetBytes;
+  }
+
+  /**
+   * @return The default memory budget policy for new session scopes. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  public static ESessionBudgetPolicy getDefaultMemoryBudgetPolicy ()
+  {
+    return s_eDefaultMemoryBudgetPolicy;
+  }
+
+  /**
+   * Determine the size of an attribute value. Should be called outside of the
+   * scope lock, as the object graph may be traversed.
+   */
+  @Nonnegative
+  private long _getAttributeSize (@Nonnull final Object aValue)
+  {
+    if (aValue instanceof IScopeSizeAware)
+      return ((IScopeSizeAware) aValue).getEstimatedSizeInBytes ();
+    synchronized (m_aSizeEstimatorLock)
+    {
+      if (m_aSizeEstimator == null)
+        m_aSizeEstimator = new ScopeSizeEstimator (MEMORY_BUDGET_MAX_VISITED_OBJECTS,
+                                                   ScopeSizeEstimator.DEFAULT_MAX_ARRAY_SAMPLES);
+      return m_aSizeEstimator.estimateObject (aValue);
+    }
+  }
+
+  /**
+   * Set the memory budget of this session. The budget is enforced whenever an
+   * attribute is set. The size of an attribute is determined via
+   * {@link IScopeSizeAware} or via a {@link ScopeSizeEstimator} that visits at
+   * most {@link #MEMORY_BUDGET_MAX_VISITED_OBJECTS} objects. Sizes are
+   * determined outside of the scope lock. Attributes of session application
+   * scopes are not considered.
+   * 
+   * @param nBudgetBytes
+   *        The maximum number of bytes all attributes of this session may
+   *        retain. Values &le; 0 disable the budget.
+   * @param ePolicy
+   *        The policy to apply if the budget is exceeded. May not be
+   *        <code>null</code>.
+   */
+  public void setMemoryBudget (final long nBudgetBytes, @Nonnull final ESessionBudgetPolicy ePolicy)
+  {
+    ValueEnforcer.notNull (ePolicy, "Policy");
+
+    // Size all existing attributes outside of the lock
+    final Map <String, Object> aAttrs = nBudgetBytes > 0 ? getAllAttributes () : new HashMap <String, Object> ();
+    final Map <String, Long> aSizes = new HashMap <String, Long> ();
+    for (final Map.Entry <String, Object> aEntry : aAttrs.entrySet ())
+      aSizes.put (aEntry.getKey (), Long.valueOf (_getAttributeSize (aEntry.getValue ())));
+
+    m_aRWLock.writeLock ().lock ();
+    try
+    {
+      m_nMemoryBudgetBytes = nBudgetBytes;
+      m_eMemoryBudgetPolicy = ePolicy;
+
+      // Take the sizes of all attributes that are unchanged in the meantime
+      m_aAttributeSizes.clear ();
+      m_nUsedMemoryBytes = 0;
+      if (nBudgetBytes > 0)
+        for (final Map.Entry <String, Object> aEntry : super.getAllAttributes ().entrySet ())
+        {
+          final String sName = aEntry.getKey ();
+          final Long aSize = aAttrs.get (sName) == aEntry.getValue () ? aSizes.get (sName)
+                                                                       : Long.valueOf (_getAttributeSize (aEntry.getValue ()));
+          m_aAttributeSizes.put (sName, aSize);
+          m_nUsedMemoryBytes += aSize.longValue ();
+        }
+    }
+    finally
+    {
+      m_aRWLock.writeLock ().unlock ();
+    }
+  }
+
+  /**
+   * @return The memory budget of this session in bytes. Values &le; 0 mean
+   *         that no budget is used.
+   */
+  public long getMemoryBudgetBytes ()
+  {
+    m_aRWLock.readLock ().lock ();
+    try
+    {
+      return m_nMemoryBudgetBytes;
+    }
+    finally
+    {
+      m_aRWLock.readLock ().unlock ();
+    }
+  }
+
+  /**
+   * @return The memory budget policy of this session. Never <code>null</code>.
+   */
+  @Nonnull
+  public ESessionBudgetPolicy getMemoryBudgetPolicy ()
   {
     m_aRWLock.readLock ().lock ();
     try
     {
-      return ContainerHelper.newMap (m_aSessionAppScopes);
+      return m_eMemoryBudgetPolicy;
     }
     finally
     {
@@ -228,13 +474,17 @@ public class SessionScope extends AbstractMapBasedScope implements ISessionScope
     }
   }
 
+  /**
+   * @return The approximate number of bytes retained by the attributes of this
+   *         session. Only calculated if a memory budget is set, 0 otherwise.
+   */
   @Nonnegative
-  public int getSessionApplicationScopeCount ()
+  public long getUsedMemoryBytes ()
   {
     m_aRWLock.readLock ().lock ();
     try
     {
-      return m_aSessionAppScopes.size ();
+      return m_nUsedMemoryBytes;
     }
     finally
     {
@@ -242,11 +492,176 @@ public class SessionScope extends AbstractMapBasedScope implements ISessionScope
     }
   }
 
+  private long _getAccountedSize (@Nonnull final String sName)
+  {
+    final Long aSize = m_aAttributeSizes.get (sName);
+    return aSize == null ? 0 : aSize.longValue ();
+  }
+
+  /**
+   * Remove evictable attributes until the passed number of bytes is freed. If
+   * all evictable attributes together are not sufficient, nothing is removed.
+   * 
+   * @param sExceptName
+   *        The name of the attribute that must not be evicted.
+   * @param nBytesToFree
+   *        The number of bytes to free.
+   * @return {@link ESuccess#SUCCESS} if at least the passed number of bytes
+   *         was freed, {@link ESuccess#FAILURE} if no attribute was evicted.
+   */
+  @Nonnull
+  private ESuccess _evictAttributes (@Nonnull final String sExceptName, final long nBytesToFree)
+  {
+    long nEvictable = 0;
+    final List <String> aEvictedNames = new ArrayList <String> ();
+    for (final Map.Entry <String, Object> aEntry : super.getAllAttributes ().entrySet ())
+    {
+      if (nEvictable >= nBytesToFree)
+        break;
+      final String sName = aEntry.getKey ();
+      if (aEntry.getValue () instanceof IScopeEvictable && !sName.equals (sExceptName))
+      {
+        aEvictedNames.add (sName);
+        nEvictable += _getAccountedSize (sName);
+      }
+    }
+
+    // Don't evict anything if the new value is rejected anyway
+    if (nEvictable < nBytesToFree)
+      return ESuccess.FAILURE;
+
+    // Remove outside of the iteration - also updates the accounting
+    for (final String sName : aEvictedNames)
+    {
+      if (s_aLogger.isDebugEnabled ())
+        s_aLogger.debug ("Evicted attribute '" +
+                         sName +
+                         "' with " +
+                         _getAccountedSize (sName) +
+                         " bytes from session " +
+                         getID ());
+      removeAttribute (sName);
+    }
+    return ESuccess.SUCCESS;
+  }
+
+  @Override
+  protected EContinue onBeforeSetAttributeValue (@Nonnull final String sName, @Nullable final Object aNewValue)
+  {
+    // Always invoked within the write lock
+    if (m_nMemoryBudgetBytes <= 0 || aNewValue == null)
+      return EContinue.CONTINUE;
+
+    // Usually the size was already determined outside of the lock
+    final long nNewSize = aNewValue == m_aPendingValue ? m_nPendingSize : _getAttributeSize (aNewValue);
+    final long nOldSize = _getAccountedSize (sName);
+    final long nOverBudget = m_nUsedMemoryBytes - nOldSize + nNewSize - m_nMemoryBudgetBytes;
+    if (nOverBudget > 0)
+    {
+      final String sMsg = "Setting attribute '" +
+                          sName +
+                          "' with " +
+                          nNewSize +
+                          " bytes exceeds the memory budget of " +
+                          m_nMemoryBudgetBytes +
+                          " bytes of session " +
+                          getID () +
+                          " by " +
+                          nOverBudget +
+                          " bytes";
+      switch (m_eMemoryBudgetPolicy)
+      {
+        case REJECT:
+          s_aLogger.warn (sMsg + " - attribute is rejected");
+          return EContinue.BREAK;
+        case EVICT:
+          if (_evictAttributes (sName, nOverBudget).isFailure ())
+          {
+            s_aLogger.warn (sMsg + " - evicting attributes would not be sufficient, so the attribute is rejected");
+            return EContinue.BREAK;
+          }
+          break;
+        default:
+          s_aLogger.warn (sMsg);
+          break;
+      }
+    }
+
+    m_aAttributeSizes.put (sName, Long.valueOf (nNewSize));
+    m_nUsedMemoryBytes += nNewSize - nOldSize;
+    return EContinue.CONTINUE;
+  }
+
+  @Override
+  @Nonnull
+  public EChange setAttribute (@Nonnull final String sName, @Nullable final Object aValue)
+  {
+    if (m_nMemoryBudgetBytes <= 0 || aValue == null)
+      return super.setAttribute (sName, aValue);
+
+    // Size the value before acquiring the lock, so that readers of this
+    // session are not blocked while the object graph is traversed
+    final long nSize = _getAttributeSize (aValue);
+    m_aRWLock.writeLock ().lock ();
+    try
+    {
+      m_aPendingValue = aValue;
+      m_nPendingSize = nSize;
+      return super.setAttribute (sName, aValue);
+    }
+    finally
+    {
+      m_aPendingValue = null;
+      m_aRWLock.writeLock ().unlock ();
+    }
+  }
+
+  @Override
+  @Nonnull
+  public EChange removeAttribute (@Nullable final String sName)
+  {
+    m_aRWLock.writeLock ().lock ();
+    try
+    {
+      final EChange eChange = super.removeAttribute (sName);
+      if (eChange.isChanged ())
+      {
+        m_nUsedMemoryBytes -= _getAccountedSize (sName);
+        m_aAttributeSizes.remove (sName);
+      }
+      return eChange;
+    }
+    finally
+    {
+      m_aRWLock.writeLock ().unlock ();
+    }
+  }
+
+  @Override
+  @Nonnull
+  public EChange clear ()
+  {
+    m_aRWLock.writeLock ().lock ();
+    try
+    {
+      m_aAttributeSizes.clear ();
+      m_nUsedMemoryBytes = 0;
+      return super.clear ();
+    }
+    finally
+    {
+      m_aRWLock.writeLock ().unlock ();
+    }
+  }
+
   @Override
   public String toString ()
   {
     return ToStringGenerator.getDerived (super.toString ())
                             .append ("sessionAppScopes", m_aSessionAppScopes)
+                            .append ("memoryBudgetBytes", m_nMemoryBudgetBytes)
+                            .append ("memoryBudgetPolicy", m_eMemoryBudgetPolicy)
+                            .append ("usedMemoryBytes", m_nUsedMemoryBytes)
                             .toString ();
   }
 }
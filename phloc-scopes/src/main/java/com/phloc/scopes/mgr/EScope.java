@@ -21,6 +21,8 @@ import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
 import com.phloc.scopes.IScope;
+import com.phloc.scopes.domain.IGlobalScope;
+import com.phloc.scopes.domain.ISessionScope;
 
 /**
  * This enumeration defines all the possible non-web scopes including some
@@ -53,6 +55,12 @@ public enum EScope
     return getScope (this, bCreateIfNotExisting);
   }
 
+  @Nullable
+  public IScope getScopeOrNull ()
+  {
+    return getScopeOrNull (this);
+  }
+
   /**
    * Resolve the currently matching scope of the given {@link EScope} value.
    * 
@@ -86,4 +94,49 @@ public enum EScope
         throw new IllegalArgumentException ("Unknown scope: " + eScope);
     }
   }
+
+  /**
+   * Resolve the currently matching scope of the given {@link EScope} value if
+   * it is present. In contrast to {@link #getScope(EScope, boolean)} this
+   * method never creates a scope and never throws an exception if the scope
+   * cannot be resolved, e.g. because no request scope is present. This makes
+   * it suitable for frequent calls from background threads.
+   * 
+   * @param eScope
+   *        The scope to resolve to a real scope.
+   * @return The matching {@link IScope} or <code>null</code> if no such scope
+   *         is present.
+   * @throws IllegalArgumentException
+   *         If an illegal enumeration value is passed.
+   */
+  @Nullable
+  public static IScope getScopeOrNull (@Nonnull final EScope eScope)
+  {
+    switch (eScope)
+    {
+      case GLOBAL:
+        return ScopeManager.getGlobalScopeOrNull ();
+      case APPLICATION:
+      {
+        final String sApplicationID = ScopeManager.getRequestApplicationIDOrNull ();
+        final IGlobalScope aGlobalScope = ScopeManager.getGlobalScopeOrNull ();
+        return sApplicationID == null || aGlobalScope == null ? null
+                                                              : aGlobalScope.getApplicationScope (sApplicationID, false);
+      }
+      case SESSION:
+        return ScopeManager.getSessionScope (false);
+      case SESSION_APPLICATION:
+      {
+        final String sApplicationID = ScopeManager.getRequestApplicationIDOrNull ();
+        if (sApplicationID == null)
+          return null;
+        final ISessionScope aSessionScope = ScopeManager.getSessionScope (false);
+        return aSessionScope == null ? null : aSessionScope.getSessionApplicationScope (sApplicationID, false);
+      }
+      case REQUEST:
+        return ScopeManager.getRequestScopeOrNull ();
+      default:
+        throw new IllegalArgumentException ("Unknown scope: " + eScope);
+    }
+  }
 }
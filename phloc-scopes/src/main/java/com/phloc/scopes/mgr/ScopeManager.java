@@ -38,6 +38,7 @@ import com.phloc.scopes.domain.IGlobalScope;
 import com.phloc.scopes.domain.IRequestScope;
 import com.phloc.scopes.domain.ISessionApplicationScope;
 import com.phloc.scopes.domain.ISessionScope;
+import com.phloc.scopes.singleton.SingletonWarmUp;
 import com.phloc.scopes.spi.ScopeSPIManager;
 
 /**
@@ -64,6 +65,12 @@ public final class ScopeManager
    */
   private static final String REQ_APPLICATION_ID = "phloc.applicationscope";
 
+  /**
+   * The name of the attribute used to store the ID of a session renewed within
+   * the current request
+   */
+  private static final String REQ_RENEWED_SESSION_ID = "phloc.renewedsessionid";
+
   private static final Lock s_aGlobalLock = new ReentrantLock ();
 
   /** Global scope */
@@ -106,6 +113,9 @@ public final class ScopeManager
 
       // Invoke SPIs
       ScopeSPIManager.onGlobalScopeBegin (aGlobalScope);
+
+      // Eagerly instantiate the registered singletons
+      SingletonWarmUp.onGlobalScopeBegin (aGlobalScope);
     }
     finally
     {
@@ -168,6 +178,9 @@ public final class ScopeManager
        */
       if (s_aGlobalScope != null)
       {
+        // Wait for a running singleton warm-up
+        SingletonWarmUp.onGlobalScopeEnd ();
+
         // Invoke SPI
         ScopeSPIManager.onGlobalScopeEnd (s_aGlobalScope);
 
@@ -189,6 +202,44 @@ public final class ScopeManager
     }
   }
 
+  // --- session ID ---
+
+  /**
+   * Get the session ID associated to the passed request scope. If the session
+   * was renewed within this request, the ID of the new session is returned.
+   * 
+   * @param aRequestScope
+   *        The request scope to use. May not be <code>null</code>.
+   * @param bCreateIfNotExisting
+   *        if <code>true</code> a session ID is created if needed
+   * @return <code>null</code> if no session ID is present
+   * @see ScopeSessionManager#renewSession(String, String)
+   */
+  @Nullable
+  public static String getRequestSessionID (@Nonnull final IRequestScope aRequestScope,
+                                            final boolean bCreateIfNotExisting)
+  {
+    final String sRenewedSessionID = aRequestScope.getAttributeAsString (REQ_RENEWED_SESSION_ID);
+    return sRenewedSessionID != null ? sRenewedSessionID : aRequestScope.getSessionID (bCreateIfNotExisting);
+  }
+
+  /**
+   * Called by the {@link ScopeSessionManager} after a session was renewed. If
+   * the current request belongs to the old session, it is bound to the new
+   * session.
+   * 
+   * @param sOldSessionID
+   *        The ID of the old session. May not be <code>null</code>.
+   * @param sNewSessionID
+   *        The ID of the new session. May not be <code>null</code>.
+   */
+  static void onSessionRenewed (@Nonnull final String sOldSessionID, @Nonnull final String sNewSessionID)
+  {
+    final IRequestScope aRequestScope = getRequestScopeOrNull ();
+    if (aRequestScope != null && sOldSessionID.equals (getRequestSessionID (aRequestScope, false)))
+      aRequestScope.setAttribute (REQ_RENEWED_SESSION_ID, sNewSessionID);
+  }
+
   // --- application scope ---
 
   /**
@@ -204,6 +255,20 @@ public final class ScopeManager
     return aRequestScope.getAttributeAsString (REQ_APPLICATION_ID);
   }
 
+  /**
+   * Get the application ID associated to the current request scope, without
+   * throwing an exception.
+   * 
+   * @return <code>null</code> if no request scope is present or if it has no
+   *         application ID
+   */
+  @Nullable
+  public static String getRequestApplicationIDOrNull ()
+  {
+    final IRequestScope aRequestScope = getRequestScopeOrNull ();
+    return aRequestScope == null ? null : getRequestApplicationID (aRequestScope);
+  }
+
   /**
    * Get the application ID associated to the current request scope
    * 
@@ -321,7 +386,7 @@ public final class ScopeManager
       final ScopeSessionManager aSSM = ScopeSessionManager.getInstance ();
 
       // Get the session ID from the underlying request
-      final String sSessionID = aRequestScope.getSessionID (bCreateIfNotExisting);
+      final String sSessionID = getRequestSessionID (aRequestScope, bCreateIfNotExisting);
 
       // Check if a matching session scope is present
       ISessionScope aSessionScope = aSSM.getSessionScopeOfID (sSessionID);
@@ -467,6 +532,29 @@ public final class ScopeManager
     return s_aRequestScope.get ();
   }
 
+  /**
+   * Internal method to make an existing request scope the request scope of the
+   * current thread, without initializing it and without invoking any SPI. Used
+   * to make the request scope of a thread available in helper threads. Never
+   * call manually!
+   * 
+   * @param aRequestScope
+   *        The request scope to use in the current thread. May be
+   *        <code>null</code> to remove the request scope of this thread.
+   * @return The previous request scope of the current thread. May be
+   *         <code>null</code>.
+   */
+  @Nullable
+  public static IRequestScope internalSwapRequestScope (@Nullable final IRequestScope aRequestScope)
+  {
+    final IRequestScope ret = s_aRequestScope.get ();
+    if (aRequestScope == null)
+      s_aRequestScope.remove ();
+    else
+      s_aRequestScope.set (aRequestScope);
+    return ret;
+  }
+
   /**
    * @return <code>true</code> if a request scope is present, <code>false</code>
    *         otherwise
@@ -35,6 +35,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.phloc.commons.ValueEnforcer;
+import com.phloc.commons.annotations.Nonempty;
+import com.phloc.commons.annotations.OverrideOnDemand;
 import com.phloc.commons.annotations.ReturnsMutableCopy;
 import com.phloc.commons.annotations.UsedViaReflection;
 import com.phloc.commons.collections.ContainerHelper;
@@ -42,6 +44,11 @@ import com.phloc.commons.state.EChange;
 import com.phloc.commons.stats.IStatisticsHandlerCounter;
 import com.phloc.commons.stats.StatisticsManager;
 import com.phloc.commons.string.StringHelper;
+import com.phloc.scopes.IScope;
+import com.phloc.scopes.IScopeRenewalAware;
+import com.phloc.scopes.MetaScopeFactory;
+import com.phloc.scopes.ScopeUtils;
+import com.phloc.scopes.domain.ISessionApplicationScope;
 import com.phloc.scopes.domain.ISessionScope;
 import com.phloc.scopes.singleton.GlobalSingleton;
 import com.phloc.scopes.spi.ScopeSPIManager;
@@ -220,6 +227,159 @@ public class ScopeSessionManager extends GlobalSingleton
     }
   }
 
+  /**
+   * Create the session scope that replaces a renewed session scope. Override
+   * this method to create a special kind of session scope (e.g. web scopes).
+   * 
+   * @param sNewSessionID
+   *        The new session ID. Never <code>null</code> nor empty.
+   * @param aOldSessionScope
+   *        The session scope to be renewed. Never <code>null</code>.
+   * @return The new session scope. May not be <code>null</code>.
+   */
+  @Nonnull
+  @OverrideOnDemand
+  protected ISessionScope createRenewedSessionScope (@Nonnull @Nonempty final String sNewSessionID,
+                                                     @Nonnull final ISessionScope aOldSessionScope)
+  {
+    return MetaScopeFactory.getScopeFactory ().createSessionScope (sNewSessionID);
+  }
+
+  private static void _moveRenewalAwareAttributes (@Nonnull final IScope aSourceScope,
+                                                   @Nonnull final Map <String, IScopeRenewalAware> aAttrs,
+                                                   @Nonnull final IScope aTargetScope)
+  {
+    // Only the references are moved - no copy or serialization needed
+    for (final Map.Entry <String, IScopeRenewalAware> aEntry : aAttrs.entrySet ())
+    {
+      aTargetScope.setAttribute (aEntry.getKey (), aEntry.getValue ());
+      aSourceScope.removeAttribute (aEntry.getKey ());
+    }
+  }
+
+  /**
+   * Renew a session scope, e.g. after a login to prevent session fixation. A
+   * new session scope with the new ID replaces the old one in this manager.
+   * All {@link IScopeRenewalAware} attributes of the session scope and its
+   * session application scopes are moved to the new session scope (and to new
+   * session application scopes with the same application IDs). Afterwards the
+   * old session scope is ended, which destroys all remaining attributes. If the
+   * current request belongs to the old session, it is bound to the new session,
+   * so that {@link ScopeManager#getSessionScope(boolean)} returns the new
+   * session scope for the rest of the request.<br>
+   * The old session ID stays mapped to the old session scope until it is
+   * destroyed, so that concurrent requests with the old session ID don't
+   * create a new session with that ID. Attributes set in the old session scope
+   * while this method is running may get lost, so call it while handling the
+   * request that triggers the renewal.
+   * 
+   * @param sOldSessionID
+   *        The ID of the session to be renewed. May be <code>null</code>.
+   * @param sNewSessionID
+   *        The ID of the new session. May neither be <code>null</code> nor
+   *        empty and may not be in use.
+   * @return The new session scope or <code>null</code> if no session with the
+   *         old ID is present or if it is just being destroyed.
+   * @throws IllegalArgumentException
+   *         If the new session ID is already in use
+   */
+  @Nullable
+  public ISessionScope renewSession (@Nullable final String sOldSessionID, @Nonnull @Nonempty final String sNewSessionID)
+  {
+    ValueEnforcer.notEmpty (sNewSessionID, "NewSessionID");
+
+    final ISessionScope aOldScope = getSessionScopeOfID (sOldSessionID);
+    if (aOldScope == null || !aOldScope.isValid ())
+    {
+      s_aLogger.warn ("Cannot renew unknown session with ID '" + sOldSessionID + "'");
+      return null;
+    }
+
+    final ISessionScope aNewScope = createRenewedSessionScope (sNewSessionID, aOldScope);
+    aNewScope.initScope ();
+
+    // Invoke SPIs for the new scope before it is visible to others
+    ScopeSPIManager.onSessionScopeBegin (aNewScope);
+
+    // Swap the scopes atomically
+    boolean bNewIDInUse = false;
+    boolean bSwapped = false;
+    m_aRWLock.writeLock ().lock ();
+    try
+    {
+      if (m_aSessionScopes.containsKey (sNewSessionID))
+        bNewIDInUse = true;
+      else
+        if (m_aSessionScopes.get (sOldSessionID) == aOldScope && m_aSessionsInDestruction.add (sOldSessionID))
+        {
+          // The old ID is removed after the old scope was destroyed
+          m_aSessionScopes.put (sNewSessionID, aNewScope);
+          bSwapped = true;
+        }
+    }
+    finally
+    {
+      m_aRWLock.writeLock ().unlock ();
+    }
+
+    if (!bSwapped)
+    {
+      ScopeSPIManager.onSessionScopeEnd (aNewScope);
+      aNewScope.destroyScope ();
+      if (bNewIDInUse)
+        throw new IllegalArgumentException ("Another session with ID '" + sNewSessionID + "' is already present");
+      s_aLogger.info ("Session '" + sOldSessionID + "' was ended while renewing it");
+      return null;
+    }
+
+    // The current request continues with the new session
+    ScopeManager.onSessionRenewed (sOldSessionID, sNewSessionID);
+
+    try
+    {
+      // Move the renewal aware attributes
+      _moveRenewalAwareAttributes (aOldScope, aOldScope.getAllScopeRenewalAwareAttributes (), aNewScope);
+      for (final Map.Entry <String, ISessionApplicationScope> aEntry : aOldScope.getAllSessionApplicationScopes ()
+                                                                                .entrySet ())
+      {
+        final ISessionApplicationScope aOldAppScope = aEntry.getValue ();
+        final Map <String, IScopeRenewalAware> aAttrs = aOldAppScope.getAllScopeRenewalAwareAttributes ();
+        if (!aAttrs.isEmpty ())
+        {
+          final String sApplicationID = aOldScope.getApplicationIDFromApplicationScopeID (aEntry.getKey ());
+          if (sApplicationID != null)
+            _moveRenewalAwareAttributes (aOldAppScope,
+                                         aAttrs,
+                                         aNewScope.getSessionApplicationScope (sApplicationID, true));
+        }
+      }
+
+      // End the old scope with all remaining attributes
+      ScopeSPIManager.onSessionScopeEnd (aOldScope);
+      aOldScope.destroyScope ();
+    }
+    finally
+    {
+      // Remove the old ID and from "in destruction" list
+      m_aRWLock.writeLock ().lock ();
+      try
+      {
+        if (m_aSessionScopes.get (sOldSessionID) == aOldScope)
+          m_aSessionScopes.remove (sOldSessionID);
+        m_aSessionsInDestruction.remove (sOldSessionID);
+      }
+      finally
+      {
+        m_aRWLock.writeLock ().unlock ();
+      }
+    }
+
+    if (ScopeUtils.debugSessionScopeLifeCycle (s_aLogger))
+      s_aLogger.info ("Session scope '" + sOldSessionID + "' was renewed as '" + sNewSessionID + "'",
+                      ScopeUtils.getDebugStackTrace ());
+    return aNewScope;
+  }
+
   /**
    * @return <code>true</code> if at least one session is present,
    *         <code>false</code> otherwise
@@ -0,0 +1,372 @@
+/**
+ * Copyright (C) 2006-2014 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.scopes.processor;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.annotation.Nonnull;
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.annotation.processing.SupportedOptions;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+
+import com.phloc.scopes.AbstractSingleton;
+import com.phloc.scopes.spi.ISingletonIndexSPI;
+
+/**
+ * Annotation processor that discovers all instancable {@link AbstractSingleton}
+ * sub classes at compile time and generates an {@link ISingletonIndexSPI}
+ * implementation (including the service registration) for them. The generated
+ * index invokes the constructors directly and contains the precomputed scope
+ * keys.<br>
+ * The processor is not registered as a service, so it must be enabled
+ * explicitly, and the fully qualified name of the index class must be passed
+ * via the processor option {@value #OPTION_INDEX_CLASS_NAME}, e.g.
+ * <code>-processor com.phloc.scopes.processor.SingletonIndexProcessor
+ * -Aphloc.scopes.singletonindex=com.example.MySingletonIndex</code>.<br>
+ * Only public, non-abstract, non-generic top-level or static nested classes
+ * with a public no-argument constructor are indexed. All other singletons are
+ * still instantiated via reflection.<br>
+ * Besides the index class, the names of all indexed classes are written to
+ * the resource {@value #LIST_RESOURCE_PREFIX}&lt;index class
+ * name&gt;<code>.list</code>. An incremental compilation that only contains
+ * some of the singletons merges them with the singletons of this list that
+ * still exist, so that the index stays complete. This requires the class
+ * output directory to be on the class path, which is the default for Maven.
+ * 
+ * @author Philip Helger
+ */
+// Singletons are not annotated, so all root elements must be inspected. No
+// annotation is ever claimed, so other processors are not affected.
+@SupportedAnnotationTypes ("*")
+@SupportedOptions (SingletonIndexProcessor.OPTION_INDEX_CLASS_NAME)
+public class SingletonIndexProcessor extends AbstractProcessor
+{
+  public static final String OPTION_INDEX_CLASS_NAME = "phloc.scopes.singletonindex";
+  public static final String LIST_RESOURCE_PREFIX = "META-INF/phloc-scopes/";
+
+  private boolean m_bGenerated = false;
+
+  @Override
+  public SourceVersion getSupportedSourceVersion ()
+  {
+    return SourceVersion.latestSupported ();
+  }
+
+  private static boolean _isPublicStaticType (@Nonnull final TypeElement aElement)
+  {
+    if (!aElement.getModifiers ().contains (Modifier.PUBLIC))
+      return false;
+    if (aElement.getNestingKind () == NestingKind.TOP_LEVEL)
+      return true;
+    if (aElement.getNestingKind () != NestingKind.MEMBER || !aElement.getModifiers ().contains (Modifier.STATIC))
+      return false;
+    final Element aEnclosing = aElement.getEnclosingElement ();
+    return aEnclosing instanceof TypeElement && _isPublicStaticType ((TypeElement) aEnclosing);
+  }
+
+  private static boolean _hasPublicNoArgCtor (@Nonnull final TypeElement aElement)
+  {
+    for (final ExecutableElement aCtor : ElementFilter.constructorsIn (aElement.getEnclosedElements ()))
+      if (aCtor.getParameters ().isEmpty () && aCtor.getModifiers ().contains (Modifier.PUBLIC))
+        return true;
+    return false;
+  }
+
+  private boolean _isIndexable (@Nonnull final TypeElement aTypeElement, @Nonnull final TypeMirror aBaseType)
+  {
+    return aTypeElement.getKind () == ElementKind.CLASS &&
+           !aTypeElement.getModifiers ().contains (Modifier.ABSTRACT) &&
+           aTypeElement.getTypeParameters ().isEmpty () &&
+           _isPublicStaticType (aTypeElement) &&
+           processingEnv.getTypeUtils ().isSubtype (processingEnv.getTypeUtils ().erasure (aTypeElement.asType ()),
+                                                    aBaseType) &&
+           _hasPublicNoArgCtor (aTypeElement);
+  }
+
+  private void _collect (@Nonnull final Element aElement,
+                         @Nonnull final TypeMirror aBaseType,
+                         @Nonnull final List <TypeElement> aTarget)
+  {
+    if (!aElement.getKind ().isClass () && !aElement.getKind ().isInterface ())
+      return;
+
+    final TypeElement aTypeElement = (TypeElement) aElement;
+    if (_isIndexable (aTypeElement, aBaseType))
+      aTarget.add (aTypeElement);
+
+    // Check nested classes as well
+    for (final TypeElement aNested : ElementFilter.typesIn (aTypeElement.getEnclosedElements ()))
+      _collect (aNested, aBaseType, aTarget);
+  }
+
+  @Nonnull
+  private String _getBinaryName (@Nonnull final TypeElement aElement)
+  {
+    return processingEnv.getElementUtils ().getBinaryName (aElement).toString ();
+  }
+
+  /**
+   * Add all singletons of the list written by a previous compilation, that
+   * were not compiled in this run and are still indexable.
+   */
+  private void _addPreviouslyIndexed (@Nonnull final String sIndexClassName,
+                                      @Nonnull final TypeMirror aBaseType,
+                                      @Nonnull final List <TypeElement> aTarget)
+  {
+    final Set <String> aKnownNames = new HashSet <String> ();
+    for (final TypeElement aSingleton : aTarget)
+      aKnownNames.add (aSingleton.getQualifiedName ().toString ());
+
+    try
+    {
+      final FileObject aList = processingEnv.getFiler ().getResource (StandardLocation.CLASS_OUTPUT,
+                                                                       "",
+                                                                       LIST_RESOURCE_PREFIX + sIndexClassName + ".list");
+      final BufferedReader aReader = new BufferedReader (aList.openReader (true));
+      try
+      {
+        String sLine;
+        while ((sLine = aReader.readLine ()) != null)
+        {
+          final String sName = sLine.trim ();
+          if (sName.length () > 0 && aKnownNames.add (sName))
+          {
+            // Deleted or no longer indexable classes are dropped
+            final TypeElement aElement = processingEnv.getElementUtils ().getTypeElement (sName);
+            if (aElement != null && _isIndexable (aElement, aBaseType))
+              aTarget.add (aElement);
+          }
+        }
+      }
+      finally
+      {
+        aReader.close ();
+      }
+    }
+    catch (final IOException ex)
+    {
+      // No previous list - full compilation
+    }
+  }
+
+  private void _generate (@Nonnull final String sIndexClassName, @Nonnull final List <TypeElement> aSingletons) throws IOException
+  {
+    final int nLastDot = sIndexClassName.lastIndexOf ('.');
+    final String sSPI = ISingletonIndexSPI.class.getName ();
+    final String sBase = AbstractSingleton.class.getName ();
+    final Element [] aOrigins = aSingletons.toArray (new Element [aSingletons.size ()]);
+
+    // The index class itself
+    final Writer aSourceWriter = processingEnv.getFiler ().createSourceFile (sIndexClassName, aOrigins).openWriter ();
+    final PrintWriter w = new PrintWriter (aSourceWriter);
+    try
+    {
+      if (nLastDot > 0)
+      {
+        w.println ("package " + sIndexClassName.substring (0, nLastDot) + ";");
+        w.println ();
+      }
+      w.println ("/**");
+      w.println (" * Singleton index generated by " + getClass ().getName () + ". Do not edit!");
+      w.println (" */");
+      w.println ("@SuppressWarnings (\"deprecation\")");
+      w.println ("public final class " + sIndexClassName.substring (nLastDot + 1) + " implements " + sSPI);
+      w.println ("{");
+      w.println ("  private static final java.util.List <Class <? extends " +
+                 sBase +
+                 ">> s_aClasses = new java.util.ArrayList <Class <? extends " +
+                 sBase +
+                 ">> ();");
+      w.println ("  private static final java.util.Map <Class <?>, Integer> s_aIndex = new java.util.HashMap <Class <?>, Integer> ();");
+      w.println ("  private static final String [] s_aKeys = new String [" + aSingletons.size () + "];");
+      w.println ();
+      w.println ("  static");
+      w.println ("  {");
+      for (int i = 0; i < aSingletons.size (); ++i)
+      {
+        final TypeElement aSingleton = aSingletons.get (i);
+        w.println ("    s_aClasses.add (" + aSingleton.getQualifiedName () + ".class);");
+        w.println ("    s_aKeys[" +
+                   i +
+                   "] = \"" +
+                   AbstractSingleton.SCOPE_KEY_PREFIX +
+                   _getBinaryName (aSingleton) +
+                   "\";");
+      }
+      w.println ("    for (int i = 0; i < s_aClasses.size (); ++i)");
+      w.println ("      s_aIndex.put (s_aClasses.get (i), Integer.valueOf (i));");
+      w.println ("  }");
+      w.println ();
+      w.println ("  public java.util.List <Class <? extends " + sBase + ">> getAllSingletonClasses ()");
+      w.println ("  {");
+      w.println ("    return new java.util.ArrayList <Class <? extends " + sBase + ">> (s_aClasses);");
+      w.println ("  }");
+      w.println ();
+      w.println ("  public String getSingletonScopeKey (final Class <? extends " + sBase + "> aClass)");
+      w.println ("  {");
+      w.println ("    final Integer aIndex = s_aIndex.get (aClass);");
+      w.println ("    return aIndex == null ? null : s_aKeys[aIndex.intValue ()];");
+      w.println ("  }");
+      w.println ();
+      w.println ("  public <T extends " + sBase + "> T createSingleton (final Class <T> aClass)");
+      w.println ("  {");
+      w.println ("    final Integer aIndex = s_aIndex.get (aClass);");
+      w.println ("    if (aIndex == null)");
+      w.println ("      return null;");
+      w.println ("    switch (aIndex.intValue ())");
+      w.println ("    {");
+      for (int i = 0; i < aSingletons.size (); ++i)
+      {
+        w.println ("      case " + i + ":");
+        w.println ("        return aClass.cast (new " + aSingletons.get (i).getQualifiedName () + " ());");
+      }
+      w.println ("      default:");
+      w.println ("        return null;");
+      w.println ("    }");
+      w.println ("  }");
+      w.println ("}");
+    }
+    finally
+    {
+      w.close ();
+    }
+
+    // The list of indexed classes for incremental compilation
+    final Writer aListWriter = processingEnv.getFiler ()
+                                            .createResource (StandardLocation.CLASS_OUTPUT,
+                                                             "",
+                                                             LIST_RESOURCE_PREFIX + sIndexClassName + ".list",
+                                                             aOrigins)
+                                            .openWriter ();
+    try
+    {
+      for (final TypeElement aSingleton : aSingletons)
+        aListWriter.write (aSingleton.getQualifiedName () + "\n");
+    }
+    finally
+    {
+      aListWriter.close ();
+    }
+
+    // The service registration
+    final Writer aServiceWriter = processingEnv.getFiler ()
+                                               .createResource (StandardLocation.CLASS_OUTPUT,
+                                                                "",
+                                                                "META-INF/services/" + sSPI,
+                                                                aOrigins)
+                                               .openWriter ();
+    try
+    {
+      aServiceWriter.write (sIndexClassName + "\n");
+    }
+    finally
+    {
+      aServiceWriter.close ();
+    }
+  }
+
+  @Override
+  public boolean process (@Nonnull final Set <? extends TypeElement> aAnnotations,
+                          @Nonnull final RoundEnvironment aRoundEnv)
+  {
+    if (aRoundEnv.processingOver ())
+      return false;
+
+    final String sIndexClassName = processingEnv.getOptions ().get (OPTION_INDEX_CLASS_NAME);
+    if (sIndexClassName == null || sIndexClassName.trim ().length () == 0)
+    {
+      // Report only once
+      if (!m_bGenerated)
+        processingEnv.getMessager ().printMessage (Diagnostic.Kind.ERROR,
+                                                   "The processor option -A" +
+                                                       OPTION_INDEX_CLASS_NAME +
+                                                       "=<fully qualified class name> is required to generate the singleton index");
+      m_bGenerated = true;
+      return false;
+    }
+
+    final TypeElement aBaseElement = processingEnv.getElementUtils ().getTypeElement (AbstractSingleton.class.getName ());
+    if (aBaseElement == null)
+      return false;
+    final TypeMirror aBaseType = processingEnv.getTypeUtils ().erasure (aBaseElement.asType ());
+
+    final List <TypeElement> aSingletons = new ArrayList <TypeElement> ();
+    for (final Element aElement : aRoundEnv.getRootElements ())
+      _collect (aElement, aBaseType, aSingletons);
+    if (aSingletons.isEmpty ())
+      return false;
+
+    if (m_bGenerated)
+    {
+      // Singletons generated by other processors - not indexed
+      for (final TypeElement aSingleton : aSingletons)
+        processingEnv.getMessager ().printMessage (Diagnostic.Kind.NOTE,
+                                                   "Singleton created in a later round is not indexed",
+                                                   aSingleton);
+      return false;
+    }
+
+    // Incremental compilation: keep the singletons indexed previously
+    _addPreviouslyIndexed (sIndexClassName.trim (), aBaseType, aSingletons);
+
+    // Deterministic order
+    Collections.sort (aSingletons, new Comparator <TypeElement> ()
+    {
+      public int compare (@Nonnull final TypeElement aElement1, @Nonnull final TypeElement aElement2)
+      {
+        return _getBinaryName (aElement1).compareTo (_getBinaryName (aElement2));
+      }
+    });
+
+    m_bGenerated = true;
+    try
+    {
+      _generate (sIndexClassName.trim (), aSingletons);
+    }
+    catch (final IOException ex)
+    {
+      processingEnv.getMessager ().printMessage (Diagnostic.Kind.ERROR,
+                                                 "Failed to generate the singleton index: " + ex.getMessage ());
+    }
+
+    // Don't claim any annotation
+    return false;
+  }
+}
@@ -70,6 +70,23 @@ public abstract class ApplicationSingleton extends AbstractSingleton
     return getSingleton (_getStaticScope (true), aClass);
   }
 
+  /**
+   * Get the singleton object in the passed application scope. Used for the
+   * warm-up, where no request and therefore no current application is present.
+   * 
+   * @param aScope
+   *        The application scope to be used. May not be <code>null</code>.
+   * @param aClass
+   *        The class to be used. May not be <code>null</code>.
+   * @return The singleton object and never <code>null</code>.
+   */
+  @Nonnull
+  static final <T extends ApplicationSingleton> T getApplicationSingleton (@Nonnull final IApplicationScope aScope,
+                                                                          @Nonnull final Class <T> aClass)
+  {
+    return getSingleton (aScope, aClass);
+  }
+
   /**
    * Get the singleton object if it is already instantiated inside the current
    * application scope or <code>null</code> if it is not instantiated.
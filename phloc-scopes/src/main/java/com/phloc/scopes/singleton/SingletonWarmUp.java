@@ -0,0 +1,324 @@
+/**
+ * Copyright (C) 2006-2014 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.scopes.singleton;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.phloc.commons.ValueEnforcer;
+import com.phloc.commons.annotations.Nonempty;
+import com.phloc.commons.annotations.PresentForCodeCoverage;
+import com.phloc.commons.callback.INonThrowingRunnableWithParameter;
+import com.phloc.commons.lang.ServiceLoaderUtils;
+import com.phloc.commons.string.ToStringGenerator;
+import com.phloc.scopes.AbstractSingleton;
+import com.phloc.scopes.domain.IGlobalScope;
+import com.phloc.scopes.mgr.ScopeManager;
+import com.phloc.scopes.spi.ISingletonWarmUpSPI;
+import com.phloc.scopes.util.ParallelTaskRunner;
+
+/**
+ * Eagerly instantiates registered global and application singletons right
+ * after the global scope was started, so that the first requests don't have to
+ * pay for the lazy instantiation. Singletons can be registered either
+ * programmatically before the global scope is started, or declaratively via
+ * the {@link ISingletonWarmUpSPI}. The warm-up runs asynchronously with up to
+ * {@link #getMaxThreads()} threads. Use {@link #isReady()} or
+ * {@link #awaitReady(long, TimeUnit)} to check whether it is finished (e.g.
+ * before registering with a load balancer).<br>
+ * Application singletons are instantiated directly in the application scope of
+ * their application. No request or session scope is present, so application
+ * singletons that need one in their constructor must not be registered. Note: singletons are instantiated while holding the
+ * write lock of their scope, so singletons of the same scope are always
+ * instantiated one after the other. Multiple threads only help if singletons
+ * of different scopes are registered.
+ * 
+ * @author Philip Helger
+ */
+@ThreadSafe
+public final class SingletonWarmUp
+{
+  public static final int DEFAULT_MAX_THREADS = 4;
+  public static final long DEFAULT_SHUTDOWN_TIMEOUT_MILLIS = 60 * 1000L;
+
+  private static final Logger s_aLogger = LoggerFactory.getLogger (SingletonWarmUp.class);
+  private static final List <ISingletonWarmUpSPI> s_aSPIs = ServiceLoaderUtils.getAllSPIImplementations (ISingletonWarmUpSPI.class);
+
+  /**
+   * A single singleton to be instantiated.
+   * 
+   * @author Philip Helger
+   */
+  private static final class WarmUpItem
+  {
+    // null for global singletons
+    private final String m_sApplicationID;
+    private final Class <? extends AbstractSingleton> m_aClass;
+
+    WarmUpItem (@Nullable final String sApplicationID, @Nonnull final Class <? extends AbstractSingleton> aClass)
+    {
+      m_sApplicationID = sApplicationID;
+      m_aClass = aClass;
+    }
+
+    void instantiate ()
+    {
+      if (m_sApplicationID == null)
+        GlobalSingleton.getGlobalSingleton (m_aClass.asSubclass (GlobalSingleton.class));
+      else
+        ApplicationSingleton.getApplicationSingleton (ScopeManager.getApplicationScope (m_sApplicationID, true),
+                                                      m_aClass.asSubclass (ApplicationSingleton.class));
+    }
+
+    @Override
+    public String toString ()
+    {
+      return new ToStringGenerator (this).append ("applicationID", m_sApplicationID)
+                                         .append ("class", m_aClass)
+                                         .toString ();
+    }
+  }
+
+  private static final INonThrowingRunnableWithParameter <WarmUpItem> s_aInstantiateAction = new INonThrowingRunnableWithParameter <WarmUpItem> ()
+  {
+    public void run (@Nonnull final WarmUpItem aItem)
+    {
+      aItem.instantiate ();
+    }
+  };
+
+  private static final List <WarmUpItem> s_aItems = new CopyOnWriteArrayList <WarmUpItem> ();
+  private static volatile int s_nMaxThreads = DEFAULT_MAX_THREADS;
+  private static volatile long s_nShutdownTimeoutMillis = DEFAULT_SHUTDOWN_TIMEOUT_MILLIS;
+
+  // Counted down as soon as the warm-up of the current global scope is done
+  private static volatile CountDownLatch s_aReadyLatch = new CountDownLatch (1);
+  private static volatile Thread s_aWarmUpThread;
+
+  @SuppressWarnings ("unused")
+  @PresentForCodeCoverage
+  private static final SingletonWarmUp s_aInstance = new SingletonWarmUp ();
+
+  private SingletonWarmUp ()
+  {}
+
+  /**
+   * Register a global singleton to be instantiated when the global scope is
+   * started.
+   * 
+   * @param aClass
+   *        The singleton class. May not be <code>null</code>.
+   */
+  public static void registerGlobalSingleton (@Nonnull final Class <? extends GlobalSingleton> aClass)
+  {
+    ValueEnforcer.notNull (aClass, "Class");
+    s_aItems.add (new WarmUpItem (null, aClass));
+  }
+
+  /**
+   * Register an application singleton to be instantiated in the application
+   * scope with the passed ID when the global scope is started.
+   * 
+   * @param sApplicationID
+   *        The application ID. May neither be <code>null</code> nor empty.
+   * @param aClass
+   *        The singleton class. May not be <code>null</code>.
+   */
+  public static void registerApplicationSingleton (@Nonnull @Nonempty final String sApplicationID,
+                                                   @Nonnull final Class <? extends ApplicationSingleton> aClass)
+  {
+    ValueEnforcer.notEmpty (sApplicationID, "ApplicationID");
+    ValueEnforcer.notNull (aClass, "Class");
+    s_aItems.add (new WarmUpItem (sApplicationID, aClass));
+  }
+
+  /**
+   * Remove all programmatically registered singletons.
+   */
+  public static void unregisterAll ()
+  {
+    s_aItems.clear ();
+  }
+
+  /**
+   * @param nMaxThreads
+   *        The maximum number of threads used for the warm-up. Values &le; 1
+   *        mean that all singletons are instantiated one after the other in a
+   *        single background thread. Singletons of the same scope are always
+   *        instantiated one after the other.
+   */
+  public static void setMaxThreads (final int nMaxThreads)
+  {
+    s_nMaxThreads = nMaxThreads;
+  }
+
+  /**
+   * @return The maximum number of threads used for the warm-up.
+   */
+  public static int getMaxThreads ()
+  {
+    return s_nMaxThreads;
+  }
+
+  /**
+   * @param nShutdownTimeoutMillis
+   *        The maximum time in milliseconds the global scope shutdown waits for
+   *        a warm-up that is still running. Values &le; 0 mean no timeout.
+   */
+  public static void setShutdownTimeoutMillis (final long nShutdownTimeoutMillis)
+  {
+    s_nShutdownTimeoutMillis = nShutdownTimeoutMillis;
+  }
+
+  /**
+   * @return The maximum time in milliseconds the global scope shutdown waits
+   *         for a warm-up that is still running.
+   */
+  public static long getShutdownTimeoutMillis ()
+  {
+    return s_nShutdownTimeoutMillis;
+  }
+
+  /**
+   * @return <code>true</code> if a global scope is present and all registered
+   *         singletons were instantiated (successfully or not).
+   */
+  public static boolean isReady ()
+  {
+    return s_aReadyLatch.getCount () == 0;
+  }
+
+  /**
+   * Wait until the warm-up of the current global scope is finished.
+   * 
+   * @param nTimeout
+   *        The maximum time to wait.
+   * @param eUnit
+   *        The time unit of the timeout. May not be <code>null</code>.
+   * @return <code>true</code> if the warm-up is finished, <code>false</code> if
+   *         the timeout elapsed before.
+   * @throws InterruptedException
+   *         If the current thread was interrupted while waiting
+   */
+  public static boolean awaitReady (final long nTimeout, @Nonnull final TimeUnit eUnit) throws InterruptedException
+  {
+    return s_aReadyLatch.await (nTimeout, eUnit);
+  }
+
+  @Nonnull
+  private static List <WarmUpItem> _getAllItems ()
+  {
+    final List <WarmUpItem> ret = new ArrayList <WarmUpItem> (s_aItems);
+    for (final ISingletonWarmUpSPI aSPI : s_aSPIs)
+    {
+      final Collection <Class <? extends GlobalSingleton>> aGlobalClasses = aSPI.getAllWarmUpGlobalSingletons ();
+      if (aGlobalClasses != null)
+        for (final Class <? extends GlobalSingleton> aClass : aGlobalClasses)
+          ret.add (new WarmUpItem (null, aClass));
+
+      final Map <String, ? extends Collection <Class <? extends ApplicationSingleton>>> aAppClasses = aSPI.getAllWarmUpApplicationSingletons ();
+      if (aAppClasses != null)
+        for (final Map.Entry <String, ? extends Collection <Class <? extends ApplicationSingleton>>> aEntry : aAppClasses.entrySet ())
+          for (final Class <? extends ApplicationSingleton> aClass : aEntry.getValue ())
+            ret.add (new WarmUpItem (aEntry.getKey (), aClass));
+    }
+    return ret;
+  }
+
+  /**
+   * Internal method that starts the warm-up. Called by the {@link ScopeManager}
+   * after the global scope was initialized. Never call manually!
+   * 
+   * @param aGlobalScope
+   *        The global scope that was started. May not be <code>null</code>.
+   */
+  public static void onGlobalScopeBegin (@Nonnull final IGlobalScope aGlobalScope)
+  {
+    final List <WarmUpItem> aItems = _getAllItems ();
+    final CountDownLatch aReadyLatch = s_aReadyLatch;
+    if (aItems.isEmpty ())
+    {
+      // Nothing to do
+      aReadyLatch.countDown ();
+      return;
+    }
+
+    final String sThreadName = "singleton-warmup-" + aGlobalScope.getID ();
+    final Thread aThread = new Thread (new Runnable ()
+    {
+      public void run ()
+      {
+        try
+        {
+          final long [] aDurations = ParallelTaskRunner.runAll (aItems,
+                                                                s_aInstantiateAction,
+                                                                s_nMaxThreads,
+                                                                0,
+                                                                sThreadName);
+          if (s_aLogger.isDebugEnabled ())
+            for (int i = 0; i < aDurations.length; ++i)
+              s_aLogger.debug ("Warmed up " + aItems.get (i) + " in " + aDurations[i] / 1000000L + "ms");
+        }
+        finally
+        {
+          aReadyLatch.countDown ();
+        }
+      }
+    }, sThreadName);
+    aThread.setDaemon (true);
+    s_aWarmUpThread = aThread;
+    aThread.start ();
+  }
+
+  /**
+   * Internal method that waits for a running warm-up and resets the readiness.
+   * Called by the {@link ScopeManager} before the global scope is destroyed.
+   * Never call manually!
+   */
+  public static void onGlobalScopeEnd ()
+  {
+    final Thread aThread = s_aWarmUpThread;
+    if (aThread != null)
+    {
+      try
+      {
+        aThread.join (Math.max (0, s_nShutdownTimeoutMillis));
+        if (aThread.isAlive ())
+          s_aLogger.warn ("Singleton warm-up is still running while the global scope is destroyed");
+      }
+      catch (final InterruptedException ex)
+      {
+        Thread.currentThread ().interrupt ();
+      }
+      s_aWarmUpThread = null;
+    }
+    s_aReadyLatch = new CountDownLatch (1);
+  }
+}
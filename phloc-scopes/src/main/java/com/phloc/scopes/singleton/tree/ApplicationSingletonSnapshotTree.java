@@ -0,0 +1,163 @@
+/**
+ * Copyright (C) 2006-2014 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.scopes.singleton.tree;
+
+import java.io.File;
+import java.util.Collection;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.phloc.commons.callback.INonThrowingRunnableWithParameter;
+import com.phloc.commons.state.ESuccess;
+import com.phloc.scopes.singleton.ApplicationSingleton;
+
+/**
+ * Represents an application singleton tree that can be read concurrently without
+ * locking. It is a {@link ApplicationSingleton} wrapping a {@link SnapshotTree}. In
+ * contrast to {@link ApplicationSingletonTreeWithUniqueID} all modifications must be
+ * performed via {@link #update(INonThrowingRunnableWithParameter)}.
+ * 
+ * @author Philip Helger
+ */
+public abstract class ApplicationSingletonSnapshotTree <KEYTYPE, VALUETYPE> extends ApplicationSingleton
+{
+  protected final SnapshotTree <KEYTYPE, VALUETYPE> m_aTree = new SnapshotTree <KEYTYPE, VALUETYPE> ();
+
+  public ApplicationSingletonSnapshotTree ()
+  {}
+
+  /**
+   * @return The current immutable version of the tree. Use this when several
+   *         read operations need a consistent view.
+   */
+  @Nonnull
+  public final TreeSnapshot <KEYTYPE, VALUETYPE> getSnapshot ()
+  {
+    return m_aTree.getSnapshot ();
+  }
+
+  /**
+   * Modify the tree and publish the changes as one new version.
+   * 
+   * @param aModifier
+   *        The callback performing the modifications. May not be
+   *        <code>null</code>.
+   * @return The snapshot that is published after the modification.
+   * @see SnapshotTree#update(INonThrowingRunnableWithParameter)
+   */
+  @Nonnull
+  public final TreeSnapshot <KEYTYPE, VALUETYPE> update (@Nonnull final INonThrowingRunnableWithParameter <TreeSnapshotBuilder <KEYTYPE, VALUETYPE>> aModifier)
+  {
+    return m_aTree.update (aModifier);
+  }
+
+  /**
+   * Replace the whole content of this tree with the items of the passed bulk
+   * loader.
+   * 
+   * @param aLoader
+   *        The loader containing the items. May not be <code>null</code>.
+   * @return The newly published snapshot. Its version continues the version
+   *         sequence of this tree.
+   * @see TreeBulkLoader#build()
+   * @see SnapshotTree#setSnapshot(TreeSnapshot)
+   */
+  @Nonnull
+  public final TreeSnapshot <KEYTYPE, VALUETYPE> bulkLoad (@Nonnull final TreeBulkLoader <KEYTYPE, VALUETYPE> aLoader)
+  {
+    return m_aTree.setSnapshot (aLoader.build ());
+  }
+
+  /**
+   * Write the current snapshot of this tree to the passed file.
+   * 
+   * @param aFile
+   *        The file to write to. May not be <code>null</code>.
+   * @param aCodec
+   *        The codec for IDs and data. May not be <code>null</code>.
+   * @return {@link ESuccess}
+   * @see TreeSnapshotFile#writeSnapshot(TreeSnapshot, File, ITreeSnapshotCodec)
+   */
+  @Nonnull
+  public final ESuccess writeSnapshot (@Nonnull final File aFile,
+                                       @Nonnull final ITreeSnapshotCodec <KEYTYPE, VALUETYPE> aCodec)
+  {
+    return TreeSnapshotFile.writeSnapshot (m_aTree.getSnapshot (), aFile, aCodec);
+  }
+
+  /**
+   * Replace the content of this tree with the snapshot stored in the passed
+   * file. Typically called upon startup, before the tree is refreshed from its
+   * original source in the background. The version stored in the file is
+   * ignored - the version sequence of this tree is continued.
+   * 
+   * @param aFile
+   *        The file to read. May not be <code>null</code>.
+   * @param aCodec
+   *        The codec for IDs and data. May not be <code>null</code>.
+   * @return {@link ESuccess#FAILURE} if the file does not exist or could not
+   *         be read. In this case the tree is not modified.
+   * @see TreeSnapshotFile#readSnapshot(File, ITreeSnapshotCodec)
+   */
+  @Nonnull
+  public final ESuccess readSnapshot (@Nonnull final File aFile,
+                                      @Nonnull final ITreeSnapshotCodec <KEYTYPE, VALUETYPE> aCodec)
+  {
+    final TreeSnapshot <KEYTYPE, VALUETYPE> aSnapshot = TreeSnapshotFile.readSnapshot (aFile, aCodec);
+    if (aSnapshot == null)
+      return ESuccess.FAILURE;
+    m_aTree.setSnapshot (aSnapshot);
+    return ESuccess.SUCCESS;
+  }
+
+  @Nullable
+  public TreeSnapshotItem <KEYTYPE, VALUETYPE> getItemWithID (@Nullable final KEYTYPE aDataID)
+  {
+    return m_aTree.getSnapshot ().getItemWithID (aDataID);
+  }
+
+  public boolean containsItemWithID (@Nullable final KEYTYPE aDataID)
+  {
+    return m_aTree.getSnapshot ().containsItemWithID (aDataID);
+  }
+
+  @Nullable
+  public VALUETYPE getItemDataWithID (@Nullable final KEYTYPE aDataID)
+  {
+    return m_aTree.getSnapshot ().getItemDataWithID (aDataID);
+  }
+
+  @Nonnull
+  public Collection <TreeSnapshotItem <KEYTYPE, VALUETYPE>> getAllItems ()
+  {
+    return m_aTree.getSnapshot ().getAllItems ();
+  }
+
+  public boolean isItemSameOrDescendant (@Nullable final KEYTYPE aParentItemID, @Nullable final KEYTYPE aChildItemID)
+  {
+    return m_aTree.getSnapshot ().isItemSameOrDescendant (aParentItemID, aChildItemID);
+  }
+
+  @Nonnegative
+  public int getDescendantCount (@Nullable final KEYTYPE aDataID)
+  {
+    return m_aTree.getSnapshot ().getDescendantCount (aDataID);
+  }
+}
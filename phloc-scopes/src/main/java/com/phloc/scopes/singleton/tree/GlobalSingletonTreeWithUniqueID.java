@@ -23,6 +23,7 @@ import javax.annotation.Nonnegative;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
+import com.phloc.commons.ValueEnforcer;
 import com.phloc.commons.state.EChange;
 import com.phloc.commons.tree.withid.DefaultTreeItemWithID;
 import com.phloc.commons.tree.withid.unique.DefaultTreeWithGlobalUniqueID;
@@ -112,4 +113,42 @@ public abstract class GlobalSingletonTreeWithUniqueID <KEYTYPE, VALUETYPE> exten
   {
     return m_aTree.removeItemWithID (aDataID);
   }
+
+  /**
+   * Add all items of the passed bulk loader to this tree. Parents are created
+   * before their children, so the items may have been added to the loader in
+   * any order.
+   * 
+   * @param aLoader
+   *        The loader containing the items. Items without a parent ID are
+   *        added below the root item. May not be <code>null</code>.
+   * @throws IllegalStateException
+   *         If the items of the loader do not form a valid tree or if an ID is
+   *         used more than once in the loader. In this case nothing is added.
+   * @throws IllegalArgumentException
+   *         If an ID of the loader is already contained in this tree. In this
+   *         case nothing is added.
+   */
+  public void bulkLoad (@Nonnull final TreeBulkLoader <KEYTYPE, VALUETYPE> aLoader)
+  {
+    ValueEnforcer.notNull (aLoader, "Loader");
+
+    // Check everything before the tree is modified - the structure of the
+    // loader is checked before the first item is handled
+    for (final KEYTYPE aID : aLoader.getAllIDs ())
+      if (m_aTree.containsItemWithID (aID))
+        throw new IllegalArgumentException ("The item ID " + aID + " is already contained in the tree");
+
+    aLoader.forEachItemParentFirst (new TreeBulkLoader.IItemHandler <KEYTYPE, VALUETYPE> ()
+    {
+      public void onItem (@Nullable final KEYTYPE aParentID,
+                          @Nonnull final KEYTYPE aID,
+                          @Nullable final VALUETYPE aData)
+      {
+        final DefaultTreeItemWithID <KEYTYPE, VALUETYPE> aParent = aParentID == null ? m_aTree.getRootItem ()
+                                                                                   : m_aTree.getItemWithID (aParentID);
+        aParent.createChildItem (aID, aData);
+      }
+    });
+  }
 }
@@ -0,0 +1,58 @@
+/**
+ * Copyright (C) 2006-2014 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.scopes.singleton.tree;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Converts the IDs and the data of tree items from and to a binary
+ * representation. Used by {@link TreeSnapshotFile}.
+ * 
+ * @author Philip Helger
+ * @param <KEYTYPE>
+ *        The ID type
+ * @param <VALUETYPE>
+ *        The data type
+ */
+public interface ITreeSnapshotCodec <KEYTYPE, VALUETYPE>
+{
+  void writeID (@Nonnull DataOutput aDO, @Nonnull KEYTYPE aID) throws IOException;
+
+  @Nonnull
+  KEYTYPE readID (@Nonnull DataInput aDI) throws IOException;
+
+  /**
+   * Write the data of an item. Only called for non-<code>null</code> data.
+   * 
+   * @param aDO
+   *        The output to write to.
+   * @param aData
+   *        The data to write.
+   * @throws IOException
+   *         In case of an error
+   */
+  void writeData (@Nonnull DataOutput aDO, @Nonnull VALUETYPE aData) throws IOException;
+
+  @Nullable
+  VALUETYPE readData (@Nonnull DataInput aDI) throws IOException;
+}
@@ -0,0 +1,124 @@
+/**
+ * Copyright (C) 2006-2014 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.scopes.singleton.tree;
+
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.phloc.commons.ValueEnforcer;
+import com.phloc.commons.callback.INonThrowingRunnableWithParameter;
+import com.phloc.commons.string.ToStringGenerator;
+
+/**
+ * A tree that is read via immutable {@link TreeSnapshot} objects. Readers never
+ * block, as they only access the currently published snapshot. Writers are
+ * serialized, apply all their changes on a {@link TreeSnapshotBuilder} and
+ * publish the result as a new snapshot in one step. As each write copies the
+ * tree, changes should be batched.
+ * 
+ * @author Philip Helger
+ * @param <KEYTYPE>
+ *        The ID type
+ * @param <VALUETYPE>
+ *        The data type
+ */
+@ThreadSafe
+public final class SnapshotTree <KEYTYPE, VALUETYPE>
+{
+  private final Lock m_aWriteLock = new ReentrantLock ();
+  private volatile TreeSnapshot <KEYTYPE, VALUETYPE> m_aSnapshot = new TreeSnapshotBuilder <KEYTYPE, VALUETYPE> ().build ();
+
+  public SnapshotTree ()
+  {}
+
+  /**
+   * @return The currently published snapshot. Never <code>null</code>.
+   */
+  @Nonnull
+  public TreeSnapshot <KEYTYPE, VALUETYPE> getSnapshot ()
+  {
+    return m_aSnapshot;
+  }
+
+  /**
+   * Modify the tree. The passed callback receives a builder initialized with
+   * the current snapshot. After the callback returns, the modified tree is
+   * published as a new snapshot if anything changed.
+   * 
+   * @param aModifier
+   *        The callback performing the modifications. May not be
+   *        <code>null</code>.
+   * @return The snapshot that is published after the modification. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  public TreeSnapshot <KEYTYPE, VALUETYPE> update (@Nonnull final INonThrowingRunnableWithParameter <TreeSnapshotBuilder <KEYTYPE, VALUETYPE>> aModifier)
+  {
+    ValueEnforcer.notNull (aModifier, "Modifier");
+
+    m_aWriteLock.lock ();
+    try
+    {
+      final TreeSnapshotBuilder <KEYTYPE, VALUETYPE> aBuilder = new TreeSnapshotBuilder <KEYTYPE, VALUETYPE> (m_aSnapshot);
+      aModifier.run (aBuilder);
+      if (aBuilder.isChanged ())
+        m_aSnapshot = aBuilder.build ();
+      return m_aSnapshot;
+    }
+    finally
+    {
+      m_aWriteLock.unlock ();
+    }
+  }
+
+  /**
+   * Replace the whole tree with the passed snapshot. The version of the passed
+   * snapshot is ignored - the published snapshot continues the version
+   * sequence of this tree, so that versions never move backwards.
+   * 
+   * @param aSnapshot
+   *        The new snapshot. May not be <code>null</code>.
+   * @return The published snapshot with the next version. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  public TreeSnapshot <KEYTYPE, VALUETYPE> setSnapshot (@Nonnull final TreeSnapshot <KEYTYPE, VALUETYPE> aSnapshot)
+  {
+    ValueEnforcer.notNull (aSnapshot, "Snapshot");
+
+    m_aWriteLock.lock ();
+    try
+    {
+      m_aSnapshot = aSnapshot.getWithVersion (m_aSnapshot.getVersion () + 1);
+      return m_aSnapshot;
+    }
+    finally
+    {
+      m_aWriteLock.unlock ();
+    }
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("snapshot", m_aSnapshot).toString ();
+  }
+}
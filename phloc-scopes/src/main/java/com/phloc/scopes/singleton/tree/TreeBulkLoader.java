@@ -0,0 +1,227 @@
+/**
+ * Copyright (C) 2006-2014 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.scopes.singleton.tree;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+import com.phloc.commons.ValueEnforcer;
+import com.phloc.commons.string.ToStringGenerator;
+
+/**
+ * Collects a large number of tree items in arbitrary order and creates the
+ * tree in a single pass. Items may be added before their parents, as the
+ * parent/child relationships are only resolved after all items were added.
+ * 
+ * @author Philip Helger
+ * @param <KEYTYPE>
+ *        The ID type
+ * @param <VALUETYPE>
+ *        The data type
+ */
+@NotThreadSafe
+public final class TreeBulkLoader <KEYTYPE, VALUETYPE>
+{
+  /**
+   * Callback for all items in parent first order.
+   * 
+   * @param <KEYTYPE>
+   *        The ID type
+   * @param <VALUETYPE>
+   *        The data type
+   */
+  interface IItemHandler <KEYTYPE, VALUETYPE>
+  {
+    void onItem (@Nullable KEYTYPE aParentID, @Nonnull KEYTYPE aID, @Nullable VALUETYPE aData);
+  }
+
+  private final List <KEYTYPE> m_aParentIDs;
+  private final List <KEYTYPE> m_aIDs;
+  private final List <VALUETYPE> m_aDatas;
+
+  /**
+   * Constructor
+   * 
+   * @param nExpectedItemCount
+   *        The expected number of items. Used to size all internal data
+   *        structures. Must be &ge; 0.
+   */
+  public TreeBulkLoader (@Nonnegative final int nExpectedItemCount)
+  {
+    ValueEnforcer.isGE0 (nExpectedItemCount, "ExpectedItemCount");
+    m_aParentIDs = new ArrayList <KEYTYPE> (nExpectedItemCount);
+    m_aIDs = new ArrayList <KEYTYPE> (nExpectedItemCount);
+    m_aDatas = new ArrayList <VALUETYPE> (nExpectedItemCount);
+  }
+
+  /**
+   * Add a new item. The parent item does not need to be added yet.
+   * 
+   * @param aParentID
+   *        The ID of the parent item or <code>null</code> for top-level items.
+   * @param aID
+   *        The ID of the item. May not be <code>null</code>.
+   * @param aData
+   *        The data of the item. May be <code>null</code>.
+   * @return this
+   */
+  @Nonnull
+  public TreeBulkLoader <KEYTYPE, VALUETYPE> addItem (@Nullable final KEYTYPE aParentID,
+                                                      @Nonnull final KEYTYPE aID,
+                                                      @Nullable final VALUETYPE aData)
+  {
+    ValueEnforcer.notNull (aID, "ID");
+    m_aParentIDs.add (aParentID);
+    m_aIDs.add (aID);
+    m_aDatas.add (aData);
+    return this;
+  }
+
+  /**
+   * @return The number of items added so far.
+   */
+  @Nonnegative
+  public int getItemCount ()
+  {
+    return m_aIDs.size ();
+  }
+
+  /**
+   * @return An unmodifiable view on the IDs of all added items. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  List <KEYTYPE> getAllIDs ()
+  {
+    return Collections.unmodifiableList (m_aIDs);
+  }
+
+  /**
+   * @return The indices of all items so that each parent comes before its
+   *         children. Siblings keep the order in which they were added.
+   * @throws IllegalStateException
+   *         If an ID is used more than once or if an item is not reachable
+   *         from the top level, because its parent is missing or because of a
+   *         cycle
+   */
+  @Nonnull
+  private int [] _getParentFirstOrder ()
+  {
+    final int nCount = m_aIDs.size ();
+    final int nMapSize = Math.max (16, (int) (nCount / 0.75f) + 1);
+
+    final Set <KEYTYPE> aUniqueIDs = new HashSet <KEYTYPE> (nMapSize);
+    for (final KEYTYPE aID : m_aIDs)
+      if (!aUniqueIDs.add (aID))
+        throw new IllegalStateException ("The item ID " + aID + " is used more than once");
+
+    // Build the linked lists of children per parent ID - backwards to keep
+    // the insertion order
+    final Map <KEYTYPE, Integer> aFirstChild = new HashMap <KEYTYPE, Integer> (nMapSize);
+    final int [] aNextSibling = new int [nCount];
+    for (int i = nCount - 1; i >= 0; --i)
+    {
+      final Integer aHead = aFirstChild.put (m_aParentIDs.get (i), Integer.valueOf (i));
+      aNextSibling[i] = aHead == null ? -1 : aHead.intValue ();
+    }
+
+    // Breadth first walk starting at the top-level items
+    final int [] aOrder = new int [nCount];
+    int nWritten = 0;
+    Integer aHead = aFirstChild.get (null);
+    for (int nChild = aHead == null ? -1 : aHead.intValue (); nChild >= 0; nChild = aNextSibling[nChild])
+      aOrder[nWritten++] = nChild;
+    for (int nRead = 0; nRead < nWritten; ++nRead)
+    {
+      aHead = aFirstChild.get (m_aIDs.get (aOrder[nRead]));
+      for (int nChild = aHead == null ? -1 : aHead.intValue (); nChild >= 0; nChild = aNextSibling[nChild])
+        aOrder[nWritten++] = nChild;
+    }
+
+    if (nWritten < nCount)
+    {
+      // Find the first unreachable item for the error message
+      final boolean [] aReached = new boolean [nCount];
+      for (int i = 0; i < nWritten; ++i)
+        aReached[aOrder[i]] = true;
+      for (int i = 0; i < nCount; ++i)
+        if (!aReached[i])
+          throw new IllegalStateException ("The item " +
+                                           m_aIDs.get (i) +
+                                           " is not reachable - its parent " +
+                                           m_aParentIDs.get (i) +
+                                           " is missing or part of a cycle");
+    }
+    return aOrder;
+  }
+
+  /**
+   * Invoke the passed handler for all items so that each parent is handled
+   * before its children. Nothing is handled if the items do not form a valid
+   * tree.
+   * 
+   * @param aHandler
+   *        The handler to invoke. May not be <code>null</code>.
+   */
+  void forEachItemParentFirst (@Nonnull final IItemHandler <KEYTYPE, VALUETYPE> aHandler)
+  {
+    for (final int nIndex : _getParentFirstOrder ())
+      aHandler.onItem (m_aParentIDs.get (nIndex), m_aIDs.get (nIndex), m_aDatas.get (nIndex));
+  }
+
+  /**
+   * Create a new tree snapshot containing all added items. The ID index of the
+   * snapshot is sized for all items upfront.
+   * 
+   * @return The new snapshot. Never <code>null</code>.
+   * @throws IllegalStateException
+   *         If the items do not form a valid tree or if an ID is used more than
+   *         once
+   */
+  @Nonnull
+  public TreeSnapshot <KEYTYPE, VALUETYPE> build ()
+  {
+    final TreeSnapshotBuilder <KEYTYPE, VALUETYPE> aBuilder = new TreeSnapshotBuilder <KEYTYPE, VALUETYPE> (m_aIDs.size ());
+    forEachItemParentFirst (new IItemHandler <KEYTYPE, VALUETYPE> ()
+    {
+      public void onItem (@Nullable final KEYTYPE aParentID,
+                          @Nonnull final KEYTYPE aID,
+                          @Nullable final VALUETYPE aData)
+      {
+        aBuilder.addItem (aParentID, aID, aData);
+      }
+    });
+    return aBuilder.build ();
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("itemCount", m_aIDs.size ()).toString ();
+  }
+}
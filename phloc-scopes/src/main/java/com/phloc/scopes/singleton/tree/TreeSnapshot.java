@@ -0,0 +1,310 @@
+/**
+ * Copyright (C) 2006-2014 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.scopes.singleton.tree;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.phloc.commons.annotations.ReturnsImmutableObject;
+import com.phloc.commons.annotations.ReturnsMutableCopy;
+import com.phloc.commons.string.ToStringGenerator;
+
+/**
+ * An immutable version of a tree with globally unique IDs. As a snapshot never
+ * changes, it can be read concurrently without any locking. Use a
+ * {@link TreeSnapshotBuilder} to create a modified version.
+ * 
+ * @author Philip Helger
+ * @param <KEYTYPE>
+ *        The ID type
+ * @param <VALUETYPE>
+ *        The data type
+ */
+@Immutable
+public final class TreeSnapshot <KEYTYPE, VALUETYPE>
+{
+  /**
+   * The pre-order number and the subtree size of all items of a tree.
+   */
+  @Immutable
+  private static final class Numbering <KEYTYPE, VALUETYPE>
+  {
+    private final Map <TreeSnapshotItem <KEYTYPE, VALUETYPE>, Integer> m_aPreOrder;
+    private final int [] m_aSubtreeSizes;
+
+    Numbering (@Nonnull final TreeSnapshotItem <KEYTYPE, VALUETYPE> aRoot, @Nonnegative final int nItemCount)
+    {
+      // Pre-order walk without recursion
+      final List <TreeSnapshotItem <KEYTYPE, VALUETYPE>> aPreOrderList = new ArrayList <TreeSnapshotItem <KEYTYPE, VALUETYPE>> (nItemCount + 1);
+      final Map <TreeSnapshotItem <KEYTYPE, VALUETYPE>, Integer> aPreOrder = new IdentityHashMap <TreeSnapshotItem <KEYTYPE, VALUETYPE>, Integer> (nItemCount + 1);
+      final ArrayDeque <TreeSnapshotItem <KEYTYPE, VALUETYPE>> aStack = new ArrayDeque <TreeSnapshotItem <KEYTYPE, VALUETYPE>> ();
+      aStack.push (aRoot);
+      while (!aStack.isEmpty ())
+      {
+        final TreeSnapshotItem <KEYTYPE, VALUETYPE> aItem = aStack.pop ();
+        aPreOrder.put (aItem, Integer.valueOf (aPreOrderList.size ()));
+        aPreOrderList.add (aItem);
+        final List <TreeSnapshotItem <KEYTYPE, VALUETYPE>> aChildren = aItem.getChildren ();
+        for (int i = aChildren.size () - 1; i >= 0; --i)
+          aStack.push (aChildren.get (i));
+      }
+
+      // Children come after their parents, so sum up the subtree sizes
+      // backwards
+      final int [] aSubtreeSizes = new int [aPreOrderList.size ()];
+      for (int i = aSubtreeSizes.length - 1; i >= 0; --i)
+      {
+        ++aSubtreeSizes[i];
+        if (i > 0)
+          aSubtreeSizes[aPreOrder.get (aPreOrderList.get (i).getParent ()).intValue ()] += aSubtreeSizes[i];
+      }
+      m_aPreOrder = aPreOrder;
+      m_aSubtreeSizes = aSubtreeSizes;
+    }
+
+    boolean isSameOrDescendant (@Nonnull final TreeSnapshotItem <KEYTYPE, VALUETYPE> aParent,
+                                @Nonnull final TreeSnapshotItem <KEYTYPE, VALUETYPE> aChild)
+    {
+      // The child is in the subtree of the parent if its pre-order number is
+      // within the pre-order interval of the parent's subtree
+      final int nParent = m_aPreOrder.get (aParent).intValue ();
+      final int nChild = m_aPreOrder.get (aChild).intValue ();
+      return nChild >= nParent && nChild < nParent + m_aSubtreeSizes[nParent];
+    }
+
+    @Nonnegative
+    int getSubtreeSize (@Nonnull final TreeSnapshotItem <KEYTYPE, VALUETYPE> aItem)
+    {
+      return m_aSubtreeSizes[m_aPreOrder.get (aItem).intValue ()];
+    }
+  }
+
+  /**
+   * Creates the {@link Numbering} once upon first use. It is shared by all
+   * snapshots with the same items.
+   */
+  @ThreadSafe
+  private static final class LazyNumbering <KEYTYPE, VALUETYPE>
+  {
+    private final TreeSnapshotItem <KEYTYPE, VALUETYPE> m_aRoot;
+    private final int m_nItemCount;
+    private volatile Numbering <KEYTYPE, VALUETYPE> m_aNumbering;
+
+    LazyNumbering (@Nonnull final TreeSnapshotItem <KEYTYPE, VALUETYPE> aRoot, @Nonnegative final int nItemCount)
+    {
+      m_aRoot = aRoot;
+      m_nItemCount = nItemCount;
+    }
+
+    @Nonnull
+    Numbering <KEYTYPE, VALUETYPE> get ()
+    {
+      Numbering <KEYTYPE, VALUETYPE> ret = m_aNumbering;
+      if (ret == null)
+        synchronized (this)
+        {
+          ret = m_aNumbering;
+          if (ret == null)
+          {
+            ret = new Numbering <KEYTYPE, VALUETYPE> (m_aRoot, m_nItemCount);
+            m_aNumbering = ret;
+          }
+        }
+      return ret;
+    }
+  }
+
+  private final long m_nVersion;
+  private final TreeSnapshotItem <KEYTYPE, VALUETYPE> m_aRoot;
+  private final Map <KEYTYPE, TreeSnapshotItem <KEYTYPE, VALUETYPE>> m_aItems;
+  private final LazyNumbering <KEYTYPE, VALUETYPE> m_aNumbering;
+
+  TreeSnapshot (@Nonnegative final long nVersion,
+                @Nonnull final TreeSnapshotItem <KEYTYPE, VALUETYPE> aRoot,
+                @Nonnull final Map <KEYTYPE, TreeSnapshotItem <KEYTYPE, VALUETYPE>> aItems)
+  {
+    this (nVersion, aRoot, aItems, new LazyNumbering <KEYTYPE, VALUETYPE> (aRoot, aItems.size ()));
+  }
+
+  private TreeSnapshot (@Nonnegative final long nVersion,
+                        @Nonnull final TreeSnapshotItem <KEYTYPE, VALUETYPE> aRoot,
+                        @Nonnull final Map <KEYTYPE, TreeSnapshotItem <KEYTYPE, VALUETYPE>> aItems,
+                        @Nonnull final LazyNumbering <KEYTYPE, VALUETYPE> aNumbering)
+  {
+    m_nVersion = nVersion;
+    m_aRoot = aRoot;
+    m_aItems = aItems;
+    m_aNumbering = aNumbering;
+  }
+
+  /**
+   * Get a snapshot with the same items but a different version.
+   * 
+   * @param nVersion
+   *        The version to use. Must be &ge; 0.
+   * @return this if the version is unchanged, a new snapshot sharing all items
+   *         and their numbering otherwise. Never <code>null</code>.
+   */
+  @Nonnull
+  TreeSnapshot <KEYTYPE, VALUETYPE> getWithVersion (@Nonnegative final long nVersion)
+  {
+    if (nVersion == m_nVersion)
+      return this;
+    return new TreeSnapshot <KEYTYPE, VALUETYPE> (nVersion, m_aRoot, m_aItems, m_aNumbering);
+  }
+
+  /**
+   * @return The version of this snapshot. Each published modification
+   *         increments the version by one. An empty tree has version 0.
+   */
+  @Nonnegative
+  public long getVersion ()
+  {
+    return m_nVersion;
+  }
+
+  /**
+   * @return The artificial root item without ID and data. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  public TreeSnapshotItem <KEYTYPE, VALUETYPE> getRootItem ()
+  {
+    return m_aRoot;
+  }
+
+  /**
+   * @return The number of items excluding the root item.
+   */
+  @Nonnegative
+  public int getItemCount ()
+  {
+    return m_aItems.size ();
+  }
+
+  @Nullable
+  public TreeSnapshotItem <KEYTYPE, VALUETYPE> getItemWithID (@Nullable final KEYTYPE aID)
+  {
+    return m_aItems.get (aID);
+  }
+
+  public boolean containsItemWithID (@Nullable final KEYTYPE aID)
+  {
+    return m_aItems.containsKey (aID);
+  }
+
+  @Nullable
+  public VALUETYPE getItemDataWithID (@Nullable final KEYTYPE aID)
+  {
+    final TreeSnapshotItem <KEYTYPE, VALUETYPE> aItem = m_aItems.get (aID);
+    return aItem == null ? null : aItem.getData ();
+  }
+
+  /**
+   * Get the children of the item with the passed ID.
+   * 
+   * @param aID
+   *        The ID of the parent item. Use <code>null</code> for the root item.
+   * @return <code>null</code> if no such item exists.
+   */
+  @Nullable
+  @ReturnsImmutableObject
+  public List <TreeSnapshotItem <KEYTYPE, VALUETYPE>> getChildren (@Nullable final KEYTYPE aID)
+  {
+    final TreeSnapshotItem <KEYTYPE, VALUETYPE> aItem = aID == null ? m_aRoot : m_aItems.get (aID);
+    return aItem == null ? null : aItem.getChildren ();
+  }
+
+  @Nonnull
+  @ReturnsImmutableObject
+  public Collection <TreeSnapshotItem <KEYTYPE, VALUETYPE>> getAllItems ()
+  {
+    return Collections.unmodifiableCollection (m_aItems.values ());
+  }
+
+  @Nonnull
+  @ReturnsMutableCopy
+  public List <VALUETYPE> getAllItemDatas ()
+  {
+    final List <VALUETYPE> ret = new ArrayList <VALUETYPE> (m_aItems.size ());
+    for (final TreeSnapshotItem <KEYTYPE, VALUETYPE> aItem : m_aItems.values ())
+      ret.add (aItem.getData ());
+    return ret;
+  }
+
+  /**
+   * Check if the item with the passed child ID is the same as or a descendant
+   * of the item with the passed parent ID. This takes constant time
+   * independent of the tree depth, based on an interval numbering of all
+   * items that is created once for all snapshots sharing the same items.
+   * 
+   * @param aParentID
+   *        The ID of the potential ancestor.
+   * @param aChildID
+   *        The ID of the potential descendant.
+   * @return <code>false</code> if one of the items does not exist.
+   */
+  public boolean isItemSameOrDescendant (@Nullable final KEYTYPE aParentID, @Nullable final KEYTYPE aChildID)
+  {
+    final TreeSnapshotItem <KEYTYPE, VALUETYPE> aParent = m_aItems.get (aParentID);
+    if (aParent == null)
+      return false;
+    final TreeSnapshotItem <KEYTYPE, VALUETYPE> aChild = m_aItems.get (aChildID);
+    if (aChild == null)
+      return false;
+    return m_aNumbering.get ().isSameOrDescendant (aParent, aChild);
+  }
+
+  /**
+   * Get the number of descendants of the item with the passed ID.
+   * 
+   * @param aID
+   *        The ID of the item. Use <code>null</code> for the root item.
+   * @return The number of descendants, excluding the item itself. 0 if no
+   *         such item exists.
+   */
+  @Nonnegative
+  public int getDescendantCount (@Nullable final KEYTYPE aID)
+  {
+    if (aID == null)
+      return m_aItems.size ();
+    final TreeSnapshotItem <KEYTYPE, VALUETYPE> aItem = m_aItems.get (aID);
+    if (aItem == null)
+      return 0;
+    return m_aNumbering.get ().getSubtreeSize (aItem) - 1;
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("version", m_nVersion)
+                                       .append ("itemCount", m_aItems.size ())
+                                       .toString ();
+  }
+}
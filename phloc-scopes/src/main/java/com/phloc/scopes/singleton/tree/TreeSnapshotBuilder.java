@@ -0,0 +1,276 @@
+/**
+ * Copyright (C) 2006-2014 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.scopes.singleton.tree;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+import com.phloc.commons.ValueEnforcer;
+import com.phloc.commons.equals.EqualsUtils;
+import com.phloc.commons.state.EChange;
+
+/**
+ * A mutable builder for {@link TreeSnapshot} objects. All modifications are
+ * collected and become visible only when {@link #build()} is called, so that
+ * several changes can be published as one new version.
+ * 
+ * @author Philip Helger
+ * @param <KEYTYPE>
+ *        The ID type
+ * @param <VALUETYPE>
+ *        The data type
+ */
+@NotThreadSafe
+public final class TreeSnapshotBuilder <KEYTYPE, VALUETYPE>
+{
+  private static final class Node <KEYTYPE, VALUETYPE>
+  {
+    private final KEYTYPE m_aParentID;
+    private VALUETYPE m_aData;
+    private List <KEYTYPE> m_aChildIDs;
+
+    Node (@Nullable final KEYTYPE aParentID, @Nullable final VALUETYPE aData)
+    {
+      m_aParentID = aParentID;
+      m_aData = aData;
+    }
+
+    void addChildID (@Nonnull final KEYTYPE aChildID)
+    {
+      if (m_aChildIDs == null)
+        m_aChildIDs = new ArrayList <KEYTYPE> (2);
+      m_aChildIDs.add (aChildID);
+    }
+  }
+
+  private final long m_nBaseVersion;
+  private final Node <KEYTYPE, VALUETYPE> m_aRoot = new Node <KEYTYPE, VALUETYPE> (null, null);
+  private final Map <KEYTYPE, Node <KEYTYPE, VALUETYPE>> m_aNodes;
+  private boolean m_bChanged = false;
+
+  /**
+   * Create a builder for an empty tree.
+   */
+  public TreeSnapshotBuilder ()
+  {
+    this (16);
+  }
+
+  /**
+   * Create a builder for an empty tree with an ID index that is sized for the
+   * passed number of items.
+   * 
+   * @param nExpectedItemCount
+   *        The expected number of items. Must be &ge; 0.
+   */
+  public TreeSnapshotBuilder (@Nonnegative final int nExpectedItemCount)
+  {
+    ValueEnforcer.isGE0 (nExpectedItemCount, "ExpectedItemCount");
+    m_nBaseVersion = 0;
+    m_aNodes = new HashMap <KEYTYPE, Node <KEYTYPE, VALUETYPE>> (_getCapacity (nExpectedItemCount));
+  }
+
+  /**
+   * Create a builder that starts with the content of the passed snapshot.
+   * 
+   * @param aSnapshot
+   *        The snapshot to start with. May not be <code>null</code>.
+   */
+  public TreeSnapshotBuilder (@Nonnull final TreeSnapshot <KEYTYPE, VALUETYPE> aSnapshot)
+  {
+    ValueEnforcer.notNull (aSnapshot, "Snapshot");
+    m_nBaseVersion = aSnapshot.getVersion ();
+    m_aNodes = new HashMap <KEYTYPE, Node <KEYTYPE, VALUETYPE>> (_getCapacity (aSnapshot.getItemCount ()));
+
+    // Copy parents before their children
+    final LinkedList <TreeSnapshotItem <KEYTYPE, VALUETYPE>> aQueue = new LinkedList <TreeSnapshotItem <KEYTYPE, VALUETYPE>> (aSnapshot.getRootItem ()
+                                                                                                                                          .getChildren ());
+    while (!aQueue.isEmpty ())
+    {
+      final TreeSnapshotItem <KEYTYPE, VALUETYPE> aItem = aQueue.removeFirst ();
+      final KEYTYPE aParentID = aItem.getParent ().getID ();
+      m_aNodes.put (aItem.getID (), new Node <KEYTYPE, VALUETYPE> (aParentID, aItem.getData ()));
+      _getNode (aParentID).addChildID (aItem.getID ());
+      aQueue.addAll (aItem.getChildren ());
+    }
+  }
+
+  private static int _getCapacity (final int nItemCount)
+  {
+    return Math.max (16, (int) (nItemCount / 0.75f) + 1);
+  }
+
+  @Nullable
+  private Node <KEYTYPE, VALUETYPE> _getNode (@Nullable final KEYTYPE aID)
+  {
+    return aID == null ? m_aRoot : m_aNodes.get (aID);
+  }
+
+  /**
+   * @return <code>true</code> if this builder was modified since it was
+   *         created.
+   */
+  public boolean isChanged ()
+  {
+    return m_bChanged;
+  }
+
+  /**
+   * @return The number of items excluding the root item.
+   */
+  @Nonnegative
+  public int getItemCount ()
+  {
+    return m_aNodes.size ();
+  }
+
+  public boolean containsItemWithID (@Nullable final KEYTYPE aID)
+  {
+    return m_aNodes.containsKey (aID);
+  }
+
+  @Nullable
+  public VALUETYPE getItemDataWithID (@Nullable final KEYTYPE aID)
+  {
+    final Node <KEYTYPE, VALUETYPE> aNode = m_aNodes.get (aID);
+    return aNode == null ? null : aNode.m_aData;
+  }
+
+  /**
+   * Add a new item.
+   * 
+   * @param aParentID
+   *        The ID of the parent item. Use <code>null</code> to add the item
+   *        below the root item. Otherwise the parent must already exist.
+   * @param aID
+   *        The ID of the new item. May not be <code>null</code> and must be
+   *        unique within the whole tree.
+   * @param aData
+   *        The data of the new item. May be <code>null</code>.
+   * @return this
+   * @throws IllegalArgumentException
+   *         If the parent does not exist or if the ID is already used
+   */
+  @Nonnull
+  public TreeSnapshotBuilder <KEYTYPE, VALUETYPE> addItem (@Nullable final KEYTYPE aParentID,
+                                                           @Nonnull final KEYTYPE aID,
+                                                           @Nullable final VALUETYPE aData)
+  {
+    ValueEnforcer.notNull (aID, "ID");
+    final Node <KEYTYPE, VALUETYPE> aParent = _getNode (aParentID);
+    if (aParent == null)
+      throw new IllegalArgumentException ("No such parent item " + aParentID);
+    if (m_aNodes.containsKey (aID))
+      throw new IllegalArgumentException ("An item with ID " + aID + " is already contained");
+
+    m_aNodes.put (aID, new Node <KEYTYPE, VALUETYPE> (aParentID, aData));
+    aParent.addChildID (aID);
+    m_bChanged = true;
+    return this;
+  }
+
+  /**
+   * Change the data of an existing item.
+   * 
+   * @param aID
+   *        The ID of the item to change.
+   * @param aData
+   *        The new data. May be <code>null</code>.
+   * @return {@link EChange#UNCHANGED} if no such item exists or if the data is
+   *         equal.
+   */
+  @Nonnull
+  public EChange setItemData (@Nullable final KEYTYPE aID, @Nullable final VALUETYPE aData)
+  {
+    final Node <KEYTYPE, VALUETYPE> aNode = m_aNodes.get (aID);
+    if (aNode == null || EqualsUtils.equals (aNode.m_aData, aData))
+      return EChange.UNCHANGED;
+    aNode.m_aData = aData;
+    m_bChanged = true;
+    return EChange.CHANGED;
+  }
+
+  /**
+   * Remove the item with the passed ID including all its descendants.
+   * 
+   * @param aID
+   *        The ID of the item to remove.
+   * @return {@link EChange}
+   */
+  @Nonnull
+  public EChange removeItemWithID (@Nullable final KEYTYPE aID)
+  {
+    final Node <KEYTYPE, VALUETYPE> aNode = m_aNodes.get (aID);
+    if (aNode == null)
+      return EChange.UNCHANGED;
+
+    _getNode (aNode.m_aParentID).m_aChildIDs.remove (aID);
+    final LinkedList <KEYTYPE> aQueue = new LinkedList <KEYTYPE> ();
+    aQueue.add (aID);
+    while (!aQueue.isEmpty ())
+    {
+      final Node <KEYTYPE, VALUETYPE> aRemoved = m_aNodes.remove (aQueue.removeFirst ());
+      if (aRemoved.m_aChildIDs != null)
+        aQueue.addAll (aRemoved.m_aChildIDs);
+    }
+    m_bChanged = true;
+    return EChange.CHANGED;
+  }
+
+  /**
+   * Create an immutable snapshot of the current state. The builder can be used
+   * further afterwards.
+   * 
+   * @return The new snapshot and never <code>null</code>. Its version is the
+   *         version of the base snapshot plus one, if this builder was
+   *         modified.
+   */
+  @Nonnull
+  public TreeSnapshot <KEYTYPE, VALUETYPE> build ()
+  {
+    final TreeSnapshotItem <KEYTYPE, VALUETYPE> aRoot = new TreeSnapshotItem <KEYTYPE, VALUETYPE> (null, null, null);
+    final Map <KEYTYPE, TreeSnapshotItem <KEYTYPE, VALUETYPE>> aItems = new HashMap <KEYTYPE, TreeSnapshotItem <KEYTYPE, VALUETYPE>> (_getCapacity (m_aNodes.size ()));
+
+    // Create parents before their children - no recursion for deep trees
+    final LinkedList <TreeSnapshotItem <KEYTYPE, VALUETYPE>> aQueue = new LinkedList <TreeSnapshotItem <KEYTYPE, VALUETYPE>> ();
+    aQueue.add (aRoot);
+    while (!aQueue.isEmpty ())
+    {
+      final TreeSnapshotItem <KEYTYPE, VALUETYPE> aParent = aQueue.removeFirst ();
+      final Node <KEYTYPE, VALUETYPE> aParentNode = _getNode (aParent.getID ());
+      if (aParentNode.m_aChildIDs != null)
+        for (final KEYTYPE aChildID : aParentNode.m_aChildIDs)
+        {
+          final TreeSnapshotItem <KEYTYPE, VALUETYPE> aChild = new TreeSnapshotItem <KEYTYPE, VALUETYPE> (aParent,
+                                                                                                          aChildID,
+                                                                                                          m_aNodes.get (aChildID).m_aData);
+          aItems.put (aChildID, aChild);
+          aQueue.add (aChild);
+        }
+    }
+    return new TreeSnapshot <KEYTYPE, VALUETYPE> (m_bChanged ? m_nBaseVersion + 1 : m_nBaseVersion, aRoot, aItems);
+  }
+}
@@ -0,0 +1,305 @@
+/**
+ * Copyright (C) 2006-2014 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.scopes.singleton.tree;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.phloc.commons.ValueEnforcer;
+import com.phloc.commons.annotations.PresentForCodeCoverage;
+import com.phloc.commons.io.streams.StreamUtils;
+import com.phloc.commons.state.ESuccess;
+
+/**
+ * Writes {@link TreeSnapshot} objects to a compact binary file and reads them
+ * back via memory mapping. This allows to restore large trees quickly upon
+ * startup and to refresh them from the original source afterwards.<br>
+ * The file consists of a header followed by all items, with each parent
+ * before its children. Each item references its parent by its position in the
+ * file, so that parent IDs are not stored.
+ * 
+ * @author Philip Helger
+ */
+@Immutable
+public final class TreeSnapshotFile
+{
+  /** The first 4 bytes of each file */
+  public static final int MAGIC = 0x50545346;
+  /** The current file format version */
+  public static final int FORMAT_VERSION = 1;
+
+  /** Magic, format version, snapshot version and item count */
+  private static final int HEADER_SIZE = 4 + 4 + 8 + 4;
+  /** Each item has at least a parent position and a data flag */
+  private static final int MIN_ITEM_SIZE = 4 + 1;
+
+  private static final Logger s_aLogger = LoggerFactory.getLogger (TreeSnapshotFile.class);
+
+  /**
+   * An input stream reading from a byte buffer.
+   */
+  private static final class ByteBufferInput extends InputStream
+  {
+    private final ByteBuffer m_aBuffer;
+
+    ByteBufferInput (@Nonnull final ByteBuffer aBuffer)
+    {
+      m_aBuffer = aBuffer;
+    }
+
+    @Override
+    public int read ()
+    {
+      return m_aBuffer.hasRemaining () ? m_aBuffer.get () & 0xff : -1;
+    }
+
+    @Override
+    public int read (final byte [] aBuf, final int nOfs, final int nLen)
+    {
+      if (nLen == 0)
+        return 0;
+      if (!m_aBuffer.hasRemaining ())
+        return -1;
+      final int nRead = Math.min (nLen, m_aBuffer.remaining ());
+      m_aBuffer.get (aBuf, nOfs, nRead);
+      return nRead;
+    }
+
+    @Override
+    public int available ()
+    {
+      return m_aBuffer.remaining ();
+    }
+  }
+
+  @PresentForCodeCoverage
+  @SuppressWarnings ("unused")
+  private static final TreeSnapshotFile s_aInstance = new TreeSnapshotFile ();
+
+  private TreeSnapshotFile ()
+  {}
+
+  /**
+   * Write the passed snapshot to the passed file. The file is first written
+   * to a uniquely named temporary file next to the target file which is then
+   * renamed over the target file, so that concurrent writers never share a
+   * temporary file. On POSIX systems this replaces
+   * an existing file atomically. Only if this rename fails (e.g. on Windows)
+   * the existing file is deleted before renaming again. If the temporary file
+   * cannot be renamed at all, it is kept so that the written snapshot is not
+   * lost.
+   * 
+   * @param aSnapshot
+   *        The snapshot to write. May not be <code>null</code>.
+   * @param aFile
+   *        The target file. May not be <code>null</code>.
+   * @param aCodec
+   *        The codec for IDs and data. May not be <code>null</code>.
+   * @return {@link ESuccess}
+   */
+  @Nonnull
+  public static <KEYTYPE, VALUETYPE> ESuccess writeSnapshot (@Nonnull final TreeSnapshot <KEYTYPE, VALUETYPE> aSnapshot,
+                                                             @Nonnull final File aFile,
+                                                             @Nonnull final ITreeSnapshotCodec <KEYTYPE, VALUETYPE> aCodec)
+  {
+    ValueEnforcer.notNull (aSnapshot, "Snapshot");
+    ValueEnforcer.notNull (aFile, "File");
+    ValueEnforcer.notNull (aCodec, "Codec");
+
+    File aTempFile = null;
+    DataOutputStream aDOS = null;
+    boolean bWritten = false;
+    try
+    {
+      aTempFile = File.createTempFile (aFile.getName () + ".tmp.", "", aFile.getAbsoluteFile ().getParentFile ());
+      aDOS = new DataOutputStream (new BufferedOutputStream (new FileOutputStream (aTempFile), 64 * 1024));
+      aDOS.writeInt (MAGIC);
+      aDOS.writeInt (FORMAT_VERSION);
+      aDOS.writeLong (aSnapshot.getVersion ());
+      aDOS.writeInt (aSnapshot.getItemCount ());
+
+      // Breadth first, so that each parent precedes its children
+      final Map <TreeSnapshotItem <KEYTYPE, VALUETYPE>, Integer> aPositions = new HashMap <TreeSnapshotItem <KEYTYPE, VALUETYPE>, Integer> (Math.max (16,
+                                                                                                                                                  (int) (aSnapshot.getItemCount () / 0.75f) + 1));
+      final LinkedList <TreeSnapshotItem <KEYTYPE, VALUETYPE>> aQueue = new LinkedList <TreeSnapshotItem <KEYTYPE, VALUETYPE>> (aSnapshot.getRootItem ()
+                                                                                                                                          .getChildren ());
+      int nPosition = 0;
+      while (!aQueue.isEmpty ())
+      {
+        final TreeSnapshotItem <KEYTYPE, VALUETYPE> aItem = aQueue.removeFirst ();
+        final Integer aParentPosition = aPositions.get (aItem.getParent ());
+        aDOS.writeInt (aParentPosition == null ? -1 : aParentPosition.intValue ());
+        aCodec.writeID (aDOS, aItem.getID ());
+        final VALUETYPE aData = aItem.getData ();
+        aDOS.writeBoolean (aData != null);
+        if (aData != null)
+          aCodec.writeData (aDOS, aData);
+        if (aItem.hasChildren ())
+        {
+          aPositions.put (aItem, Integer.valueOf (nPosition));
+          aQueue.addAll (aItem.getChildren ());
+        }
+        ++nPosition;
+      }
+      aDOS.close ();
+      aDOS = null;
+      bWritten = true;
+
+      // Replace the target file - atomically on POSIX systems
+      if (aTempFile.renameTo (aFile))
+        return ESuccess.SUCCESS;
+
+      // Fallback for platforms that cannot rename over an existing file
+      if (aFile.exists () && !aFile.delete ())
+      {
+        s_aLogger.error ("Failed to delete the old tree snapshot file " + aFile + " - keeping " + aTempFile);
+        return ESuccess.FAILURE;
+      }
+      if (!aTempFile.renameTo (aFile))
+      {
+        s_aLogger.error ("Failed to rename " + aTempFile + " to " + aFile + " - keeping " + aTempFile);
+        return ESuccess.FAILURE;
+      }
+      return ESuccess.SUCCESS;
+    }
+    catch (final IOException ex)
+    {
+      s_aLogger.error ("Failed to write tree snapshot to " + aFile, ex);
+      return ESuccess.FAILURE;
+    }
+    finally
+    {
+      StreamUtils.close (aDOS);
+      // Only remove incompletely written temporary files
+      if (!bWritten && aTempFile != null && aTempFile.exists () && !aTempFile.delete ())
+        s_aLogger.warn ("Failed to delete temporary file " + aTempFile);
+    }
+  }
+
+  /**
+   * Read a snapshot previously written with
+   * {@link #writeSnapshot(TreeSnapshot, File, ITreeSnapshotCodec)}. The file is
+   * memory mapped, so that no intermediate copy of the file content is
+   * created.
+   * 
+   * @param aFile
+   *        The file to read. May not be <code>null</code>.
+   * @param aCodec
+   *        The codec for IDs and data. May not be <code>null</code>.
+   * @return <code>null</code> if the file does not exist or could not be read.
+   */
+  @Nullable
+  public static <KEYTYPE, VALUETYPE> TreeSnapshot <KEYTYPE, VALUETYPE> readSnapshot (@Nonnull final File aFile,
+                                                                                     @Nonnull final ITreeSnapshotCodec <KEYTYPE, VALUETYPE> aCodec)
+  {
+    ValueEnforcer.notNull (aFile, "File");
+    ValueEnforcer.notNull (aCodec, "Codec");
+
+    if (!aFile.isFile ())
+      return null;
+
+    RandomAccessFile aRAF = null;
+    try
+    {
+      aRAF = new RandomAccessFile (aFile, "r");
+      final FileChannel aChannel = aRAF.getChannel ();
+      final long nFileSize = aChannel.size ();
+      final ByteBuffer aBuffer = aChannel.map (FileChannel.MapMode.READ_ONLY, 0, nFileSize);
+      // The mapping stays valid after the file is closed
+      aRAF.close ();
+      aRAF = null;
+
+      final DataInputStream aDIS = new DataInputStream (new ByteBufferInput (aBuffer));
+      if (aDIS.readInt () != MAGIC)
+      {
+        s_aLogger.error ("The file " + aFile + " is not a tree snapshot file");
+        return null;
+      }
+      final int nFormatVersion = aDIS.readInt ();
+      if (nFormatVersion != FORMAT_VERSION)
+      {
+        s_aLogger.error ("The tree snapshot file " + aFile + " has the unsupported format version " + nFormatVersion);
+        return null;
+      }
+      final long nVersion = aDIS.readLong ();
+      final int nItemCount = aDIS.readInt ();
+      // Don't trust the item count before allocating anything for it
+      if (nVersion < 0 || nItemCount < 0 || nItemCount > (nFileSize - HEADER_SIZE) / MIN_ITEM_SIZE)
+      {
+        s_aLogger.error ("The tree snapshot file " + aFile + " is corrupt");
+        return null;
+      }
+
+      final TreeSnapshotItem <KEYTYPE, VALUETYPE> aRoot = new TreeSnapshotItem <KEYTYPE, VALUETYPE> (null, null, null);
+      final Map <KEYTYPE, TreeSnapshotItem <KEYTYPE, VALUETYPE>> aItems = new HashMap <KEYTYPE, TreeSnapshotItem <KEYTYPE, VALUETYPE>> (Math.max (16,
+                                                                                                                                                 (int) (nItemCount / 0.75f) + 1));
+      final List <TreeSnapshotItem <KEYTYPE, VALUETYPE>> aByPosition = new ArrayList <TreeSnapshotItem <KEYTYPE, VALUETYPE>> (nItemCount);
+      for (int i = 0; i < nItemCount; ++i)
+      {
+        final int nParentPosition = aDIS.readInt ();
+        if (nParentPosition < -1 || nParentPosition >= i)
+        {
+          s_aLogger.error ("The tree snapshot file " + aFile + " contains an invalid parent reference");
+          return null;
+        }
+        final KEYTYPE aID = aCodec.readID (aDIS);
+        final VALUETYPE aData = aDIS.readBoolean () ? aCodec.readData (aDIS) : null;
+        final TreeSnapshotItem <KEYTYPE, VALUETYPE> aItem = new TreeSnapshotItem <KEYTYPE, VALUETYPE> (nParentPosition < 0 ? aRoot
+                                                                                                                           : aByPosition.get (nParentPosition),
+                                                                                                       aID,
+                                                                                                       aData);
+        if (aItems.put (aID, aItem) != null)
+        {
+          s_aLogger.error ("The tree snapshot file " + aFile + " contains the ID " + aID + " more than once");
+          return null;
+        }
+        aByPosition.add (aItem);
+      }
+      return new TreeSnapshot <KEYTYPE, VALUETYPE> (nVersion, aRoot, aItems);
+    }
+    catch (final IOException ex)
+    {
+      s_aLogger.error ("Failed to read tree snapshot from " + aFile, ex);
+      return null;
+    }
+    finally
+    {
+      StreamUtils.close (aRAF);
+    }
+  }
+}
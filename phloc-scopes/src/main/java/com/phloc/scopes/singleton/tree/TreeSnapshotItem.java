@@ -0,0 +1,138 @@
+/**
+ * Copyright (C) 2006-2014 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.scopes.singleton.tree;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+import com.phloc.commons.annotations.ReturnsImmutableObject;
+import com.phloc.commons.string.ToStringGenerator;
+
+/**
+ * A single item of a {@link TreeSnapshot}. Items are immutable once the
+ * snapshot is built.
+ * 
+ * @author Philip Helger
+ * @param <KEYTYPE>
+ *        The ID type
+ * @param <VALUETYPE>
+ *        The data type
+ */
+@Immutable
+public final class TreeSnapshotItem <KEYTYPE, VALUETYPE>
+{
+  private final TreeSnapshotItem <KEYTYPE, VALUETYPE> m_aParent;
+  private final KEYTYPE m_aID;
+  private final VALUETYPE m_aData;
+  private final int m_nLevel;
+  // Only filled while the snapshot is built
+  private final List <TreeSnapshotItem <KEYTYPE, VALUETYPE>> m_aChildren = new ArrayList <TreeSnapshotItem <KEYTYPE, VALUETYPE>> (0);
+
+  TreeSnapshotItem (@Nullable final TreeSnapshotItem <KEYTYPE, VALUETYPE> aParent,
+                    @Nullable final KEYTYPE aID,
+                    @Nullable final VALUETYPE aData)
+  {
+    m_aParent = aParent;
+    m_aID = aID;
+    m_aData = aData;
+    m_nLevel = aParent == null ? 0 : aParent.m_nLevel + 1;
+    if (aParent != null)
+      aParent.m_aChildren.add (this);
+  }
+
+  /**
+   * @return <code>true</code> if this is the root item
+   */
+  public boolean isRootItem ()
+  {
+    return m_aParent == null;
+  }
+
+  /**
+   * @return The parent item. Only <code>null</code> for the root item.
+   */
+  @Nullable
+  public TreeSnapshotItem <KEYTYPE, VALUETYPE> getParent ()
+  {
+    return m_aParent;
+  }
+
+  /**
+   * @return The ID of this item. Only <code>null</code> for the root item.
+   */
+  @Nullable
+  public KEYTYPE getID ()
+  {
+    return m_aID;
+  }
+
+  /**
+   * @return The data of this item. May be <code>null</code>.
+   */
+  @Nullable
+  public VALUETYPE getData ()
+  {
+    return m_aData;
+  }
+
+  /**
+   * @return The level of this item. The root item has level 0.
+   */
+  @Nonnegative
+  public int getLevel ()
+  {
+    return m_nLevel;
+  }
+
+  public boolean hasChildren ()
+  {
+    return !m_aChildren.isEmpty ();
+  }
+
+  @Nonnegative
+  public int getChildCount ()
+  {
+    return m_aChildren.size ();
+  }
+
+  /**
+   * @return All child items in insertion order. Never <code>null</code>.
+   */
+  @Nonnull
+  @ReturnsImmutableObject
+  public List <TreeSnapshotItem <KEYTYPE, VALUETYPE>> getChildren ()
+  {
+    return Collections.unmodifiableList (m_aChildren);
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("ID", m_aID)
+                                       .append ("data", m_aData)
+                                       .append ("level", m_nLevel)
+                                       .append ("childCount", m_aChildren.size ())
+                                       .toString ();
+  }
+}
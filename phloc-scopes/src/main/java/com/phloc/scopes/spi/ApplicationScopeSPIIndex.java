@@ -0,0 +1,146 @@
+/**
+ * Copyright (C) 2006-2014 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.scopes.spi;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+import com.phloc.commons.ValueEnforcer;
+import com.phloc.commons.lang.ServiceLoaderUtils;
+import com.phloc.commons.string.ToStringGenerator;
+
+/**
+ * Pre-built dispatch index for application related SPI implementations. For
+ * each application ID declared by an {@link IApplicationFilteredScopeSPI} the
+ * list of SPI implementations to invoke is determined once, so that the
+ * dispatching itself is only a single map lookup.
+ * 
+ * @author Philip Helger
+ * @param <SPITYPE>
+ *        The SPI interface type
+ */
+@Immutable
+final class ApplicationScopeSPIIndex <SPITYPE>
+{
+  /** All SPI implementations in the original order */
+  private final List <SPITYPE> m_aAllSPIs;
+  /** SPI implementations that want to be invoked for all applications */
+  private final List <SPITYPE> m_aUnfilteredSPIs;
+  /** The SPI implementations per declared application ID */
+  private final Map <String, List <SPITYPE>> m_aSPIsPerApplication;
+
+  @Nullable
+  private static Set <String> _getHandledApplicationIDs (@Nonnull final Object aSPI)
+  {
+    if (aSPI instanceof IApplicationFilteredScopeSPI)
+    {
+      final Set <String> aAppIDs = ((IApplicationFilteredScopeSPI) aSPI).getAllHandledApplicationIDs ();
+      if (aAppIDs != null && !aAppIDs.isEmpty ())
+        return aAppIDs;
+    }
+    // No filter
+    return null;
+  }
+
+  ApplicationScopeSPIIndex (@Nonnull final List <SPITYPE> aSPIs)
+  {
+    ValueEnforcer.notNull (aSPIs, "SPIs");
+
+    // Determine the filter of all SPIs only once
+    final List <Set <String>> aFilters = new ArrayList <Set <String>> (aSPIs.size ());
+    final Set <String> aAllAppIDs = new HashSet <String> ();
+    final List <SPITYPE> aUnfilteredSPIs = new ArrayList <SPITYPE> ();
+    for (final SPITYPE aSPI : aSPIs)
+    {
+      final Set <String> aAppIDs = _getHandledApplicationIDs (aSPI);
+      aFilters.add (aAppIDs);
+      if (aAppIDs == null)
+        aUnfilteredSPIs.add (aSPI);
+      else
+        aAllAppIDs.addAll (aAppIDs);
+    }
+
+    // Build the list per application ID, maintaining the original SPI order
+    final Map <String, List <SPITYPE>> aSPIsPerApplication = new HashMap <String, List <SPITYPE>> ();
+    for (final String sAppID : aAllAppIDs)
+    {
+      final List <SPITYPE> aAppSPIs = new ArrayList <SPITYPE> ();
+      for (int i = 0; i < aSPIs.size (); ++i)
+      {
+        final Set <String> aAppIDs = aFilters.get (i);
+        if (aAppIDs == null || aAppIDs.contains (sAppID))
+          aAppSPIs.add (aSPIs.get (i));
+      }
+      aSPIsPerApplication.put (sAppID, Collections.unmodifiableList (aAppSPIs));
+    }
+
+    m_aAllSPIs = Collections.unmodifiableList (new ArrayList <SPITYPE> (aSPIs));
+    m_aUnfilteredSPIs = Collections.unmodifiableList (aUnfilteredSPIs);
+    m_aSPIsPerApplication = aSPIsPerApplication;
+  }
+
+  /**
+   * Get all SPI implementations to be invoked for the passed application.
+   * 
+   * @param sApplicationID
+   *        The application ID to use. May be <code>null</code> if the
+   *        application is unknown, in which case all SPI implementations are
+   *        returned.
+   * @return Never <code>null</code>.
+   */
+  @Nonnull
+  List <SPITYPE> getAllSPIsForApplication (@Nullable final String sApplicationID)
+  {
+    if (sApplicationID == null)
+      return m_aAllSPIs;
+    final List <SPITYPE> ret = m_aSPIsPerApplication.get (sApplicationID);
+    return ret != null ? ret : m_aUnfilteredSPIs;
+  }
+
+  /**
+   * Create a new index for all registered implementations of the passed SPI
+   * interface.
+   * 
+   * @param aSPIClass
+   *        The SPI interface to resolve. May not be <code>null</code>.
+   * @return Never <code>null</code>.
+   */
+  @Nonnull
+  static <T> ApplicationScopeSPIIndex <T> createForSPIInterface (@Nonnull final Class <T> aSPIClass)
+  {
+    return new ApplicationScopeSPIIndex <T> (ServiceLoaderUtils.getAllSPIImplementations (aSPIClass));
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("allSPIs", m_aAllSPIs)
+                                       .append ("unfilteredSPIs", m_aUnfilteredSPIs)
+                                       .append ("SPIsPerApplication", m_aSPIsPerApplication)
+                                       .toString ();
+  }
+}
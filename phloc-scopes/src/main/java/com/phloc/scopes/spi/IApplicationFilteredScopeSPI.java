@@ -0,0 +1,42 @@
+/**
+ * Copyright (C) 2006-2014 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.scopes.spi;
+
+import java.util.Set;
+
+import javax.annotation.Nullable;
+
+/**
+ * Optional interface for {@link IApplicationScopeSPI} and
+ * {@link ISessionApplicationScopeSPI} implementations that are only interested
+ * in the scopes of certain applications. The {@link ScopeSPIManager} evaluates
+ * this interface only once when building its dispatch index, so SPI
+ * implementations are never invoked for applications they did not declare.
+ * 
+ * @author Philip Helger
+ */
+public interface IApplicationFilteredScopeSPI
+{
+  /**
+   * @return The IDs of all applications this SPI implementation should be
+   *         invoked for. If <code>null</code> or empty, the implementation is
+   *         invoked for all applications. This method is called only once.
+   */
+  @Nullable
+  Set <String> getAllHandledApplicationIDs ();
+}
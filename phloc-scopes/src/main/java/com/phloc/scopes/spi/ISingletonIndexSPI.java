@@ -0,0 +1,67 @@
+/**
+ * Copyright (C) 2006-2014 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.scopes.spi;
+
+import java.util.List;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.phloc.commons.annotations.IsSPIInterface;
+import com.phloc.scopes.AbstractSingleton;
+
+/**
+ * SPI for a build-time index of singleton classes. Implementations are usually
+ * generated by the {@link com.phloc.scopes.processor.SingletonIndexProcessor}
+ * and allow the instantiation of singletons without reflection.
+ * 
+ * @author Philip Helger
+ */
+@IsSPIInterface
+public interface ISingletonIndexSPI
+{
+  /**
+   * @return All singleton classes contained in this index. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  List <Class <? extends AbstractSingleton>> getAllSingletonClasses ();
+
+  /**
+   * Get the precomputed scope key of the passed singleton class.
+   * 
+   * @param aClass
+   *        The singleton class. Never <code>null</code>.
+   * @return <code>null</code> if the passed class is not contained in this
+   *         index.
+   */
+  @Nullable
+  String getSingletonScopeKey (@Nonnull Class <? extends AbstractSingleton> aClass);
+
+  /**
+   * Create a new instance of the passed singleton class by directly invoking
+   * its no-argument constructor.
+   * 
+   * @param aClass
+   *        The singleton class. Never <code>null</code>.
+   * @return <code>null</code> if the passed class is not contained in this
+   *         index.
+   */
+  @Nullable
+  <T extends AbstractSingleton> T createSingleton (@Nonnull Class <T> aClass);
+}
@@ -0,0 +1,70 @@
+/**
+ * Copyright (C) 2006-2014 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.scopes.spi;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+
+import com.phloc.commons.annotations.IsSPIInterface;
+import com.phloc.scopes.AbstractSingleton;
+import com.phloc.scopes.IScope;
+
+/**
+ * SPI for observing the instantiation of singletons. Can e.g. be used to
+ * record the instantiation durations in a monitoring system, to correlate
+ * latency spikes with singleton activity. The time measurement is only
+ * performed if at least one implementation of this SPI is registered.
+ * 
+ * @author Philip Helger
+ */
+@IsSPIInterface
+public interface ISingletonLifeCycleSPI
+{
+  /**
+   * Called after a singleton was instantiated and initialized. Is invoked in
+   * the thread that created the singleton.
+   * 
+   * @param aScope
+   *        The scope in which the singleton was created. Never
+   *        <code>null</code>.
+   * @param aClass
+   *        The class of the created singleton. Never <code>null</code>.
+   * @param nDurationNanos
+   *        The duration in nano seconds it took to create and initialize the
+   *        singleton, including the call to <code>onAfterInstantiation</code>.
+   */
+  void onSingletonInstantiated (@Nonnull IScope aScope,
+                                @Nonnull Class <? extends AbstractSingleton> aClass,
+                                @Nonnegative long nDurationNanos);
+
+  /**
+   * Called after a thread was waiting for the instantiation of a singleton by
+   * another thread.
+   * 
+   * @param aScope
+   *        The scope in which the singleton was created. Never
+   *        <code>null</code>.
+   * @param aClass
+   *        The class of the created singleton. Never <code>null</code>.
+   * @param nWaitNanos
+   *        The duration in nano seconds the current thread was waiting.
+   */
+  void onSingletonInstantiationWait (@Nonnull IScope aScope,
+                                     @Nonnull Class <? extends AbstractSingleton> aClass,
+                                     @Nonnegative long nWaitNanos);
+}
@@ -0,0 +1,54 @@
+/**
+ * Copyright (C) 2006-2014 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.scopes.spi;
+
+import java.util.Collection;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+import com.phloc.commons.annotations.IsSPIInterface;
+import com.phloc.scopes.singleton.ApplicationSingleton;
+import com.phloc.scopes.singleton.GlobalSingleton;
+import com.phloc.scopes.singleton.SingletonWarmUp;
+
+/**
+ * SPI for declaring the singletons that should be instantiated eagerly right
+ * after the global scope was started. The implementations are queried each
+ * time a global scope is started.
+ * 
+ * @author Philip Helger
+ * @see SingletonWarmUp
+ */
+@IsSPIInterface
+public interface ISingletonWarmUpSPI
+{
+  /**
+   * @return All global singleton classes to be instantiated. May be
+   *         <code>null</code>.
+   */
+  @Nullable
+  Collection <Class <? extends GlobalSingleton>> getAllWarmUpGlobalSingletons ();
+
+  /**
+   * @return All application singleton classes to be instantiated, mapped from
+   *         the application ID. May be <code>null</code>.
+   */
+  @Nullable
+  Map <String, ? extends Collection <Class <? extends ApplicationSingleton>>> getAllWarmUpApplicationSingletons ();
+}
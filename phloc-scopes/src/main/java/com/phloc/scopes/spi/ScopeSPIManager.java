@@ -19,7 +19,9 @@ package com.phloc.scopes.spi;
 
 import java.util.List;
 
+import javax.annotation.Nonnegative;
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.Immutable;
 
 import org.slf4j.Logger;
@@ -28,11 +30,15 @@ import org.slf4j.LoggerFactory;
 import com.phloc.commons.annotations.PresentForCodeCoverage;
 import com.phloc.commons.lang.ServiceLoaderUtils;
 import com.phloc.commons.mock.IMockException;
+import com.phloc.scopes.AbstractSingleton;
+import com.phloc.scopes.IScope;
 import com.phloc.scopes.domain.IApplicationScope;
 import com.phloc.scopes.domain.IGlobalScope;
 import com.phloc.scopes.domain.IRequestScope;
 import com.phloc.scopes.domain.ISessionApplicationScope;
 import com.phloc.scopes.domain.ISessionScope;
+import com.phloc.scopes.mgr.EScope;
+import com.phloc.scopes.stats.ScopeLifeCycleMetrics;
 
 /**
  * This is an internal class, that triggers the SPI implementations registered
@@ -48,19 +54,23 @@ public final class ScopeSPIManager
 
   // non-web scopes
   private static final List <IGlobalScopeSPI> s_aGlobalSPIs;
-  private static final List <IApplicationScopeSPI> s_aApplicationSPIs;
+  private static final ApplicationScopeSPIIndex <IApplicationScopeSPI> s_aApplicationSPIs;
   private static final List <ISessionScopeSPI> s_aSessionSPIs;
-  private static final List <ISessionApplicationScopeSPI> s_aSessionApplicationSPIs;
+  private static final ApplicationScopeSPIIndex <ISessionApplicationScopeSPI> s_aSessionApplicationSPIs;
   private static final List <IRequestScopeSPI> s_aRequestSPIs;
 
+  // singletons
+  private static final List <ISingletonLifeCycleSPI> s_aSingletonSPIs;
+
   static
   {
     // Register all listeners
     s_aGlobalSPIs = ServiceLoaderUtils.getAllSPIImplementations (IGlobalScopeSPI.class);
-    s_aApplicationSPIs = ServiceLoaderUtils.getAllSPIImplementations (IApplicationScopeSPI.class);
+    s_aApplicationSPIs = ApplicationScopeSPIIndex.createForSPIInterface (IApplicationScopeSPI.class);
     s_aSessionSPIs = ServiceLoaderUtils.getAllSPIImplementations (ISessionScopeSPI.class);
-    s_aSessionApplicationSPIs = ServiceLoaderUtils.getAllSPIImplementations (ISessionApplicationScopeSPI.class);
+    s_aSessionApplicationSPIs = ApplicationScopeSPIIndex.createForSPIInterface (ISessionApplicationScopeSPI.class);
     s_aRequestSPIs = ServiceLoaderUtils.getAllSPIImplementations (IRequestScopeSPI.class);
+    s_aSingletonSPIs = ServiceLoaderUtils.getAllSPIImplementations (ISingletonLifeCycleSPI.class);
   }
 
   @SuppressWarnings ("unused")
@@ -79,9 +89,11 @@ public final class ScopeSPIManager
       }
       catch (final Throwable t)
       {
+        ScopeLifeCycleMetrics.onSPIFailure ();
         s_aLogger.error ("Failed to invoke SPI method onGlobalScopeBegin on " + aSPI + " with scope " + aGlobalScope,
                          t instanceof IMockException ? null : t);
       }
+    ScopeLifeCycleMetrics.onScopeCreated (EScope.GLOBAL);
   }
 
   public static void onGlobalScopeEnd (@Nonnull final IGlobalScope aGlobalScope)
@@ -93,41 +105,49 @@ public final class ScopeSPIManager
       }
       catch (final Throwable t)
       {
+        ScopeLifeCycleMetrics.onSPIFailure ();
         s_aLogger.error ("Failed to invoke SPI method onGlobalScopeEnd on " + aSPI + " with scope " + aGlobalScope,
                          t instanceof IMockException ? null : t);
       }
+    ScopeLifeCycleMetrics.onScopeDestroyed (EScope.GLOBAL);
   }
 
   public static void onApplicationScopeBegin (@Nonnull final IApplicationScope aApplicationScope)
   {
-    for (final IApplicationScopeSPI aSPI : s_aApplicationSPIs)
+    // The ID of an application scope is the application ID
+    for (final IApplicationScopeSPI aSPI : s_aApplicationSPIs.getAllSPIsForApplication (aApplicationScope.getID ()))
       try
       {
         aSPI.onApplicationScopeBegin (aApplicationScope);
       }
       catch (final Throwable t)
       {
+        ScopeLifeCycleMetrics.onSPIFailure ();
         s_aLogger.error ("Failed to invoke SPI method onApplicationScopeBegin on " +
                          aSPI +
                          " with scope " +
                          aApplicationScope, t instanceof IMockException ? null : t);
       }
+    ScopeLifeCycleMetrics.onScopeCreated (EScope.APPLICATION);
   }
 
   public static void onApplicationScopeEnd (@Nonnull final IApplicationScope aApplicationScope)
   {
-    for (final IApplicationScopeSPI aSPI : s_aApplicationSPIs)
+    // The ID of an application scope is the application ID
+    for (final IApplicationScopeSPI aSPI : s_aApplicationSPIs.getAllSPIsForApplication (aApplicationScope.getID ()))
       try
       {
         aSPI.onApplicationScopeEnd (aApplicationScope);
       }
       catch (final Throwable t)
       {
+        ScopeLifeCycleMetrics.onSPIFailure ();
         s_aLogger.error ("Failed to invoke SPI method onApplicationScopeEnd on " +
                          aSPI +
                          " with scope " +
                          aApplicationScope, t instanceof IMockException ? null : t);
       }
+    ScopeLifeCycleMetrics.onScopeDestroyed (EScope.APPLICATION);
   }
 
   public static void onSessionScopeBegin (@Nonnull final ISessionScope aSessionScope)
@@ -139,9 +159,11 @@ public final class ScopeSPIManager
       }
       catch (final Throwable t)
       {
+        ScopeLifeCycleMetrics.onSPIFailure ();
         s_aLogger.error ("Failed to invoke SPI method onSessionScopeBegin on " + aSPI + " with scope " + aSessionScope,
                          t instanceof IMockException ? null : t);
       }
+    ScopeLifeCycleMetrics.onScopeCreated (EScope.SESSION);
   }
 
   public static void onSessionScopeEnd (@Nonnull final ISessionScope aSessionScope)
@@ -153,41 +175,99 @@ public final class ScopeSPIManager
       }
       catch (final Throwable t)
       {
+        ScopeLifeCycleMetrics.onSPIFailure ();
         s_aLogger.error ("Failed to invoke SPI method onSessionScopeEnd on " + aSPI + " with scope " + aSessionScope,
                          t instanceof IMockException ? null : t);
       }
+    ScopeLifeCycleMetrics.onScopeDestroyed (EScope.SESSION);
   }
 
+  /**
+   * Invoke all session application scope SPIs. As the application ID is not
+   * known, all SPI implementations are invoked, independent of any declared
+   * application filter.
+   * 
+   * @param aSessionApplicationScope
+   *        The session application scope. May not be <code>null</code>.
+   * @see #onSessionApplicationScopeBegin(String, ISessionApplicationScope)
+   */
   public static void onSessionApplicationScopeBegin (@Nonnull final ISessionApplicationScope aSessionApplicationScope)
   {
-    for (final ISessionApplicationScopeSPI aSPI : s_aSessionApplicationSPIs)
+    onSessionApplicationScopeBegin (null, aSessionApplicationScope);
+  }
+
+  /**
+   * Invoke all session application scope SPIs that are interested in the
+   * passed application.
+   * 
+   * @param sApplicationID
+   *        The ID of the application the session application scope belongs to.
+   *        May be <code>null</code> if unknown, in which case all SPI
+   *        implementations are invoked.
+   * @param aSessionApplicationScope
+   *        The session application scope. May not be <code>null</code>.
+   */
+  public static void onSessionApplicationScopeBegin (@Nullable final String sApplicationID,
+                                                     @Nonnull final ISessionApplicationScope aSessionApplicationScope)
+  {
+    for (final ISessionApplicationScopeSPI aSPI : s_aSessionApplicationSPIs.getAllSPIsForApplication (sApplicationID))
       try
       {
         aSPI.onSessionApplicationScopeBegin (aSessionApplicationScope);
       }
       catch (final Throwable t)
       {
+        ScopeLifeCycleMetrics.onSPIFailure ();
         s_aLogger.error ("Failed to invoke SPI method onSessionApplicationScopeBegin on " +
                          aSPI +
                          " with scope " +
                          aSessionApplicationScope, t instanceof IMockException ? null : t);
       }
+    ScopeLifeCycleMetrics.onScopeCreated (EScope.SESSION_APPLICATION);
   }
 
+  /**
+   * Invoke all session application scope SPIs. As the application ID is not
+   * known, all SPI implementations are invoked, independent of any declared
+   * application filter.
+   * 
+   * @param aSessionApplicationScope
+   *        The session application scope. May not be <code>null</code>.
+   * @see #onSessionApplicationScopeEnd(String, ISessionApplicationScope)
+   */
   public static void onSessionApplicationScopeEnd (@Nonnull final ISessionApplicationScope aSessionApplicationScope)
   {
-    for (final ISessionApplicationScopeSPI aSPI : s_aSessionApplicationSPIs)
+    onSessionApplicationScopeEnd (null, aSessionApplicationScope);
+  }
+
+  /**
+   * Invoke all session application scope SPIs that are interested in the
+   * passed application.
+   * 
+   * @param sApplicationID
+   *        The ID of the application the session application scope belongs to.
+   *        May be <code>null</code> if unknown, in which case all SPI
+   *        implementations are invoked.
+   * @param aSessionApplicationScope
+   *        The session application scope. May not be <code>null</code>.
+   */
+  public static void onSessionApplicationScopeEnd (@Nullable final String sApplicationID,
+                                                   @Nonnull final ISessionApplicationScope aSessionApplicationScope)
+  {
+    for (final ISessionApplicationScopeSPI aSPI : s_aSessionApplicationSPIs.getAllSPIsForApplication (sApplicationID))
       try
       {
         aSPI.onSessionApplicationScopeEnd (aSessionApplicationScope);
       }
       catch (final Throwable t)
       {
+        ScopeLifeCycleMetrics.onSPIFailure ();
         s_aLogger.error ("Failed to invoke SPI method onSessionApplicationScopeEnd on " +
                          aSPI +
                          " with scope " +
                          aSessionApplicationScope, t instanceof IMockException ? null : t);
       }
+    ScopeLifeCycleMetrics.onScopeDestroyed (EScope.SESSION_APPLICATION);
   }
 
   public static void onRequestScopeBegin (@Nonnull final IRequestScope aRequestScope)
@@ -199,9 +279,11 @@ public final class ScopeSPIManager
       }
       catch (final Throwable t)
       {
+        ScopeLifeCycleMetrics.onSPIFailure ();
         s_aLogger.error ("Failed to invoke SPI method onRequestScopeBegin on " + aSPI + " with scope " + aRequestScope,
                          t instanceof IMockException ? null : t);
       }
+    ScopeLifeCycleMetrics.onScopeCreated (EScope.REQUEST);
   }
 
   public static void onRequestScopeEnd (@Nonnull final IRequestScope aRequestScope)
@@ -213,8 +295,56 @@ public final class ScopeSPIManager
       }
       catch (final Throwable t)
       {
+        ScopeLifeCycleMetrics.onSPIFailure ();
         s_aLogger.error ("Failed to invoke SPI method onRequestScopeEnd on " + aSPI + " with scope " + aRequestScope,
                          t instanceof IMockException ? null : t);
       }
+    ScopeLifeCycleMetrics.onScopeDestroyed (EScope.REQUEST);
+  }
+
+  /**
+   * @return <code>true</code> if at least one {@link ISingletonLifeCycleSPI}
+   *         implementation is registered. Can be used to avoid the overhead of
+   *         time measurement if nobody is interested.
+   */
+  public static boolean hasSingletonLifeCycleSPIs ()
+  {
+    return !s_aSingletonSPIs.isEmpty ();
+  }
+
+  public static void onSingletonInstantiated (@Nonnull final IScope aScope,
+                                              @Nonnull final Class <? extends AbstractSingleton> aClass,
+                                              @Nonnegative final long nDurationNanos)
+  {
+    for (final ISingletonLifeCycleSPI aSPI : s_aSingletonSPIs)
+      try
+      {
+        aSPI.onSingletonInstantiated (aScope, aClass, nDurationNanos);
+      }
+      catch (final Throwable t)
+      {
+        ScopeLifeCycleMetrics.onSPIFailure ();
+        s_aLogger.error ("Failed to invoke SPI method onSingletonInstantiated on " + aSPI + " with class " + aClass,
+                         t instanceof IMockException ? null : t);
+      }
+  }
+
+  public static void onSingletonInstantiationWait (@Nonnull final IScope aScope,
+                                                   @Nonnull final Class <? extends AbstractSingleton> aClass,
+                                                   @Nonnegative final long nWaitNanos)
+  {
+    for (final ISingletonLifeCycleSPI aSPI : s_aSingletonSPIs)
+      try
+      {
+        aSPI.onSingletonInstantiationWait (aScope, aClass, nWaitNanos);
+      }
+      catch (final Throwable t)
+      {
+        ScopeLifeCycleMetrics.onSPIFailure ();
+        s_aLogger.error ("Failed to invoke SPI method onSingletonInstantiationWait on " +
+                         aSPI +
+                         " with class " +
+                         aClass, t instanceof IMockException ? null : t);
+      }
   }
 }
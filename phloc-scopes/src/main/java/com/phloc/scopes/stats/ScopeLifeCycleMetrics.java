@@ -0,0 +1,213 @@
+/**
+ * Copyright (C) 2006-2014 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.scopes.stats;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.phloc.commons.ValueEnforcer;
+import com.phloc.commons.annotations.PresentForCodeCoverage;
+import com.phloc.scopes.mgr.EScope;
+
+/**
+ * Global metrics about the life cycle of all scopes. All values are kept in
+ * {@link StripedLongCounter} objects, so that the updates are cheap enough to
+ * be always enabled. The number of active scopes per {@link EScope} is
+ * determined as the difference of created and destroyed scopes.<br>
+ * The counters are updated when the scope begin and end SPIs are triggered, so
+ * a scope counts as created after it was fully initialized and as destroyed
+ * when the end SPIs are triggered.
+ * 
+ * @author Philip Helger
+ */
+@ThreadSafe
+public final class ScopeLifeCycleMetrics
+{
+  private static final StripedLongCounter [] s_aCreated;
+  private static final StripedLongCounter [] s_aDestroyed;
+  private static final StripedLongCounter s_aFailedDestructions = new StripedLongCounter ();
+  private static final StripedLongCounter s_aSPIFailures = new StripedLongCounter ();
+
+  static
+  {
+    final int nScopes = EScope.values ().length;
+    s_aCreated = new StripedLongCounter [nScopes];
+    s_aDestroyed = new StripedLongCounter [nScopes];
+    for (int i = 0; i < nScopes; ++i)
+    {
+      s_aCreated[i] = new StripedLongCounter ();
+      s_aDestroyed[i] = new StripedLongCounter ();
+    }
+  }
+
+  @SuppressWarnings ("unused")
+  @PresentForCodeCoverage
+  private static final ScopeLifeCycleMetrics s_aInstance = new ScopeLifeCycleMetrics ();
+
+  private ScopeLifeCycleMetrics ()
+  {}
+
+  /**
+   * Notify that a scope was created. This is an internal method!
+   * 
+   * @param eScope
+   *        The type of the scope. May not be <code>null</code>.
+   */
+  public static void onScopeCreated (@Nonnull final EScope eScope)
+  {
+    ValueEnforcer.notNull (eScope, "Scope");
+    s_aCreated[eScope.ordinal ()].increment ();
+  }
+
+  /**
+   * Notify that a scope was destroyed. This is an internal method!
+   * 
+   * @param eScope
+   *        The type of the scope. May not be <code>null</code>.
+   */
+  public static void onScopeDestroyed (@Nonnull final EScope eScope)
+  {
+    ValueEnforcer.notNull (eScope, "Scope");
+    s_aDestroyed[eScope.ordinal ()].increment ();
+  }
+
+  /**
+   * Notify that a destruction callback of a scope attribute failed. This is an
+   * internal method!
+   */
+  public static void onScopeDestructionFailure ()
+  {
+    s_aFailedDestructions.increment ();
+  }
+
+  /**
+   * Notify that invoking a scope SPI implementation failed. This is an internal
+   * method!
+   */
+  public static void onSPIFailure ()
+  {
+    s_aSPIFailures.increment ();
+  }
+
+  /**
+   * @param eScope
+   *        The type of the scope. May not be <code>null</code>.
+   * @return The total number of created scopes of the passed type.
+   */
+  @Nonnegative
+  public static long getCreatedScopeCount (@Nonnull final EScope eScope)
+  {
+    ValueEnforcer.notNull (eScope, "Scope");
+    return s_aCreated[eScope.ordinal ()].get ();
+  }
+
+  /**
+   * @param eScope
+   *        The type of the scope. May not be <code>null</code>.
+   * @return The total number of destroyed scopes of the passed type.
+   */
+  @Nonnegative
+  public static long getDestroyedScopeCount (@Nonnull final EScope eScope)
+  {
+    ValueEnforcer.notNull (eScope, "Scope");
+    return s_aDestroyed[eScope.ordinal ()].get ();
+  }
+
+  /**
+   * @param eScope
+   *        The type of the scope. May not be <code>null</code>.
+   * @return The number of currently active scopes of the passed type.
+   */
+  @Nonnegative
+  public static long getActiveScopeCount (@Nonnull final EScope eScope)
+  {
+    // Read destroyed first, so that a concurrent creation+destruction cannot
+    // lead to a negative value
+    final long nDestroyed = getDestroyedScopeCount (eScope);
+    return Math.max (0, getCreatedScopeCount (eScope) - nDestroyed);
+  }
+
+  /**
+   * @return The number of currently active application scopes.
+   */
+  @Nonnegative
+  public static long getActiveApplicationScopeCount ()
+  {
+    return getActiveScopeCount (EScope.APPLICATION);
+  }
+
+  /**
+   * @return The number of currently active sessions.
+   */
+  @Nonnegative
+  public static long getActiveSessionScopeCount ()
+  {
+    return getActiveScopeCount (EScope.SESSION);
+  }
+
+  /**
+   * @return The number of currently active session application scopes.
+   */
+  @Nonnegative
+  public static long getActiveSessionApplicationScopeCount ()
+  {
+    return getActiveScopeCount (EScope.SESSION_APPLICATION);
+  }
+
+  /**
+   * @return The number of request scopes currently in-flight.
+   */
+  @Nonnegative
+  public static long getActiveRequestScopeCount ()
+  {
+    return getActiveScopeCount (EScope.REQUEST);
+  }
+
+  /**
+   * @return The number of failed scope attribute destruction callbacks.
+   */
+  @Nonnegative
+  public static long getFailedDestructionCount ()
+  {
+    return s_aFailedDestructions.get ();
+  }
+
+  /**
+   * @return The number of failed scope SPI invocations.
+   */
+  @Nonnegative
+  public static long getSPIFailureCount ()
+  {
+    return s_aSPIFailures.get ();
+  }
+
+  /**
+   * Reset all counters to 0. This is mainly intended for testing purposes, as
+   * the active scope counts are no longer correct after calling this method.
+   */
+  public static void reset ()
+  {
+    for (final StripedLongCounter aCounter : s_aCreated)
+      aCounter.reset ();
+    for (final StripedLongCounter aCounter : s_aDestroyed)
+      aCounter.reset ();
+    s_aFailedDestructions.reset ();
+    s_aSPIFailures.reset ();
+  }
+}
@@ -0,0 +1,178 @@
+/**
+ * Copyright (C) 2006-2014 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.scopes.stats;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.NotThreadSafe;
+
+import com.phloc.commons.ValueEnforcer;
+import com.phloc.commons.annotations.Nonempty;
+import com.phloc.commons.annotations.ReturnsMutableCopy;
+import com.phloc.commons.string.ToStringGenerator;
+
+/**
+ * The result of a {@link ScopeSizeEstimator} run for a single scope. All sizes
+ * are approximations in bytes.
+ * 
+ * @author Philip Helger
+ */
+@NotThreadSafe
+public final class ScopeSizeEstimate
+{
+  private final String m_sScopeID;
+  private final Map <String, Long> m_aAttributeSizes = new LinkedHashMap <String, Long> ();
+  private final Map <String, ScopeSizeEstimate> m_aNestedScopes = new LinkedHashMap <String, ScopeSizeEstimate> ();
+  private long m_nAttributeBytes = 0;
+  private int m_nVisitedObjects = 0;
+  private boolean m_bTruncated = false;
+  private boolean m_bSampled = false;
+
+  ScopeSizeEstimate (@Nonnull @Nonempty final String sScopeID)
+  {
+    m_sScopeID = ValueEnforcer.notEmpty (sScopeID, "ScopeID");
+  }
+
+  void addAttribute (@Nonnull final String sKey, @Nonnegative final long nBytes)
+  {
+    m_aAttributeSizes.put (sKey, Long.valueOf (nBytes));
+    m_nAttributeBytes += nBytes;
+  }
+
+  void addNestedScope (@Nonnull final ScopeSizeEstimate aNestedScope)
+  {
+    m_aNestedScopes.put (aNestedScope.getScopeID (), aNestedScope);
+  }
+
+  void addVisitedObject ()
+  {
+    m_nVisitedObjects++;
+  }
+
+  void setTruncated ()
+  {
+    m_bTruncated = true;
+  }
+
+  void setSampled ()
+  {
+    m_bSampled = true;
+  }
+
+  /**
+   * @return The ID of the estimated scope. Neither <code>null</code> nor empty.
+   */
+  @Nonnull
+  @Nonempty
+  public String getScopeID ()
+  {
+    return m_sScopeID;
+  }
+
+  /**
+   * @return The estimated size of all attributes of this scope, excluding
+   *         nested scopes.
+   */
+  @Nonnegative
+  public long getAttributeBytes ()
+  {
+    return m_nAttributeBytes;
+  }
+
+  /**
+   * @return The estimated size of all attributes of this scope and all nested
+   *         scopes.
+   */
+  @Nonnegative
+  public long getTotalBytes ()
+  {
+    long ret = m_nAttributeBytes;
+    for (final ScopeSizeEstimate aNestedScope : m_aNestedScopes.values ())
+      ret += aNestedScope.getTotalBytes ();
+    return ret;
+  }
+
+  /**
+   * @return The estimated size per attribute name, in the order the attributes
+   *         were visited. Objects referenced from multiple attributes are only
+   *         accounted to the first attribute. Never <code>null</code>.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public Map <String, Long> getAllAttributeSizes ()
+  {
+    return new LinkedHashMap <String, Long> (m_aAttributeSizes);
+  }
+
+  /**
+   * @return The estimates of all nested scopes (e.g. the session application
+   *         scopes of a session scope), indexed by their scope ID. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public Map <String, ScopeSizeEstimate> getAllNestedScopeEstimates ()
+  {
+    return new LinkedHashMap <String, ScopeSizeEstimate> (m_aNestedScopes);
+  }
+
+  /**
+   * @return The number of objects visited for this scope, excluding nested
+   *         scopes.
+   */
+  @Nonnegative
+  public int getVisitedObjectCount ()
+  {
+    return m_nVisitedObjects;
+  }
+
+  /**
+   * @return <code>true</code> if the traversal of this scope was stopped
+   *         because the maximum number of objects was reached. In this case
+   *         the estimate is too low.
+   */
+  public boolean isTruncated ()
+  {
+    return m_bTruncated;
+  }
+
+  /**
+   * @return <code>true</code> if at least one large array was sampled instead
+   *         of completely traversed.
+   */
+  public boolean isSampled ()
+  {
+    return m_bSampled;
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("scopeID", m_sScopeID)
+                                       .append ("attributeSizes", m_aAttributeSizes)
+                                       .append ("nestedScopes", m_aNestedScopes)
+                                       .append ("attributeBytes", m_nAttributeBytes)
+                                       .append ("visitedObjects", m_nVisitedObjects)
+                                       .append ("truncated", m_bTruncated)
+                                       .append ("sampled", m_bSampled)
+                                       .toString ();
+  }
+}
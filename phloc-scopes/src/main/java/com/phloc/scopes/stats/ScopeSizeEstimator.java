@@ -0,0 +1,380 @@
+/**
+ * Copyright (C) 2006-2014 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.scopes.stats;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.phloc.commons.ValueEnforcer;
+import com.phloc.commons.string.ToStringGenerator;
+import com.phloc.scopes.AbstractMapBasedScope;
+import com.phloc.scopes.IScope;
+import com.phloc.scopes.domain.ISessionApplicationScope;
+import com.phloc.scopes.domain.ISessionScope;
+
+/**
+ * On-demand estimator for the approximate retained size of a scope. All
+ * attributes of a scope (including singletons) are traversed via reflection
+ * and the shallow sizes of all reachable objects are summed up. For session
+ * scopes, all session application scopes are estimated as nested scopes.<br>
+ * To make this safe to be run on a live system, the traversal cost is capped:
+ * at most a configurable number of objects is visited per estimation and
+ * large object arrays are sampled instead of being traversed completely.
+ * References to other scopes, classes, class loaders and threads are not
+ * followed. Objects reachable from more than one attribute are only accounted
+ * for the first attribute.<br>
+ * The shallow sizes are based on a 64 bit JVM with compressed object pointers
+ * and are therefore only approximations.<br>
+ * Instances of this class are not thread-safe, but may be reused.
+ * 
+ * @author Philip Helger
+ */
+@NotThreadSafe
+public class ScopeSizeEstimator
+{
+  /** Default maximum number of objects to be visited per estimation */
+  public static final int DEFAULT_MAX_VISITED_OBJECTS = 100000;
+  /** Default maximum number of elements to be traversed per object array */
+  public static final int DEFAULT_MAX_ARRAY_SAMPLES = 100;
+
+  private static final Logger s_aLogger = LoggerFactory.getLogger (ScopeSizeEstimator.class);
+
+  private static final int OBJECT_HEADER_BYTES = 12;
+  private static final int ARRAY_HEADER_BYTES = 16;
+  private static final int REFERENCE_BYTES = 4;
+  private static final int ALIGNMENT_BYTES = 8;
+
+  /**
+   * Cached layout information per class.
+   * 
+   * @author Philip Helger
+   */
+  private static final class ClassLayout
+  {
+    private final long m_nShallowBytes;
+    private final Field [] m_aReferenceFields;
+
+    ClassLayout (final long nShallowBytes, @Nonnull final Field [] aReferenceFields)
+    {
+      m_nShallowBytes = nShallowBytes;
+      m_aReferenceFields = aReferenceFields;
+    }
+  }
+
+  /**
+   * The state of a single estimation
+   * 
+   * @author Philip Helger
+   */
+  private static final class Context
+  {
+    private final Set <Object> m_aVisited = Collections.newSetFromMap (new IdentityHashMap <Object, Boolean> ());
+    private int m_nRemainingObjects;
+
+    Context (@Nonnegative final int nMaxVisitedObjects)
+    {
+      m_nRemainingObjects = nMaxVisitedObjects;
+    }
+  }
+
+  private final int m_nMaxVisitedObjects;
+  private final int m_nMaxArraySamples;
+  private final Map <Class <?>, ClassLayout> m_aLayoutCache = new HashMap <Class <?>, ClassLayout> ();
+
+  /**
+   * Constructor using the default limits.
+   */
+  public ScopeSizeEstimator ()
+  {
+    this (DEFAULT_MAX_VISITED_OBJECTS, DEFAULT_MAX_ARRAY_SAMPLES);
+  }
+
+  /**
+   * Constructor
+   * 
+   * @param nMaxVisitedObjects
+   *        The maximum number of objects to be visited per call to
+   *        {@link #estimate(IScope)}, including nested scopes. Must be &gt; 0.
+   * @param nMaxArraySamples
+   *        The maximum number of elements to be traversed per object array.
+   *        For larger arrays, this number of evenly distributed elements is
+   *        traversed and the size is extrapolated. Must be &gt; 0.
+   */
+  public ScopeSizeEstimator (@Nonnegative final int nMaxVisitedObjects, @Nonnegative final int nMaxArraySamples)
+  {
+    m_nMaxVisitedObjects = ValueEnforcer.isGT0 (nMaxVisitedObjects, "MaxVisitedObjects");
+    m_nMaxArraySamples = ValueEnforcer.isGT0 (nMaxArraySamples, "MaxArraySamples");
+  }
+
+  /**
+   * @return The maximum number of objects to be visited per estimation.
+   */
+  @Nonnegative
+  public final int getMaxVisitedObjects ()
+  {
+    return m_nMaxVisitedObjects;
+  }
+
+  /**
+   * @return The maximum number of elements to be traversed per object array.
+   */
+  @Nonnegative
+  public final int getMaxArraySamples ()
+  {
+    return m_nMaxArraySamples;
+  }
+
+  private static long _align (final long nBytes)
+  {
+    return (nBytes + ALIGNMENT_BYTES - 1) / ALIGNMENT_BYTES * ALIGNMENT_BYTES;
+  }
+
+  @Nonnegative
+  private static int _getPrimitiveBytes (@Nonnull final Class <?> aClass)
+  {
+    if (aClass == long.class || aClass == double.class)
+      return 8;
+    if (aClass == int.class || aClass == float.class)
+      return 4;
+    if (aClass == short.class || aClass == char.class)
+      return 2;
+    // byte and boolean
+    return 1;
+  }
+
+  @Nonnull
+  private ClassLayout _getClassLayout (@Nonnull final Class <?> aClass)
+  {
+    ClassLayout ret = m_aLayoutCache.get (aClass);
+    if (ret == null)
+    {
+      long nBytes = OBJECT_HEADER_BYTES;
+      final List <Field> aReferenceFields = new ArrayList <Field> ();
+      for (Class <?> aCurClass = aClass; aCurClass != null; aCurClass = aCurClass.getSuperclass ())
+        for (final Field aField : aCurClass.getDeclaredFields ())
+          if (!Modifier.isStatic (aField.getModifiers ()))
+          {
+            final Class <?> aType = aField.getType ();
+            if (aType.isPrimitive ())
+              nBytes += _getPrimitiveBytes (aType);
+            else
+            {
+              nBytes += REFERENCE_BYTES;
+              try
+              {
+                aField.setAccessible (true);
+                aReferenceFields.add (aField);
+              }
+              catch (final RuntimeException ex)
+              {
+                // E.g. a security manager prohibits access
+                if (s_aLogger.isDebugEnabled ())
+                  s_aLogger.debug ("Cannot access field " + aField + ": " + ex.getMessage ());
+              }
+            }
+          }
+      ret = new ClassLayout (_align (nBytes), aReferenceFields.toArray (new Field [aReferenceFields.size ()]));
+      m_aLayoutCache.put (aClass, ret);
+    }
+    return ret;
+  }
+
+  /**
+   * Check if the passed object should be traversed. Shared infrastructure
+   * objects are never traversed. Override this method to exclude additional
+   * objects.
+   * 
+   * @param aObject
+   *        The object to check. Never <code>null</code>.
+   * @return <code>true</code> if the object should be traversed.
+   */
+  protected boolean isTraversable (@Nonnull final Object aObject)
+  {
+    return !(aObject instanceof IScope) &&
+           !(aObject instanceof Class <?>) &&
+           !(aObject instanceof ClassLoader) &&
+           !(aObject instanceof Thread) &&
+           !(aObject instanceof Enum <?>);
+  }
+
+  private boolean _isNew (@Nullable final Object aObject, @Nonnull final Context aCtx)
+  {
+    return aObject != null && isTraversable (aObject) && aCtx.m_aVisited.add (aObject);
+  }
+
+  @Nonnegative
+  private long _getRetainedBytes (@Nonnull final Object aRoot,
+                                  @Nonnull final Context aCtx,
+                                  @Nullable final ScopeSizeEstimate aEstimate)
+  {
+    long nBytes = 0;
+    final Deque <Object> aStack = new ArrayDeque <Object> ();
+    aStack.push (aRoot);
+    while (!aStack.isEmpty ())
+    {
+      if (aCtx.m_nRemainingObjects <= 0)
+      {
+        if (aEstimate != null)
+          aEstimate.setTruncated ();
+        break;
+      }
+      aCtx.m_nRemainingObjects--;
+      if (aEstimate != null)
+        aEstimate.addVisitedObject ();
+
+      final Object aObject = aStack.pop ();
+      final Class <?> aClass = aObject.getClass ();
+      if (aClass.isArray ())
+      {
+        final Class <?> aComponentType = aClass.getComponentType ();
+        final int nLength = Array.getLength (aObject);
+        if (aComponentType.isPrimitive ())
+          nBytes += _align (ARRAY_HEADER_BYTES + (long) nLength * _getPrimitiveBytes (aComponentType));
+        else
+        {
+          nBytes += _align (ARRAY_HEADER_BYTES + (long) nLength * REFERENCE_BYTES);
+          final Object [] aArray = (Object []) aObject;
+          if (nLength <= m_nMaxArraySamples)
+          {
+            for (final Object aElement : aArray)
+              if (_isNew (aElement, aCtx))
+                aStack.push (aElement);
+          }
+          else
+          {
+            // Sample evenly distributed elements and extrapolate
+            if (aEstimate != null)
+              aEstimate.setSampled ();
+            final int nStep = nLength / m_nMaxArraySamples;
+            long nSampledBytes = 0;
+            int nSamples = 0;
+            for (int i = 0; i < nLength && nSamples < m_nMaxArraySamples; i += nStep)
+            {
+              nSamples++;
+              final Object aElement = aArray[i];
+              if (_isNew (aElement, aCtx))
+                nSampledBytes += _getRetainedBytes (aElement, aCtx, aEstimate);
+            }
+            nBytes += nSampledBytes * nLength / nSamples;
+          }
+        }
+      }
+      else
+      {
+        final ClassLayout aLayout = _getClassLayout (aClass);
+        nBytes += aLayout.m_nShallowBytes;
+        for (final Field aField : aLayout.m_aReferenceFields)
+        {
+          Object aValue;
+          try
+          {
+            aValue = aField.get (aObject);
+          }
+          catch (final IllegalAccessException ex)
+          {
+            aValue = null;
+          }
+          if (_isNew (aValue, aCtx))
+            aStack.push (aValue);
+        }
+      }
+    }
+    return nBytes;
+  }
+
+  @Nonnull
+  private ScopeSizeEstimate _estimate (@Nonnull final IScope aScope, @Nonnull final Context aCtx)
+  {
+    final ScopeSizeEstimate ret = new ScopeSizeEstimate (aScope.getID ());
+    // Use the cached snapshot if possible
+    final Map <String, Object> aAttrs = aScope instanceof AbstractMapBasedScope ? ((AbstractMapBasedScope) aScope).getAttributeSnapshot ()
+                                                                               : aScope.getAllAttributes ();
+    for (final Map.Entry <String, Object> aEntry : aAttrs.entrySet ())
+    {
+      final Object aValue = aEntry.getValue ();
+      final long nBytes = _isNew (aValue, aCtx) ? _getRetainedBytes (aValue, aCtx, ret) : 0;
+      ret.addAttribute (aEntry.getKey (), nBytes);
+    }
+
+    if (aScope instanceof ISessionScope)
+    {
+      // Include all session application scopes
+      final ISessionScope aSessionScope = (ISessionScope) aScope;
+      for (final ISessionApplicationScope aNestedScope : aSessionScope.getAllSessionApplicationScopes ().values ())
+        ret.addNestedScope (_estimate (aNestedScope, aCtx));
+    }
+    return ret;
+  }
+
+  /**
+   * Estimate the retained size of the passed scope.
+   * 
+   * @param aScope
+   *        The scope to be estimated. May not be <code>null</code>.
+   * @return The estimation result and never <code>null</code>.
+   */
+  @Nonnull
+  public ScopeSizeEstimate estimate (@Nonnull final IScope aScope)
+  {
+    ValueEnforcer.notNull (aScope, "Scope");
+
+    return _estimate (aScope, new Context (m_nMaxVisitedObjects));
+  }
+
+  /**
+   * Estimate the retained size of a single object, e.g. a scope attribute
+   * value. The same limits as for scopes apply.
+   * 
+   * @param aObject
+   *        The object to be estimated. May be <code>null</code>.
+   * @return The estimated retained size in bytes. Always 0 for
+   *         <code>null</code> and for objects that are not traversed.
+   */
+  @Nonnegative
+  public long estimateObject (@Nullable final Object aObject)
+  {
+    final Context aCtx = new Context (m_nMaxVisitedObjects);
+    return _isNew (aObject, aCtx) ? _getRetainedBytes (aObject, aCtx, null) : 0;
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("maxVisitedObjects", m_nMaxVisitedObjects)
+                                       .append ("maxArraySamples", m_nMaxArraySamples)
+                                       .toString ();
+  }
+}
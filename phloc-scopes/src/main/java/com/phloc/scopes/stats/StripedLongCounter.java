@@ -0,0 +1,136 @@
+/**
+ * Copyright (C) 2006-2014 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.scopes.stats;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.phloc.commons.ValueEnforcer;
+import com.phloc.commons.string.ToStringGenerator;
+
+/**
+ * A lock-free long counter that spreads concurrent updates over several
+ * stripes, so that threads incrementing the counter at the same time do not
+ * contend on a single memory location. Each stripe is padded to its own cache
+ * line. Reading the value sums all stripes and is therefore more expensive
+ * than an update - this is intended for counters that are updated often and
+ * read rarely.
+ * 
+ * @author Philip Helger
+ */
+@ThreadSafe
+public final class StripedLongCounter
+{
+  /** Number of longs between two stripes (64 bytes = one cache line) */
+  private static final int PADDING = 8;
+
+  private final AtomicLongArray m_aCells;
+  private final int m_nStripeMask;
+
+  /**
+   * Constructor using a default number of stripes based on the number of
+   * available processors.
+   */
+  public StripedLongCounter ()
+  {
+    this (Runtime.getRuntime ().availableProcessors () * 2);
+  }
+
+  /**
+   * Constructor
+   * 
+   * @param nStripes
+   *        The minimum number of stripes to use. Must be &gt; 0. Is rounded up
+   *        to the next power of 2.
+   */
+  public StripedLongCounter (@Nonnegative final int nStripes)
+  {
+    ValueEnforcer.isGT0 (nStripes, "Stripes");
+    int nRealStripes = 1;
+    while (nRealStripes < nStripes)
+      nRealStripes <<= 1;
+    m_aCells = new AtomicLongArray (nRealStripes * PADDING);
+    m_nStripeMask = nRealStripes - 1;
+  }
+
+  private int _getCellIndex ()
+  {
+    final long nThreadID = Thread.currentThread ().getId ();
+    // Spread the bits of the thread ID
+    final int nHash = (int) (nThreadID ^ (nThreadID >>> 16)) * 0x9E3779B9;
+    return ((nHash >>> 16) & m_nStripeMask) * PADDING;
+  }
+
+  /**
+   * @return The number of stripes used. Always a power of 2.
+   */
+  @Nonnegative
+  public int getStripeCount ()
+  {
+    return m_nStripeMask + 1;
+  }
+
+  /**
+   * Increment the counter by 1.
+   */
+  public void increment ()
+  {
+    m_aCells.incrementAndGet (_getCellIndex ());
+  }
+
+  /**
+   * Add the passed value to the counter.
+   * 
+   * @param nDelta
+   *        The value to add. May be negative.
+   */
+  public void add (final long nDelta)
+  {
+    if (nDelta != 0)
+      m_aCells.addAndGet (_getCellIndex (), nDelta);
+  }
+
+  /**
+   * @return The sum of all stripes. Concurrent updates while summing may or may
+   *         not be contained in the result.
+   */
+  public long get ()
+  {
+    long nSum = 0;
+    for (int i = 0; i < m_aCells.length (); i += PADDING)
+      nSum += m_aCells.get (i);
+    return nSum;
+  }
+
+  /**
+   * Reset all stripes to 0. Concurrent updates while resetting may be lost.
+   */
+  public void reset ()
+  {
+    for (int i = 0; i < m_aCells.length (); i += PADDING)
+      m_aCells.set (i, 0);
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("stripes", getStripeCount ()).append ("value", get ()).toString ();
+  }
+}
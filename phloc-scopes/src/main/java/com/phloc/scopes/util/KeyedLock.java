@@ -0,0 +1,114 @@
+/**
+ * Copyright (C) 2006-2014 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.scopes.util;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.phloc.commons.ValueEnforcer;
+
+/**
+ * A set of re-entrant locks, one per key. The lock objects are only kept while
+ * at least one thread holds or waits for the lock of a key, so the memory
+ * usage is proportional to the number of keys currently in use.
+ * 
+ * @author Philip Helger
+ * @param <KEYTYPE>
+ *        The key type
+ */
+@ThreadSafe
+public final class KeyedLock <KEYTYPE>
+{
+  private static final class LockEntry
+  {
+    private final ReentrantLock m_aLock = new ReentrantLock ();
+    private int m_nUsers = 0;
+  }
+
+  @GuardedBy ("m_aEntries")
+  private final Map <KEYTYPE, LockEntry> m_aEntries = new HashMap <KEYTYPE, LockEntry> ();
+
+  public KeyedLock ()
+  {}
+
+  /**
+   * Acquire the lock for the passed key. Blocks until the lock is available.
+   * 
+   * @param aKey
+   *        The key to lock. May not be <code>null</code>.
+   */
+  public void lock (@Nonnull final KEYTYPE aKey)
+  {
+    ValueEnforcer.notNull (aKey, "Key");
+
+    LockEntry aEntry;
+    synchronized (m_aEntries)
+    {
+      aEntry = m_aEntries.get (aKey);
+      if (aEntry == null)
+      {
+        aEntry = new LockEntry ();
+        m_aEntries.put (aKey, aEntry);
+      }
+      aEntry.m_nUsers++;
+    }
+
+    // Wait outside of the synchronized block
+    aEntry.m_aLock.lock ();
+  }
+
+  /**
+   * Release the lock for the passed key. Must be called by the thread that
+   * acquired the lock.
+   * 
+   * @param aKey
+   *        The key to unlock. May not be <code>null</code>.
+   * @throws IllegalMonitorStateException
+   *         If the current thread does not hold the lock of the key
+   */
+  public void unlock (@Nonnull final KEYTYPE aKey)
+  {
+    ValueEnforcer.notNull (aKey, "Key");
+
+    synchronized (m_aEntries)
+    {
+      final LockEntry aEntry = m_aEntries.get (aKey);
+      if (aEntry == null)
+        throw new IllegalMonitorStateException ("Key " + aKey + " is not locked");
+      aEntry.m_aLock.unlock ();
+      if (--aEntry.m_nUsers == 0)
+        m_aEntries.remove (aKey);
+    }
+  }
+
+  /**
+   * @return The number of keys that are currently locked or waited for.
+   */
+  public int getLockedKeyCount ()
+  {
+    synchronized (m_aEntries)
+    {
+      return m_aEntries.size ();
+    }
+  }
+}
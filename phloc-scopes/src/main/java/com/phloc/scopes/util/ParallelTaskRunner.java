@@ -0,0 +1,290 @@
+/**
+ * Copyright (C) 2006-2014 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.scopes.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.phloc.commons.ValueEnforcer;
+import com.phloc.commons.annotations.Nonempty;
+import com.phloc.commons.annotations.PresentForCodeCoverage;
+import com.phloc.commons.annotations.ReturnsMutableCopy;
+import com.phloc.commons.callback.INonThrowingRunnableWithParameter;
+import com.phloc.commons.mock.IMockException;
+import com.phloc.scopes.domain.IRequestScope;
+import com.phloc.scopes.mgr.ScopeManager;
+
+/**
+ * Internal helper class to run the same action on several items in parallel,
+ * using a bounded number of threads. It is used e.g. to destroy the owned
+ * scopes of a scope. If only a single thread is allowed or only a single item
+ * is present, the items are processed serially in the calling thread.<br>
+ * All invocations share a single lazily created thread pool with at most
+ * {@link #MAX_SHARED_THREADS} threads. If all of them are busy, an additional
+ * thread is started, so that the calling thread is never blocked by the work
+ * itself. The request scope of the calling thread (if any) is also available in
+ * the threads processing the items.
+ * 
+ * @author Philip Helger
+ */
+@ThreadSafe
+public final class ParallelTaskRunner
+{
+  /** The maximum number of threads in the shared thread pool */
+  public static final int MAX_SHARED_THREADS = 32;
+
+  private static final Logger s_aLogger = LoggerFactory.getLogger (ParallelTaskRunner.class);
+  private static final Object s_aExecutorLock = new Object ();
+  private static volatile ExecutorService s_aExecutor;
+
+  @SuppressWarnings ("unused")
+  @PresentForCodeCoverage
+  private static final ParallelTaskRunner s_aInstance = new ParallelTaskRunner ();
+
+  private ParallelTaskRunner ()
+  {}
+
+  @Nonnull
+  private static ExecutorService _getExecutor ()
+  {
+    ExecutorService ret = s_aExecutor;
+    if (ret == null)
+    {
+      synchronized (s_aExecutorLock)
+      {
+        ret = s_aExecutor;
+        if (ret == null)
+        {
+          final AtomicInteger aThreadIndex = new AtomicInteger (0);
+          final ThreadFactory aThreadFactory = new ThreadFactory ()
+          {
+            public Thread newThread (@Nonnull final Runnable aRunnable)
+            {
+              final Thread aThread = new Thread (aRunnable, "phloc-parallel-" + aThreadIndex.incrementAndGet ());
+              aThread.setDaemon (true);
+              return aThread;
+            }
+          };
+          // No queue: either an idle or a new thread takes the work, or an
+          // additional thread outside of the pool is used. This avoids
+          // deadlocks for nested invocations and keeps the timeout working
+          ret = new ThreadPoolExecutor (0,
+                                        MAX_SHARED_THREADS,
+                                        60,
+                                        TimeUnit.SECONDS,
+                                        new SynchronousQueue <Runnable> (),
+                                        aThreadFactory,
+                                        new RejectedExecutionHandler ()
+                                        {
+                                          public void rejectedExecution (@Nonnull final Runnable aRunnable,
+                                                                         @Nonnull final ThreadPoolExecutor aExecutor)
+                                          {
+                                            aThreadFactory.newThread (aRunnable).start ();
+                                          }
+                                        });
+          s_aExecutor = ret;
+        }
+      }
+    }
+    return ret;
+  }
+
+  private static <T> long _run (@Nonnull final T aItem, @Nonnull final INonThrowingRunnableWithParameter <T> aAction)
+  {
+    final long nStart = System.nanoTime ();
+    try
+    {
+      aAction.run (aItem);
+    }
+    catch (final Throwable t)
+    {
+      s_aLogger.error ("Failed to run action on " + aItem, t instanceof IMockException ? null : t);
+    }
+    return System.nanoTime () - nStart;
+  }
+
+  private static <T> void _runWorker (@Nonnull final List <T> aItems,
+                                      @Nonnull final INonThrowingRunnableWithParameter <T> aAction,
+                                      @Nonnull final AtomicInteger aNextIndex,
+                                      @Nonnull final AtomicLongArray aDurations,
+                                      @Nullable final IRequestScope aRequestScope,
+                                      @Nonnull @Nonempty final String sThreadName)
+  {
+    final Thread aThread = Thread.currentThread ();
+    final String sOldThreadName = aThread.getName ();
+    aThread.setName (sThreadName);
+    final IRequestScope aOldRequestScope = ScopeManager.internalSwapRequestScope (aRequestScope);
+    try
+    {
+      int nIndex;
+      while ((nIndex = aNextIndex.getAndIncrement ()) < aItems.size ())
+        aDurations.set (nIndex, _run (aItems.get (nIndex), aAction));
+    }
+    finally
+    {
+      ScopeManager.internalSwapRequestScope (aOldRequestScope);
+      aThread.setName (sOldThreadName);
+    }
+  }
+
+  /**
+   * Run the passed action on all passed items and wait until all of them are
+   * processed or until the timeout passed. Exceptions of the action are logged
+   * and do not prevent other items from being processed. Items are never
+   * interrupted or skipped: if the timeout passes, all items that are not yet
+   * processed are logged and continue to be processed in the background after
+   * this method returned.
+   * 
+   * @param aItems
+   *        The items to process. May not be <code>null</code>.
+   * @param aAction
+   *        The action to run for each item. May not be <code>null</code>.
+   * @param nMaxThreads
+   *        The maximum number of threads to use. If &le; 1 or if only one item
+   *        is present, all items are processed serially in the calling thread.
+   * @param nTimeoutMillis
+   *        In case of parallel processing, the maximum number of milliseconds
+   *        to wait for all items to be processed. Values &le; 0 mean no
+   *        timeout. Serial processing in the calling thread cannot time out.
+   * @param sThreadNamePrefix
+   *        The name prefix for the threads while processing the items. May
+   *        neither be <code>null</code> nor empty.
+   * @return An array with the duration of the action in nano seconds for each
+   *         item, in the order of the passed items. Items that were not
+   *         processed within the timeout have a duration of -1. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public static <T> long [] runAll (@Nonnull final Collection <? extends T> aItems,
+                                    @Nonnull final INonThrowingRunnableWithParameter <T> aAction,
+                                    @Nonnegative final int nMaxThreads,
+                                    final long nTimeoutMillis,
+                                    @Nonnull @Nonempty final String sThreadNamePrefix)
+  {
+    ValueEnforcer.notNull (aItems, "Items");
+    ValueEnforcer.notNull (aAction, "Action");
+    ValueEnforcer.notEmpty (sThreadNamePrefix, "ThreadNamePrefix");
+
+    final List <T> aItemList = new ArrayList <T> (aItems);
+    final int nItems = aItemList.size ();
+
+    final int nThreads = Math.min (nMaxThreads, nItems);
+    if (nThreads <= 1)
+    {
+      // Serial in the current thread
+      final long [] ret = new long [nItems];
+      for (int i = 0; i < nItems; ++i)
+        ret[i] = _run (aItemList.get (i), aAction);
+      return ret;
+    }
+
+    // Each worker processes items until none is left
+    final ExecutorService aExecutor = _getExecutor ();
+    final IRequestScope aRequestScope = ScopeManager.getRequestScopeOrNull ();
+    final AtomicInteger aNextIndex = new AtomicInteger (0);
+    final AtomicLongArray aDurations = new AtomicLongArray (nItems);
+    for (int i = 0; i < nItems; ++i)
+      aDurations.set (i, -1);
+    final CountDownLatch aFinishedLatch = new CountDownLatch (nThreads);
+    for (int i = 0; i < nThreads; ++i)
+    {
+      final String sThreadName = sThreadNamePrefix + "-" + (i + 1);
+      aExecutor.execute (new Runnable ()
+      {
+        public void run ()
+        {
+          try
+          {
+            _runWorker (aItemList, aAction, aNextIndex, aDurations, aRequestScope, sThreadName);
+          }
+          finally
+          {
+            aFinishedLatch.countDown ();
+          }
+        }
+      });
+    }
+
+    // Wait for all items or until the timeout passed
+    final long nDeadline = System.nanoTime () + TimeUnit.MILLISECONDS.toNanos (nTimeoutMillis);
+    boolean bInterrupted = false;
+    boolean bFinished = false;
+    while (!bFinished)
+    {
+      try
+      {
+        if (nTimeoutMillis <= 0)
+        {
+          aFinishedLatch.await ();
+          bFinished = true;
+        }
+        else
+        {
+          final long nRemainingNanos = nDeadline - System.nanoTime ();
+          if (aFinishedLatch.await (nRemainingNanos, TimeUnit.NANOSECONDS))
+            bFinished = true;
+          else
+            break;
+        }
+      }
+      catch (final InterruptedException ex)
+      {
+        // Still wait, so that the timeout is the only way to return early
+        bInterrupted = true;
+      }
+    }
+    if (bInterrupted)
+      Thread.currentThread ().interrupt ();
+
+    final long [] ret = new long [nItems];
+    final List <T> aPendingItems = new ArrayList <T> ();
+    for (int i = 0; i < nItems; ++i)
+    {
+      ret[i] = aDurations.get (i);
+      if (ret[i] < 0)
+        aPendingItems.add (aItemList.get (i));
+    }
+    if (!aPendingItems.isEmpty ())
+      s_aLogger.warn ("Parallel tasks '" +
+                      sThreadNamePrefix +
+                      "' did not finish within " +
+                      nTimeoutMillis +
+                      " milliseconds - not waiting for " +
+                      aPendingItems);
+    return ret;
+  }
+}
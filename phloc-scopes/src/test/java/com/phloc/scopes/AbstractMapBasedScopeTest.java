@@ -0,0 +1,460 @@
+/**
+ * Copyright (C) 2006-2014 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.scopes;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.phloc.commons.callback.INonThrowingCallableWithParameter;
+import com.phloc.commons.state.EContinue;
+import com.phloc.scopes.ScopeDestructionOrderTest.MockIndependentSingleton;
+import com.phloc.scopes.ScopeDestructionOrderTest.MockLeafSingleton;
+import com.phloc.scopes.domain.IGlobalScope;
+import com.phloc.scopes.impl.GlobalScope;
+import com.phloc.scopes.mgr.ScopeManager;
+import com.phloc.scopes.singleton.GlobalSingleton;
+
+/**
+ * Test class for class {@link AbstractMapBasedScope}.
+ * 
+ * @author Philip Helger
+ */
+public final class AbstractMapBasedScopeTest
+{
+  @Test
+  public void testSingletonTypeIndex ()
+  {
+    final IGlobalScope aScope = ScopeManager.onGlobalBegin ("typeindex");
+    try
+    {
+      assertTrue (GlobalSingleton.getAllGlobalSingletons ().isEmpty ());
+
+      final MockLeafSingleton aLeaf = MockLeafSingleton.getInstance ();
+      final MockIndependentSingleton aIndependent = MockIndependentSingleton.getInstance ();
+      aScope.setAttribute ("other", "value");
+      assertEquals (2, GlobalSingleton.getAllGlobalSingletons ().size ());
+      assertEquals (2, AbstractSingleton.getAllSingletons (aScope, AbstractSingleton.class).size ());
+      final List <MockLeafSingleton> aLeafs = AbstractSingleton.getAllSingletons (aScope, MockLeafSingleton.class);
+      assertEquals (1, aLeafs.size ());
+      assertSame (aLeaf, aLeafs.get (0));
+
+      // Remove
+      aScope.removeAttribute (AbstractSingleton.getSingletonScopeKey (MockLeafSingleton.class));
+      assertTrue (AbstractSingleton.getAllSingletons (aScope, MockLeafSingleton.class).isEmpty ());
+      assertEquals (1, GlobalSingleton.getAllGlobalSingletons ().size ());
+
+      // Overwrite with a non-singleton
+      final String sKey = AbstractSingleton.getSingletonScopeKey (MockIndependentSingleton.class);
+      aScope.setAttribute ("copy", aIndependent);
+      aScope.setAttribute (sKey, "no singleton");
+      assertEquals (1, GlobalSingleton.getAllGlobalSingletons ().size ());
+      aScope.setAttribute ("copy", null);
+      assertTrue (GlobalSingleton.getAllGlobalSingletons ().isEmpty ());
+
+      // Clear
+      aScope.setAttribute ("copy", aIndependent);
+      aScope.clear ();
+      assertTrue (AbstractSingleton.getAllSingletons (aScope, AbstractSingleton.class).isEmpty ());
+    }
+    finally
+    {
+      ScopeManager.onGlobalEnd ();
+    }
+  }
+
+  @Test
+  public void testMarkerIndexes ()
+  {
+    final GlobalScope aScope = new GlobalScope ("markers");
+    aScope.setAttribute ("plain", "value");
+    aScope.setAttribute ("renew1", ScopeRenewalAwareWrapper.create ("a"));
+    aScope.setAttribute ("renew2", ScopeRenewalAwareWrapper.create ("b"));
+    assertEquals (2, aScope.getAllScopeRenewalAwareAttributes ().size ());
+    assertTrue (aScope.getAllScopeRenewalAwareAttributes ().containsKey ("renew1"));
+
+    // Overwrite and remove
+    aScope.setAttribute ("renew1", "no longer renewal aware");
+    aScope.removeAttribute ("renew2");
+    assertTrue (aScope.getAllScopeRenewalAwareAttributes ().isEmpty ());
+
+    // Only the current destruction aware objects are destroyed
+    final AtomicInteger aDestroyCount = new AtomicInteger (0);
+    final IScopeDestructionAware aDestructionAware = new IScopeDestructionAware ()
+    {
+      public void onScopeDestruction ()
+      {
+        aDestroyCount.incrementAndGet ();
+      }
+    };
+    aScope.setAttribute ("destroy1", aDestructionAware);
+    aScope.setAttribute ("destroy2", aDestructionAware);
+    aScope.setAttribute ("destroy3", aDestructionAware);
+    aScope.removeAttribute ("destroy2");
+    aScope.setAttribute ("destroy3", "value");
+    aScope.destroyScope ();
+    assertEquals (1, aDestroyCount.intValue ());
+    assertFalse (aScope.containsAttribute ("destroy1"));
+  }
+
+  private static final class MockEqualDestructionAware implements IScopeDestructionAware
+  {
+    private boolean m_bDestroyed = false;
+
+    public void onScopeDestruction ()
+    {
+      m_bDestroyed = true;
+    }
+
+    @Override
+    public boolean equals (final Object o)
+    {
+      return o instanceof MockEqualDestructionAware;
+    }
+
+    @Override
+    public int hashCode ()
+    {
+      return 0;
+    }
+  }
+
+  @Test
+  public void testMarkerIndexesWithEqualValue ()
+  {
+    final GlobalScope aScope = new GlobalScope ("markers");
+    final MockEqualDestructionAware aOld = new MockEqualDestructionAware ();
+    final MockEqualDestructionAware aNew = new MockEqualDestructionAware ();
+    assertTrue (aScope.setAttribute ("destroy", aOld).isChanged ());
+    // Stored although reported as unchanged
+    assertTrue (aScope.setAttribute ("destroy", aNew).isUnchanged ());
+    assertSame (aNew, aScope.getAttributeObject ("destroy"));
+    aScope.destroyScope ();
+    assertTrue (aNew.m_bDestroyed);
+    assertFalse (aOld.m_bDestroyed);
+  }
+
+  @Test
+  public void testSnapshot ()
+  {
+    final GlobalScope aScope = new GlobalScope ("snapshot");
+    try
+    {
+      aScope.setAttribute ("a", "1");
+      aScope.setAttribute ("b", "2");
+      final Map <String, Object> aSnapshot = aScope.getAttributeSnapshot ();
+      assertEquals (2, aSnapshot.size ());
+      // Cached until the next modification
+      assertSame (aSnapshot, aScope.getAttributeSnapshot ());
+      try
+      {
+        aSnapshot.put ("c", "3");
+        fail ();
+      }
+      catch (final UnsupportedOperationException ex)
+      {
+        // expected
+      }
+
+      aScope.setAttribute ("c", "3");
+      assertEquals (2, aSnapshot.size ());
+      final Map <String, Object> aSnapshot2 = aScope.getAttributeSnapshot ();
+      assertEquals (3, aSnapshot2.size ());
+      aScope.removeAttribute ("a");
+      assertFalse (aScope.getAttributeSnapshot ().containsKey ("a"));
+
+      // Visitor with and without snapshot
+      final AtomicInteger aCount = new AtomicInteger (0);
+      final IScopeAttributeVisitor aVisitor = new IScopeAttributeVisitor ()
+      {
+        public EContinue visitAttribute (final String sName, final Object aValue)
+        {
+          aCount.incrementAndGet ();
+          return EContinue.CONTINUE;
+        }
+      };
+      assertTrue (aScope.forEachAttribute (aVisitor).isContinue ());
+      assertEquals (2, aCount.intValue ());
+      aScope.setAttribute ("d", "4");
+      assertTrue (aScope.forEachAttribute (aVisitor).isContinue ());
+      assertEquals (5, aCount.intValue ());
+      assertTrue (aScope.forEachAttribute (new IScopeAttributeVisitor ()
+      {
+        public EContinue visitAttribute (final String sName, final Object aValue)
+        {
+          return EContinue.BREAK;
+        }
+      }).isBreak ());
+    }
+    finally
+    {
+      aScope.destroyScope ();
+    }
+  }
+
+  @Test
+  public void testCounters () throws InterruptedException
+  {
+    final GlobalScope aScope = new GlobalScope ("counters");
+    assertEquals (0, aScope.getCounterValue ("hits"));
+    assertEquals (0, aScope.getCounterValue (null));
+    assertTrue (aScope.removeCounter ("hits").isUnchanged ());
+
+    assertEquals (1, aScope.incrementAndGetCounter ("hits"));
+    assertEquals (11, aScope.addAndGetCounter ("hits", 10));
+    assertSame (aScope.getCounter ("hits"), aScope.getCounter ("hits"));
+    // Counters are no attributes
+    assertEquals (0, aScope.getAttributeCount ());
+
+    // Concurrent updates
+    final Thread [] aThreads = new Thread [4];
+    for (int i = 0; i < aThreads.length; ++i)
+    {
+      aThreads[i] = new Thread (new Runnable ()
+      {
+        public void run ()
+        {
+          for (int j = 0; j < 1000; ++j)
+            aScope.incrementAndGetCounter ("concurrent");
+        }
+      });
+      aThreads[i].start ();
+    }
+    for (final Thread aThread : aThreads)
+      aThread.join ();
+    assertEquals (4000, aScope.getCounterValue ("concurrent"));
+
+    assertTrue (aScope.removeCounter ("hits").isChanged ());
+    assertEquals (0, aScope.getCounterValue ("hits"));
+
+    aScope.destroyScope ();
+    assertEquals (0, aScope.getCounterValue ("concurrent"));
+
+    // No counters are created in a destroyed scope
+    assertEquals (0, aScope.incrementAndGetCounter ("concurrent"));
+    assertEquals (0, aScope.addAndGetCounter ("concurrent", 5));
+    assertEquals (0, aScope.getCounter ("concurrent").get ());
+    assertEquals (0, aScope.getCounterValue ("concurrent"));
+  }
+
+  @Test
+  public void testComputeAttributeIfAbsent () throws InterruptedException
+  {
+    final GlobalScope aScope = new GlobalScope ("compute");
+    final AtomicInteger aCalls = new AtomicInteger ();
+    final INonThrowingCallableWithParameter <String, String> aFactory = new INonThrowingCallableWithParameter <String, String> ()
+    {
+      public String call (final String sName)
+      {
+        aCalls.incrementAndGet ();
+        try
+        {
+          Thread.sleep (50);
+        }
+        catch (final InterruptedException ex)
+        {
+          Thread.currentThread ().interrupt ();
+        }
+        return "value-" + sName;
+      }
+    };
+
+    // All threads compete for the same attribute
+    final Thread [] aThreads = new Thread [8];
+    final String [] aResults = new String [aThreads.length];
+    for (int i = 0; i < aThreads.length; ++i)
+    {
+      final int nIndex = i;
+      aThreads[i] = new Thread (new Runnable ()
+      {
+        public void run ()
+        {
+          aResults[nIndex] = aScope.computeAttributeIfAbsent ("key", aFactory);
+        }
+      });
+      aThreads[i].start ();
+    }
+    for (final Thread aThread : aThreads)
+      aThread.join ();
+    assertEquals (1, aCalls.get ());
+    for (final String sResult : aResults)
+      assertEquals ("value-key", sResult);
+
+    // A null result is not stored
+    assertNull (aScope.computeAttributeIfAbsent ("null", new INonThrowingCallableWithParameter <Object, String> ()
+    {
+      public Object call (final String sName)
+      {
+        return null;
+      }
+    }));
+    assertFalse (aScope.containsAttribute ("null"));
+    aScope.destroyScope ();
+  }
+
+  @Test
+  public void testComputeDoesNotBlockOtherAttributes () throws InterruptedException
+  {
+    final GlobalScope aScope = new GlobalScope ("compute2");
+    aScope.setAttribute ("other", "x");
+    final CountDownLatch aStarted = new CountDownLatch (1);
+    final CountDownLatch aRelease = new CountDownLatch (1);
+    final Thread aSlow = new Thread (new Runnable ()
+    {
+      public void run ()
+      {
+        aScope.computeAttributeIfAbsent ("slow", new INonThrowingCallableWithParameter <String, String> ()
+        {
+          public String call (final String sName)
+          {
+            aStarted.countDown ();
+            try
+            {
+              aRelease.await ();
+            }
+            catch (final InterruptedException ex)
+            {
+              Thread.currentThread ().interrupt ();
+            }
+            return "slow";
+          }
+        });
+      }
+    });
+    aSlow.start ();
+    assertTrue (aStarted.await (5, TimeUnit.SECONDS));
+
+    // While the slow factory runs, other attributes are fully accessible
+    assertEquals ("x", aScope.getAttributeObject ("other"));
+    aScope.setAttribute ("another", "y");
+    assertEquals ("fast", aScope.computeAttributeIfAbsent ("fast", new INonThrowingCallableWithParameter <String, String> ()
+    {
+      public String call (final String sName)
+      {
+        return "fast";
+      }
+    }));
+    assertFalse (aScope.containsAttribute ("slow"));
+
+    aRelease.countDown ();
+    aSlow.join ();
+    assertEquals ("slow", aScope.getAttributeObject ("slow"));
+    aScope.destroyScope ();
+  }
+
+  @Test
+  public void testComputeAndMerge ()
+  {
+    final GlobalScope aScope = new GlobalScope ("compute3");
+    final IScopeAttributeFunction <Integer> aInc = new IScopeAttributeFunction <Integer> ()
+    {
+      public Integer apply (final String sName, final Integer aOldValue)
+      {
+        return Integer.valueOf (aOldValue == null ? 1 : aOldValue.intValue () + 1);
+      }
+    };
+    assertEquals (Integer.valueOf (1), aScope.computeAttribute ("n", aInc));
+    assertEquals (Integer.valueOf (2), aScope.computeAttribute ("n", aInc));
+    assertEquals (Integer.valueOf (2), aScope.getAttributeObject ("n"));
+
+    // Returning null removes the attribute
+    assertNull (aScope.computeAttribute ("n", new IScopeAttributeFunction <Integer> ()
+    {
+      public Integer apply (final String sName, final Integer aOldValue)
+      {
+        return null;
+      }
+    }));
+    assertFalse (aScope.containsAttribute ("n"));
+
+    final IScopeAttributeMerger <String> aConcat = new IScopeAttributeMerger <String> ()
+    {
+      public String merge (final String aOldValue, final String aValue)
+      {
+        return aOldValue + aValue;
+      }
+    };
+    assertEquals ("a", aScope.mergeAttribute ("s", "a", aConcat));
+    assertEquals ("ab", aScope.mergeAttribute ("s", "b", aConcat));
+    assertEquals ("ab", aScope.getAttributeObject ("s"));
+    aScope.destroyScope ();
+  }
+
+  @Test
+  public void testSlots ()
+  {
+    final IScopeKey <String> aKeyName = ScopeKey.create ("slottest.name", String.class);
+    final IScopeKey <Integer> aKeyCount = ScopeKey.create ("slottest.count", Integer.class);
+    final IScopeKey <IScopeDestructionAware> aKeyDestroy = ScopeKey.create ("slottest.destroy",
+                                                                           IScopeDestructionAware.class);
+
+    final GlobalScope aScope = new GlobalScope ("slots");
+    assertNull (aScope.getSlotValue (aKeyName));
+    assertTrue (aScope.removeSlotValue (aKeyName).isUnchanged ());
+
+    assertTrue (aScope.setSlotValue (aKeyName, "abc").isChanged ());
+    assertTrue (aScope.setSlotValue (aKeyName, "abc").isUnchanged ());
+    assertTrue (aScope.setSlotValue (aKeyCount, Integer.valueOf (5)).isChanged ());
+    assertEquals ("abc", aScope.getSlotValue (aKeyName));
+    assertEquals (Integer.valueOf (5), aScope.getSlotValue (aKeyCount));
+
+    // Independent of the attributes
+    assertEquals (0, aScope.getAttributeCount ());
+    aScope.setAttribute ("slottest.name", "def");
+    assertEquals ("abc", aScope.getSlotValue (aKeyName));
+
+    // Keys created after the slots were allocated
+    final IScopeKey <String> aLateKey = ScopeKey.create ("slottest.late", String.class);
+    assertNull (aScope.getSlotValue (aLateKey));
+    assertTrue (aScope.setSlotValue (aLateKey, "late").isChanged ());
+    assertEquals ("late", aScope.getSlotValue (aLateKey));
+    assertEquals ("abc", aScope.getSlotValue (aKeyName));
+
+    // Setting null removes
+    assertTrue (aScope.setSlotValue (aKeyCount, null).isChanged ());
+    assertNull (aScope.getSlotValue (aKeyCount));
+
+    // Destruction aware values are destroyed with the scope
+    final AtomicInteger aDestroyed = new AtomicInteger ();
+    aScope.setSlotValue (aKeyDestroy, new IScopeDestructionAware ()
+    {
+      public void onScopeDestruction ()
+      {
+        aDestroyed.incrementAndGet ();
+      }
+    });
+    aScope.destroyScope ();
+    assertEquals (1, aDestroyed.get ());
+    assertNull (aScope.getSlotValue (aKeyName));
+
+    // No slots are created in a destroyed scope
+    assertTrue (aScope.setSlotValue (aKeyName, "abc").isUnchanged ());
+    assertNull (aScope.getSlotValue (aKeyName));
+  }
+}
@@ -0,0 +1,253 @@
+/**
+ * Copyright (C) 2006-2014 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.scopes;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+
+import org.junit.Test;
+
+import com.phloc.commons.annotations.UsedViaReflection;
+import com.phloc.scopes.mgr.ScopeManager;
+import com.phloc.scopes.singleton.GlobalSingleton;
+import com.phloc.scopes.singleton.MockRequestSingleton;
+
+/**
+ * Test class for class {@link ScopeDestructionOrder}.
+ * 
+ * @author Philip Helger
+ */
+public final class ScopeDestructionOrderTest
+{
+  static final List <String> s_aDestroyed = Collections.synchronizedList (new ArrayList <String> ());
+  static volatile Thread s_aLeafDestructionThread;
+
+  /**
+   * Uses no other singleton.
+   */
+  public static final class MockLeafSingleton extends GlobalSingleton
+  {
+    @Deprecated
+    @UsedViaReflection
+    public MockLeafSingleton ()
+    {}
+
+    @Nonnull
+    public static MockLeafSingleton getInstance ()
+    {
+      return getGlobalSingleton (MockLeafSingleton.class);
+    }
+
+    @Override
+    protected void onDestroy ()
+    {
+      s_aLeafDestructionThread = Thread.currentThread ();
+      s_aDestroyed.add ("leaf");
+    }
+  }
+
+  /**
+   * Uses the leaf singleton in the constructor.
+   */
+  public static final class MockMiddleSingleton extends GlobalSingleton
+  {
+    @Deprecated
+    @UsedViaReflection
+    public MockMiddleSingleton ()
+    {
+      MockLeafSingleton.getInstance ();
+    }
+
+    @Nonnull
+    public static MockMiddleSingleton getInstance ()
+    {
+      return getGlobalSingleton (MockMiddleSingleton.class);
+    }
+
+    @Override
+    protected void onDestroy ()
+    {
+      s_aDestroyed.add ("middle");
+    }
+  }
+
+  /**
+   * Uses the middle singleton and itself after instantiation.
+   */
+  public static final class MockTopSingleton extends GlobalSingleton
+  {
+    @Deprecated
+    @UsedViaReflection
+    public MockTopSingleton ()
+    {}
+
+    @Nonnull
+    public static MockTopSingleton getInstance ()
+    {
+      return getGlobalSingleton (MockTopSingleton.class);
+    }
+
+    @Override
+    protected void onAfterInstantiation ()
+    {
+      MockMiddleSingleton.getInstance ();
+      getInstance ();
+    }
+
+    @Override
+    protected void onDestroy ()
+    {
+      s_aDestroyed.add ("top");
+    }
+  }
+
+  /**
+   * Uses no other singleton.
+   */
+  public static final class MockIndependentSingleton extends GlobalSingleton
+  {
+    @Deprecated
+    @UsedViaReflection
+    public MockIndependentSingleton ()
+    {}
+
+    @Nonnull
+    public static MockIndependentSingleton getInstance ()
+    {
+      return getGlobalSingleton (MockIndependentSingleton.class);
+    }
+
+    @Override
+    protected void onDestroy ()
+    {
+      s_aDestroyed.add ("independent");
+    }
+  }
+
+  /**
+   * Uses a request singleton in the constructor.
+   */
+  public static final class MockCrossScopeSingleton extends GlobalSingleton
+  {
+    @Deprecated
+    @UsedViaReflection
+    public MockCrossScopeSingleton ()
+    {
+      assertNotNull (MockRequestSingleton.getInstance ());
+    }
+
+    @Nonnull
+    public static MockCrossScopeSingleton getInstance ()
+    {
+      return getGlobalSingleton (MockCrossScopeSingleton.class);
+    }
+  }
+
+  private static void _testDestructionOrder ()
+  {
+    s_aDestroyed.clear ();
+    ScopeManager.onGlobalBegin ("destructionorder");
+    try
+    {
+      // Create in the "wrong" order
+      MockLeafSingleton.getInstance ();
+      MockIndependentSingleton.getInstance ();
+      final MockTopSingleton aTop = MockTopSingleton.getInstance ();
+      assertEquals (Arrays.asList (MockMiddleSingleton.getInstance ()), aTop.getAllDependencies ());
+      assertEquals (Arrays.asList (MockLeafSingleton.getInstance ()),
+                    MockMiddleSingleton.getInstance ().getAllDependencies ());
+      assertTrue (MockLeafSingleton.getInstance ().getAllDependencies ().isEmpty ());
+
+      // top, independent - middle - leaf
+      final List <List <IScopeDestructionAware>> aLevels = ScopeDestructionOrder.getDestructionLevels (GlobalSingleton.getAllGlobalSingletons ());
+      assertEquals (3, aLevels.size ());
+      assertEquals (2, aLevels.get (0).size ());
+      assertEquals (Arrays.asList (MockMiddleSingleton.getInstance ()), aLevels.get (1));
+      assertEquals (Arrays.asList (MockLeafSingleton.getInstance ()), aLevels.get (2));
+    }
+    finally
+    {
+      ScopeManager.onGlobalEnd ();
+    }
+
+    assertEquals (4, s_aDestroyed.size ());
+    assertTrue (s_aDestroyed.indexOf ("top") < s_aDestroyed.indexOf ("middle"));
+    assertTrue (s_aDestroyed.indexOf ("middle") < s_aDestroyed.indexOf ("leaf"));
+    assertTrue (s_aDestroyed.indexOf ("independent") < s_aDestroyed.indexOf ("middle"));
+  }
+
+  @Test
+  public void testSerialDestruction ()
+  {
+    _testDestructionOrder ();
+  }
+
+  @Test
+  public void testParallelDestruction ()
+  {
+    ScopeUtils.setSingletonDestructionThreads (4);
+    try
+    {
+      _testDestructionOrder ();
+      // Levels with a single singleton are destroyed in the calling thread
+      assertSame (Thread.currentThread (), s_aLeafDestructionThread);
+    }
+    finally
+    {
+      ScopeUtils.setSingletonDestructionThreads (ScopeUtils.DEFAULT_SINGLETON_DESTRUCTION_THREADS);
+    }
+  }
+
+  @Test
+  public void testCrossScopeDependency ()
+  {
+    ScopeManager.onGlobalBegin ("destructionorder");
+    try
+    {
+      ScopeManager.onRequestBegin ("appid", "scopeid", "sessionid");
+      try
+      {
+        // Request singletons are not kept by the global singleton
+        assertTrue (MockCrossScopeSingleton.getInstance ().getAllDependencies ().isEmpty ());
+      }
+      finally
+      {
+        ScopeManager.onRequestEnd ();
+      }
+    }
+    finally
+    {
+      ScopeManager.onGlobalEnd ();
+    }
+  }
+
+  @Test
+  public void testEmpty ()
+  {
+    assertTrue (ScopeDestructionOrder.getDestructionLevels (new ArrayList <IScopeDestructionAware> ()).isEmpty ());
+  }
+}
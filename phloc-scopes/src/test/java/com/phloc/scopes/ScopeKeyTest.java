@@ -0,0 +1,58 @@
+/**
+ * Copyright (C) 2006-2014 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.scopes;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+/**
+ * Test class for class {@link ScopeKey}.
+ * 
+ * @author Philip Helger
+ */
+public final class ScopeKeyTest
+{
+  @Test
+  public void testCreate ()
+  {
+    final ScopeKey <String> aKey1 = ScopeKey.create ("keytest.1", String.class);
+    final ScopeKey <String> aKey2 = ScopeKey.create ("keytest.2", String.class);
+    assertNotSame (aKey1, aKey2);
+    assertEquals ("keytest.1", aKey1.getName ());
+    assertEquals (String.class, aKey1.getValueClass ());
+    assertTrue (aKey1.getIndex () != aKey2.getIndex ());
+    assertTrue (aKey2.getIndex () < ScopeKey.getKeyCount ());
+
+    // Same name returns the same key
+    assertSame (aKey1, ScopeKey.create ("keytest.1", String.class));
+
+    try
+    {
+      // Same name but different type
+      ScopeKey.create ("keytest.1", Integer.class);
+      fail ();
+    }
+    catch (final IllegalArgumentException ex)
+    {}
+  }
+}
@@ -0,0 +1,82 @@
+/**
+ * Copyright (C) 2006-2014 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.scopes;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Test class for class {@link ScopeUtils}.
+ * 
+ * @author Philip Helger
+ */
+public final class ScopeUtilsTest
+{
+  private static final Logger s_aLogger = LoggerFactory.getLogger (ScopeUtilsTest.class);
+
+  @Test
+  public void testDebugFlags ()
+  {
+    final boolean bOldLifeCycle = ScopeUtils.isLifeCycleDebuggingEnabled ();
+    final boolean bOldSession = ScopeUtils.isDebugSessionScopeEnabled ();
+    final boolean bOldStackTrace = ScopeUtils.isDebugWithStackTrace ();
+    try
+    {
+      ScopeUtils.setLifeCycleDebuggingEnabled (false);
+      ScopeUtils.setDebugSessionScopeEnabled (false);
+      ScopeUtils.setDebugWithStackTrace (false);
+      assertFalse (ScopeUtils.isLifeCycleDebuggingEnabled ());
+      assertFalse (ScopeUtils.isDebugSessionScopeEnabled ());
+      assertNull (ScopeUtils.getDebugStackTrace ());
+
+      // Enable a single scope type
+      ScopeUtils.setDebugSessionScopeEnabled (true);
+      assertTrue (ScopeUtils.isDebugSessionScopeEnabled ());
+      assertFalse (ScopeUtils.isLifeCycleDebuggingEnabled ());
+      if (s_aLogger.isInfoEnabled ())
+        assertTrue (ScopeUtils.debugSessionScopeLifeCycle (s_aLogger));
+      ScopeUtils.setDebugSessionScopeEnabled (false);
+      assertFalse (ScopeUtils.debugSessionScopeLifeCycle (s_aLogger));
+
+      // Enable all scope types
+      ScopeUtils.setLifeCycleDebuggingEnabled (true);
+      assertTrue (ScopeUtils.isLifeCycleDebuggingEnabled ());
+      assertFalse (ScopeUtils.isDebugSessionScopeEnabled ());
+      if (s_aLogger.isInfoEnabled ())
+      {
+        assertTrue (ScopeUtils.debugGlobalScopeLifeCycle (s_aLogger));
+        assertTrue (ScopeUtils.debugRequestScopeLifeCycle (s_aLogger));
+      }
+
+      ScopeUtils.setDebugWithStackTrace (true);
+      assertNotNull (ScopeUtils.getDebugStackTrace ());
+    }
+    finally
+    {
+      ScopeUtils.setLifeCycleDebuggingEnabled (bOldLifeCycle);
+      ScopeUtils.setDebugSessionScopeEnabled (bOldSession);
+      ScopeUtils.setDebugWithStackTrace (bOldStackTrace);
+    }
+  }
+}
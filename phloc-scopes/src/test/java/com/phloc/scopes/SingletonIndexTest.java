@@ -0,0 +1,61 @@
+/**
+ * Copyright (C) 2006-2014 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.scopes;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.phloc.scopes.singleton.GlobalSingleton;
+import com.phloc.scopes.singleton.MockGlobalSingleton;
+import com.phloc.scopes.singleton.MockSessionSingleton;
+
+/**
+ * Test class for class {@link SingletonIndex}. The index is generated by the
+ * singleton index processor while compiling the test classes.
+ * 
+ * @author Philip Helger
+ */
+public final class SingletonIndexTest
+{
+  @Test
+  public void testIndex ()
+  {
+    assertTrue (SingletonIndex.isIndexed (MockGlobalSingleton.class));
+    assertTrue (SingletonIndex.isIndexed (MockSessionSingleton.class));
+    assertFalse (SingletonIndex.isIndexed (null));
+    assertTrue (SingletonIndex.getAllIndexedSingletonClasses ().contains (MockGlobalSingleton.class));
+    assertTrue (SingletonIndex.getAllIndexedSingletonClasses (GlobalSingleton.class).contains (MockGlobalSingleton.class));
+    assertFalse (SingletonIndex.getAllIndexedSingletonClasses (GlobalSingleton.class)
+                               .contains (MockSessionSingleton.class));
+
+    // Precomputed key must match the calculated key
+    assertEquals (AbstractSingleton.SCOPE_KEY_PREFIX + MockGlobalSingleton.class.getName (),
+                  SingletonIndex.getSingletonScopeKey (MockGlobalSingleton.class));
+    assertEquals (AbstractSingleton.SCOPE_KEY_PREFIX + ScopeDestructionOrderTest.MockLeafSingleton.class.getName (),
+                  AbstractSingleton.getSingletonScopeKey (ScopeDestructionOrderTest.MockLeafSingleton.class));
+
+    // Not indexed - abstract
+    assertFalse (SingletonIndex.isIndexed (GlobalSingleton.class));
+    assertNull (SingletonIndex.getSingletonScopeKey (GlobalSingleton.class));
+    assertNull (SingletonIndex.createSingleton (GlobalSingleton.class));
+  }
+}
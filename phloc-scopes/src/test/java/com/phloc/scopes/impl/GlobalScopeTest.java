@@ -19,12 +19,23 @@ package com.phloc.scopes.impl;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
 import org.junit.Test;
 
 import com.phloc.commons.mutable.MutableBoolean;
 import com.phloc.scopes.IScopeDestructionAware;
+import com.phloc.scopes.ScopeUtils;
+import com.phloc.scopes.domain.IApplicationScope;
+import com.phloc.scopes.mgr.EScope;
+import com.phloc.scopes.stats.ScopeLifeCycleMetrics;
 
 /**
  * Test class for class {@link GlobalScope}.
@@ -68,4 +79,142 @@ public final class GlobalScopeTest
     // Did the scope destruction aware class trigger?
     assertTrue (aDestroyed.booleanValue ());
   }
+
+  @Test
+  public void testConcurrentApplicationScopeCreation () throws InterruptedException
+  {
+    final GlobalScope aGS = new GlobalScope ("test");
+    try
+    {
+      final long nPrevCreated = ScopeLifeCycleMetrics.getCreatedScopeCount (EScope.APPLICATION);
+      final int nThreads = 10;
+      final IApplicationScope [] aResults = new IApplicationScope [nThreads];
+      final CountDownLatch aStart = new CountDownLatch (1);
+      final Thread [] aThreads = new Thread [nThreads];
+      for (int i = 0; i < nThreads; ++i)
+      {
+        final int nIndex = i;
+        aThreads[i] = new Thread (new Runnable ()
+        {
+          public void run ()
+          {
+            try
+            {
+              aStart.await ();
+              aResults[nIndex] = aGS.getApplicationScope ("app", true);
+            }
+            catch (final InterruptedException ex)
+            {
+              Thread.currentThread ().interrupt ();
+            }
+          }
+        });
+        aThreads[i].start ();
+      }
+      aStart.countDown ();
+      for (final Thread aThread : aThreads)
+        aThread.join ();
+
+      // All threads got the same scope and the SPIs were invoked only once
+      assertNotNull (aResults[0]);
+      for (final IApplicationScope aResult : aResults)
+        assertSame (aResults[0], aResult);
+      assertEquals (nPrevCreated + 1, ScopeLifeCycleMetrics.getCreatedScopeCount (EScope.APPLICATION));
+      assertEquals (1, aGS.getApplicationScopeCount ());
+      assertSame (aResults[0], aGS.getApplicationScope ("app", false));
+      assertNull (aGS.getApplicationScope ("app2", false));
+    }
+    finally
+    {
+      aGS.destroyScope ();
+    }
+    assertEquals (0, aGS.getApplicationScopeCount ());
+  }
+
+  @Test
+  public void testParallelDestruction ()
+  {
+    final int nOldThreads = ScopeUtils.getOwnedScopeDestructionThreads ();
+    ScopeUtils.setOwnedScopeDestructionThreads (4);
+    try
+    {
+      final GlobalScope aGS = new GlobalScope ("test");
+      final List <IApplicationScope> aAppScopes = new ArrayList <IApplicationScope> ();
+      for (int i = 0; i < 10; ++i)
+        aAppScopes.add (aGS.getApplicationScope ("app" + i, true));
+      assertEquals (10, aGS.getApplicationScopeCount ());
+
+      aGS.destroyScope ();
+      assertEquals (0, aGS.getApplicationScopeCount ());
+      for (final IApplicationScope aAppScope : aAppScopes)
+        assertTrue (aAppScope.isDestroyed ());
+    }
+    finally
+    {
+      ScopeUtils.setOwnedScopeDestructionThreads (nOldThreads);
+    }
+  }
+
+  @Test
+  public void testDestructionOutsideOfLock () throws InterruptedException
+  {
+    final GlobalScope aGS = new GlobalScope ("test");
+    final IApplicationScope aAppScope = aGS.getApplicationScope ("app", true);
+    final MutableBoolean aWriteSucceeded = new MutableBoolean (false);
+    final MutableBoolean aStillResolvable = new MutableBoolean (false);
+    aAppScope.setAttribute ("destructionaware", new IScopeDestructionAware ()
+    {
+      public void onScopeDestruction () throws InterruptedException
+      {
+        // The application scope can still be resolved while it is destroyed
+        aStillResolvable.set (aGS.getApplicationScope ("app", false) == aAppScope);
+
+        // Another thread must be able to modify the global scope
+        final Thread aThread = new Thread (new Runnable ()
+        {
+          public void run ()
+          {
+            aWriteSucceeded.set (aGS.setAttribute ("key", "value").isChanged ());
+          }
+        });
+        aThread.start ();
+        aThread.join (5000);
+      }
+    });
+
+    aGS.destroyScope ();
+    assertTrue (aAppScope.isDestroyed ());
+    assertTrue (aStillResolvable.booleanValue ());
+    assertTrue (aWriteSucceeded.booleanValue ());
+    assertNull (aGS.getApplicationScope ("app", false));
+  }
+
+  @Test
+  public void testNoCreationInDestruction ()
+  {
+    final GlobalScope aGS = new GlobalScope ("test");
+    final IApplicationScope aAppScope = aGS.getApplicationScope ("app", true);
+    final MutableBoolean aCreated = new MutableBoolean (true);
+    aAppScope.setAttribute ("destructionaware", new IScopeDestructionAware ()
+    {
+      public void onScopeDestruction () throws InterruptedException
+      {
+        // Another thread tries to create a new application scope
+        final Thread aThread = new Thread (new Runnable ()
+        {
+          public void run ()
+          {
+            aCreated.set (aGS.getApplicationScope ("other", true) != null);
+          }
+        });
+        aThread.start ();
+        aThread.join (5000);
+      }
+    });
+
+    aGS.destroyScope ();
+    assertFalse (aCreated.booleanValue ());
+    assertEquals (0, aGS.getApplicationScopeCount ());
+    assertNull (aGS.getApplicationScope ("other", true));
+  }
 }
@@ -18,10 +18,23 @@
 package com.phloc.scopes.impl;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Map;
 
 import org.junit.Test;
 
+import com.phloc.commons.mutable.MutableBoolean;
+import com.phloc.scopes.IScopeDestructionAware;
+import com.phloc.scopes.IScopeEvictable;
+import com.phloc.scopes.IScopeSizeAware;
+import com.phloc.scopes.domain.ISessionApplicationScope;
+
 /**
  * Test class for class {@link SessionScope}.
  * 
@@ -44,4 +57,156 @@ public final class SessionScopeTest
       aScope.destroyScope ();
     }
   }
+
+  @Test
+  public void testSessionApplicationScopes ()
+  {
+    final SessionScope aScope = new SessionScope ("test");
+    try
+    {
+      assertNull (aScope.getSessionApplicationScope ("app", false));
+      final ISessionApplicationScope aAppScope = aScope.getSessionApplicationScope ("app", true);
+      assertNotNull (aAppScope);
+      assertEquals ("test.app", aAppScope.getID ());
+      assertSame (aAppScope, aScope.getSessionApplicationScope ("app", false));
+      assertSame (aAppScope, aScope.getSessionApplicationScope ("app", true));
+      assertEquals (1, aScope.getSessionApplicationScopeCount ());
+
+      // Restore
+      final ISessionApplicationScope aRestored = new SessionApplicationScope ("test.app2");
+      aScope.restoreSessionApplicationScope ("test.app2", aRestored);
+      assertSame (aRestored, aScope.getSessionApplicationScope ("app2", false));
+      try
+      {
+        aScope.restoreSessionApplicationScope ("test.app2", new SessionApplicationScope ("test.app2"));
+        fail ();
+      }
+      catch (final IllegalArgumentException ex)
+      {}
+
+      // Indexed by scope ID
+      final Map <String, ISessionApplicationScope> aAll = aScope.getAllSessionApplicationScopes ();
+      assertEquals (2, aAll.size ());
+      assertSame (aAppScope, aAll.get ("test.app"));
+      assertSame (aRestored, aAll.get ("test.app2"));
+    }
+    finally
+    {
+      aScope.destroyScope ();
+    }
+    assertEquals (0, aScope.getSessionApplicationScopeCount ());
+  }
+
+  @Test
+  public void testNoCreationInDestruction ()
+  {
+    final SessionScope aScope = new SessionScope ("test");
+    final ISessionApplicationScope aAppScope = aScope.getSessionApplicationScope ("app", true);
+    final MutableBoolean aCreated = new MutableBoolean (true);
+    aAppScope.setAttribute ("destructionaware", new IScopeDestructionAware ()
+    {
+      public void onScopeDestruction () throws InterruptedException
+      {
+        // Another thread tries to create a new session application scope
+        final Thread aThread = new Thread (new Runnable ()
+        {
+          public void run ()
+          {
+            aCreated.set (aScope.getSessionApplicationScope ("other", true) != null);
+          }
+        });
+        aThread.start ();
+        aThread.join (5000);
+      }
+    });
+
+    aScope.destroyScope ();
+    assertFalse (aCreated.booleanValue ());
+    assertEquals (0, aScope.getSessionApplicationScopeCount ());
+    assertNull (aScope.getSessionApplicationScope ("other", true));
+  }
+
+  private static final class MockSized implements IScopeSizeAware
+  {
+    private final long m_nSize;
+
+    MockSized (final long nSize)
+    {
+      m_nSize = nSize;
+    }
+
+    public long getEstimatedSizeInBytes ()
+    {
+      return m_nSize;
+    }
+  }
+
+  private static final class MockEvictable implements IScopeSizeAware, IScopeEvictable
+  {
+    public long getEstimatedSizeInBytes ()
+    {
+      return 400;
+    }
+  }
+
+  @Test
+  public void testMemoryBudget ()
+  {
+    final SessionScope aScope = new SessionScope ("test");
+    try
+    {
+      // No budget - no accounting
+      assertTrue (aScope.setAttribute ("a", new MockSized (2000)).isChanged ());
+      assertEquals (0, aScope.getUsedMemoryBytes ());
+
+      // Reject
+      aScope.setMemoryBudget (1000, ESessionBudgetPolicy.REJECT);
+      assertEquals (2000, aScope.getUsedMemoryBytes ());
+      assertTrue (aScope.removeAttribute ("a").isChanged ());
+      assertEquals (0, aScope.getUsedMemoryBytes ());
+      assertTrue (aScope.setAttribute ("a", new MockSized (600)).isChanged ());
+      assertTrue (aScope.setAttribute ("b", new MockSized (600)).isUnchanged ());
+      assertFalse (aScope.containsAttribute ("b"));
+      assertEquals (600, aScope.getUsedMemoryBytes ());
+      // Replacing an attribute only accounts the difference
+      assertTrue (aScope.setAttribute ("a", new MockSized (900)).isChanged ());
+      assertEquals (900, aScope.getUsedMemoryBytes ());
+
+      // Evict
+      aScope.clear ();
+      assertEquals (0, aScope.getUsedMemoryBytes ());
+      aScope.setMemoryBudget (1000, ESessionBudgetPolicy.EVICT);
+      assertTrue (aScope.setAttribute ("cache", new MockEvictable ()).isChanged ());
+      assertTrue (aScope.setAttribute ("a", new MockSized (500)).isChanged ());
+      assertTrue (aScope.setAttribute ("b", new MockSized (300)).isChanged ());
+      assertFalse (aScope.containsAttribute ("cache"));
+      assertEquals (800, aScope.getUsedMemoryBytes ());
+      // Nothing left to evict
+      assertTrue (aScope.setAttribute ("c", new MockSized (300)).isUnchanged ());
+
+      // Evicting is not sufficient - existing attributes are kept
+      assertTrue (aScope.removeAttribute ("b").isChanged ());
+      assertTrue (aScope.setAttribute ("cache", new MockEvictable ()).isChanged ());
+      assertEquals (900, aScope.getUsedMemoryBytes ());
+      assertTrue (aScope.setAttribute ("c", new MockSized (600)).isUnchanged ());
+      assertFalse (aScope.containsAttribute ("c"));
+      assertTrue (aScope.containsAttribute ("cache"));
+      assertEquals (900, aScope.getUsedMemoryBytes ());
+      assertTrue (aScope.removeAttribute ("cache").isChanged ());
+      assertTrue (aScope.setAttribute ("b", new MockSized (300)).isChanged ());
+
+      // Log only
+      aScope.setMemoryBudget (1000, ESessionBudgetPolicy.LOG);
+      assertTrue (aScope.setAttribute ("c", new MockSized (300)).isChanged ());
+      assertEquals (1100, aScope.getUsedMemoryBytes ());
+
+      // Estimated attribute
+      aScope.setAttribute ("bytes", new byte [1000]);
+      assertTrue (aScope.getUsedMemoryBytes () >= 2100);
+    }
+    finally
+    {
+      aScope.destroyScope ();
+    }
+  }
 }
@@ -18,6 +18,8 @@
 package com.phloc.scopes.mgr;
 
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 
 import org.junit.Rule;
 import org.junit.Test;
@@ -48,4 +50,25 @@ public final class EScopeTest
       assertNotNull (EScope.getScope (eScope, true));
     }
   }
+
+  @Test
+  public void testGetScopeOrNull ()
+  {
+    // Request scope present
+    for (final EScope eScope : EScope.values ())
+      assertSame (eScope.getScope (false), eScope.getScopeOrNull ());
+    for (final EScope eScope : EScope.values ())
+    {
+      eScope.getScope (true);
+      assertSame (eScope.getScope (false), eScope.getScopeOrNull ());
+    }
+
+    // No request scope present - no exception
+    ScopeManager.onRequestEnd ();
+    assertNotNull (EScope.GLOBAL.getScopeOrNull ());
+    assertNull (EScope.APPLICATION.getScopeOrNull ());
+    assertNull (EScope.SESSION.getScopeOrNull ());
+    assertNull (EScope.SESSION_APPLICATION.getScopeOrNull ());
+    assertNull (EScope.REQUEST.getScopeOrNull ());
+  }
 }
@@ -0,0 +1,138 @@
+/**
+ * Copyright (C) 2006-2014 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.scopes.mgr;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+
+import com.phloc.scopes.IScopeDestructionAware;
+import com.phloc.scopes.ScopeRenewalAwareWrapper;
+import com.phloc.scopes.domain.ISessionApplicationScope;
+import com.phloc.scopes.domain.ISessionScope;
+import com.phloc.scopes.impl.SessionScope;
+import com.phloc.scopes.mock.ScopeTestRule;
+
+/**
+ * Test class for class {@link ScopeSessionManager}.
+ * 
+ * @author Philip Helger
+ */
+public final class ScopeSessionManagerTest
+{
+  @Rule
+  public final TestRule m_aScopeRule = new ScopeTestRule ();
+
+  @Test
+  public void testRenewSession ()
+  {
+    final ScopeSessionManager aSSM = ScopeSessionManager.getInstance ();
+    final ISessionScope aOldScope = new SessionScope ("old");
+    aSSM.onScopeBegin (aOldScope);
+
+    final ScopeRenewalAwareWrapper <String> aRenewalAware = ScopeRenewalAwareWrapper.create ("user");
+    aOldScope.setAttribute ("user", aRenewalAware);
+    aOldScope.setAttribute ("plain", "value");
+    final ISessionApplicationScope aOldAppScope = aOldScope.getSessionApplicationScope ("app1", true);
+    final ScopeRenewalAwareWrapper <String> aAppRenewalAware = ScopeRenewalAwareWrapper.create ("cart");
+    aOldAppScope.setAttribute ("cart", aAppRenewalAware);
+    aOldAppScope.setAttribute ("plain", "value");
+    aOldScope.getSessionApplicationScope ("app2", true).setAttribute ("plain", "value");
+
+    // The old ID stays resolvable until the old scope is destroyed
+    final AtomicReference <ISessionScope> aScopeInDestruction = new AtomicReference <ISessionScope> ();
+    aOldScope.setAttribute ("watcher", new IScopeDestructionAware ()
+    {
+      public void onScopeDestruction ()
+      {
+        aScopeInDestruction.set (aSSM.getSessionScopeOfID ("old"));
+      }
+    });
+
+    // New ID in use
+    try
+    {
+      aSSM.renewSession ("old", "old");
+      fail ();
+    }
+    catch (final IllegalArgumentException ex)
+    {
+      // expected
+    }
+    assertTrue (aOldScope.isValid ());
+
+    // Unknown session
+    assertNull (aSSM.renewSession ("unknown", "new"));
+
+    final ISessionScope aNewScope = aSSM.renewSession ("old", "new");
+    assertNotNull (aNewScope);
+    assertEquals ("new", aNewScope.getID ());
+    assertSame (aNewScope, aSSM.getSessionScopeOfID ("new"));
+    assertNull (aSSM.getSessionScopeOfID ("old"));
+    assertSame (aOldScope, aScopeInDestruction.get ());
+    assertEquals (1, aSSM.getSessionCount ());
+
+    // Moved by reference
+    assertSame (aRenewalAware, aNewScope.getAttributeObject ("user"));
+    assertFalse (aNewScope.containsAttribute ("plain"));
+    assertEquals (1, aNewScope.getSessionApplicationScopeCount ());
+    final ISessionApplicationScope aNewAppScope = aNewScope.getSessionApplicationScope ("app1", false);
+    assertNotNull (aNewAppScope);
+    assertSame (aAppRenewalAware, aNewAppScope.getAttributeObject ("cart"));
+    assertFalse (aNewAppScope.containsAttribute ("plain"));
+
+    // Old scope is gone
+    assertTrue (aOldScope.isDestroyed ());
+    assertTrue (aOldAppScope.isDestroyed ());
+
+    aSSM.onScopeEnd (aNewScope);
+    assertEquals (0, aSSM.getSessionCount ());
+  }
+
+  @Test
+  public void testRenewSessionOfCurrentRequest ()
+  {
+    final ScopeSessionManager aSSM = ScopeSessionManager.getInstance ();
+    final ISessionScope aOldScope = ScopeManager.getSessionScope (true);
+    final String sOldSessionID = aOldScope.getID ();
+    assertEquals (sOldSessionID, ScopeManager.getRequestSessionID (ScopeManager.getRequestScope (), false));
+
+    final ISessionScope aNewScope = aSSM.renewSession (sOldSessionID, "renewed");
+    assertNotNull (aNewScope);
+
+    // The current request uses the new session and no further session is
+    // created
+    assertEquals ("renewed", ScopeManager.getRequestSessionID (ScopeManager.getRequestScope (), false));
+    assertSame (aNewScope, ScopeManager.getSessionScope (true));
+    assertNull (aSSM.getSessionScopeOfID (sOldSessionID));
+    assertEquals (1, aSSM.getSessionCount ());
+
+    aSSM.onScopeEnd (aNewScope);
+    assertEquals (0, aSSM.getSessionCount ());
+  }
+}
@@ -0,0 +1,118 @@
+/**
+ * Copyright (C) 2006-2014 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.scopes.singleton;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.phloc.commons.annotations.UsedViaReflection;
+import com.phloc.scopes.AbstractSingleton;
+import com.phloc.scopes.mgr.ScopeManager;
+
+/**
+ * Test class for class {@link SingletonWarmUp}.
+ * 
+ * @author Philip Helger
+ */
+public final class SingletonWarmUpTest
+{
+  /**
+   * Global singleton used for the warm-up
+   */
+  public static final class MockWarmUpGlobalSingleton extends GlobalSingleton
+  {
+    @Deprecated
+    @UsedViaReflection
+    public MockWarmUpGlobalSingleton ()
+    {}
+  }
+
+  /**
+   * Application singleton used for the warm-up
+   */
+  public static final class MockWarmUpApplicationSingleton extends ApplicationSingleton
+  {
+    // Instantiated without a request scope
+    final boolean m_bNoRequestScope = ScopeManager.getRequestScopeOrNull () == null;
+
+    @Deprecated
+    @UsedViaReflection
+    public MockWarmUpApplicationSingleton ()
+    {}
+  }
+
+  @After
+  public void after ()
+  {
+    SingletonWarmUp.unregisterAll ();
+  }
+
+  @Test
+  public void testNothingRegistered () throws InterruptedException
+  {
+    assertFalse (SingletonWarmUp.isReady ());
+    ScopeManager.onGlobalBegin ("warmup");
+    try
+    {
+      assertTrue (SingletonWarmUp.awaitReady (10, TimeUnit.SECONDS));
+      assertTrue (SingletonWarmUp.isReady ());
+    }
+    finally
+    {
+      ScopeManager.onGlobalEnd ();
+    }
+    assertFalse (SingletonWarmUp.isReady ());
+  }
+
+  @Test
+  public void testWarmUp () throws InterruptedException
+  {
+    SingletonWarmUp.registerGlobalSingleton (MockWarmUpGlobalSingleton.class);
+    SingletonWarmUp.registerApplicationSingleton ("app1", MockWarmUpApplicationSingleton.class);
+    SingletonWarmUp.registerApplicationSingleton ("app2", MockWarmUpApplicationSingleton.class);
+
+    ScopeManager.onGlobalBegin ("warmup");
+    try
+    {
+      assertTrue (SingletonWarmUp.awaitReady (10, TimeUnit.SECONDS));
+      assertTrue (GlobalSingleton.isGlobalSingletonInstantiated (MockWarmUpGlobalSingleton.class));
+      final String sKey = AbstractSingleton.getSingletonScopeKey (MockWarmUpApplicationSingleton.class);
+      final MockWarmUpApplicationSingleton aSingleton1 = (MockWarmUpApplicationSingleton) ScopeManager.getApplicationScope ("app1",
+                                                                                                                         false)
+                                                                                                     .getAttributeObject (sKey);
+      assertNotNull (aSingleton1);
+      assertTrue (aSingleton1.m_bNoRequestScope);
+      final MockWarmUpApplicationSingleton aSingleton2 = (MockWarmUpApplicationSingleton) ScopeManager.getApplicationScope ("app2",
+                                                                                                                         false)
+                                                                                                     .getAttributeObject (sKey);
+      assertNotNull (aSingleton2);
+      assertTrue (aSingleton2.m_bNoRequestScope);
+    }
+    finally
+    {
+      ScopeManager.onGlobalEnd ();
+    }
+    assertFalse (SingletonWarmUp.isReady ());
+  }
+}
@@ -0,0 +1,82 @@
+/**
+ * Copyright (C) 2006-2014 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.scopes.singleton.tree;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import javax.annotation.Nonnull;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+
+import com.phloc.commons.callback.INonThrowingRunnableWithParameter;
+import com.phloc.scopes.mock.ScopeTestRule;
+import com.phloc.scopes.singleton.GlobalSingleton;
+
+/**
+ * Test class for class {@link GlobalSingletonSnapshotTree}.
+ * 
+ * @author Philip Helger
+ */
+public final class GlobalSingletonSnapshotTreeTest
+{
+  @Rule
+  public final TestRule m_aScopeRule = new ScopeTestRule ();
+
+  @Test
+  public void testBasic ()
+  {
+    assertFalse (GlobalSingleton.isGlobalSingletonInstantiated (MockGlobalSingletonSnapshotTree.class));
+    final MockGlobalSingletonSnapshotTree a = MockGlobalSingletonSnapshotTree.getInstance ();
+    assertNotNull (a);
+    assertSame (a, MockGlobalSingletonSnapshotTree.getInstance ());
+
+    final TreeSnapshot <String, String> aEmpty = a.getSnapshot ();
+    assertEquals (0, aEmpty.getItemCount ());
+    a.update (new INonThrowingRunnableWithParameter <TreeSnapshotBuilder <String, String>> ()
+    {
+      public void run (@Nonnull final TreeSnapshotBuilder <String, String> aBuilder)
+      {
+        aBuilder.addItem (null, "id1", "value1").addItem ("id1", "id2", "value2");
+      }
+    });
+    assertEquals (2, a.getAllItems ().size ());
+    assertTrue (a.containsItemWithID ("id2"));
+    assertEquals ("value1", a.getItemDataWithID ("id1"));
+    assertEquals ("id1", a.getItemWithID ("id2").getParent ().getID ());
+    assertTrue (a.isItemSameOrDescendant ("id1", "id2"));
+    assertFalse (a.isItemSameOrDescendant ("id2", "id1"));
+
+    // The old snapshot is unchanged
+    assertEquals (0, aEmpty.getItemCount ());
+    assertEquals (1, a.getSnapshot ().getVersion ());
+
+    // Bulk loading continues the version sequence
+    final TreeSnapshot <String, String> aLoaded = a.bulkLoad (new TreeBulkLoader <String, String> (1).addItem (null,
+                                                                                                              "id3",
+                                                                                                              "value3"));
+    assertEquals (2, aLoaded.getVersion ());
+    assertSame (aLoaded, a.getSnapshot ());
+    assertEquals (1, a.getAllItems ().size ());
+  }
+}
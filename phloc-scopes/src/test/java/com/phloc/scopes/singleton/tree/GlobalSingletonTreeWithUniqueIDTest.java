@@ -23,6 +23,7 @@ import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import org.junit.Rule;
 import org.junit.Test;
@@ -75,4 +76,41 @@ public final class GlobalSingletonTreeWithUniqueIDTest
     assertEquals (2, a.getAllItemDatas ().size ());
     assertTrue (a.removeItemWithID ("id2").isChanged ());
   }
+
+  @Test
+  public void testBulkLoad ()
+  {
+    final MockGlobalSingletonTreeWithUniqueID a = MockGlobalSingletonTreeWithUniqueID.getInstance ();
+    a.bulkLoad (new TreeBulkLoader <String, String> (3).addItem ("id1", "id2", "value2")
+                                                       .addItem (null, "id1", "value1")
+                                                       .addItem ("id2", "id3", "value3"));
+    assertEquals (3, a.getAllItems ().size ());
+    assertEquals ("value3", a.getItemDataWithID ("id3"));
+    assertTrue (a.isItemSameOrDescendant ("id1", "id3"));
+
+    try
+    {
+      // Duplicate ID within the loader
+      a.bulkLoad (new TreeBulkLoader <String, String> (2).addItem (null, "id4", "value4")
+                                                         .addItem ("id4", "id4", "value4"));
+      fail ();
+    }
+    catch (final IllegalStateException ex)
+    {}
+
+    try
+    {
+      // ID already contained in the tree
+      a.bulkLoad (new TreeBulkLoader <String, String> (2).addItem (null, "id5", "value5")
+                                                         .addItem ("id5", "id2", "value2"));
+      fail ();
+    }
+    catch (final IllegalArgumentException ex)
+    {}
+
+    // Nothing was added
+    assertEquals (3, a.getAllItems ().size ());
+    assertFalse (a.containsItemWithID ("id4"));
+    assertFalse (a.containsItemWithID ("id5"));
+  }
 }
@@ -0,0 +1,259 @@
+/**
+ * Copyright (C) 2006-2014 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.scopes.singleton.tree;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.annotation.Nonnull;
+
+import org.junit.Test;
+
+import com.phloc.commons.callback.INonThrowingRunnableWithParameter;
+
+/**
+ * Test class for class {@link SnapshotTree}.
+ * 
+ * @author Philip Helger
+ */
+public final class SnapshotTreeTest
+{
+  @Test
+  public void testBuilder ()
+  {
+    final TreeSnapshotBuilder <String, String> aBuilder = new TreeSnapshotBuilder <String, String> ();
+    assertFalse (aBuilder.isChanged ());
+    aBuilder.addItem (null, "a", "A").addItem ("a", "b", "B").addItem ("b", "c", "C").addItem (null, "d", "D");
+    assertTrue (aBuilder.isChanged ());
+    assertEquals (4, aBuilder.getItemCount ());
+
+    try
+    {
+      aBuilder.addItem ("x", "y", "Y");
+      fail ();
+    }
+    catch (final IllegalArgumentException ex)
+    {}
+    try
+    {
+      aBuilder.addItem (null, "c", "C");
+      fail ();
+    }
+    catch (final IllegalArgumentException ex)
+    {}
+
+    final TreeSnapshot <String, String> aSnapshot = aBuilder.build ();
+    assertEquals (1, aSnapshot.getVersion ());
+    assertEquals (4, aSnapshot.getItemCount ());
+    assertEquals (2, aSnapshot.getRootItem ().getChildCount ());
+    assertEquals ("C", aSnapshot.getItemDataWithID ("c"));
+    assertEquals (3, aSnapshot.getItemWithID ("c").getLevel ());
+    assertEquals (1, aSnapshot.getChildren ("b").size ());
+    assertNull (aSnapshot.getChildren ("x"));
+    assertTrue (aSnapshot.isItemSameOrDescendant ("a", "c"));
+    assertTrue (aSnapshot.isItemSameOrDescendant ("c", "c"));
+    assertFalse (aSnapshot.isItemSameOrDescendant ("c", "a"));
+    assertFalse (aSnapshot.isItemSameOrDescendant ("d", "c"));
+    assertFalse (aSnapshot.isItemSameOrDescendant ("a", "x"));
+
+    // Modify a copy
+    final TreeSnapshotBuilder <String, String> aBuilder2 = new TreeSnapshotBuilder <String, String> (aSnapshot);
+    assertFalse (aBuilder2.isChanged ());
+    assertEquals (4, aBuilder2.getItemCount ());
+    assertTrue (aBuilder2.setItemData ("d", "D2").isChanged ());
+    assertTrue (aBuilder2.setItemData ("d", "D2").isUnchanged ());
+    assertTrue (aBuilder2.removeItemWithID ("b").isChanged ());
+    assertTrue (aBuilder2.removeItemWithID ("c").isUnchanged ());
+    final TreeSnapshot <String, String> aSnapshot2 = aBuilder2.build ();
+    assertEquals (2, aSnapshot2.getVersion ());
+    assertEquals (2, aSnapshot2.getItemCount ());
+    assertEquals ("D2", aSnapshot2.getItemDataWithID ("d"));
+    assertFalse (aSnapshot2.getItemWithID ("a").hasChildren ());
+
+    // Original snapshot is unchanged
+    assertEquals (4, aSnapshot.getItemCount ());
+    assertEquals ("D", aSnapshot.getItemDataWithID ("d"));
+  }
+
+  @Test
+  public void testUpdate ()
+  {
+    final SnapshotTree <String, String> aTree = new SnapshotTree <String, String> ();
+    final TreeSnapshot <String, String> aInitial = aTree.getSnapshot ();
+    assertEquals (0, aInitial.getVersion ());
+
+    // No change - no new version
+    assertSame (aInitial, aTree.update (new INonThrowingRunnableWithParameter <TreeSnapshotBuilder <String, String>> ()
+    {
+      public void run (@Nonnull final TreeSnapshotBuilder <String, String> aBuilder)
+      {}
+    }));
+
+    final TreeSnapshot <String, String> aUpdated = aTree.update (new INonThrowingRunnableWithParameter <TreeSnapshotBuilder <String, String>> ()
+    {
+      public void run (@Nonnull final TreeSnapshotBuilder <String, String> aBuilder)
+      {
+        aBuilder.addItem (null, "a", "A");
+        aBuilder.addItem ("a", "b", "B");
+      }
+    });
+    assertEquals (1, aUpdated.getVersion ());
+    assertSame (aUpdated, aTree.getSnapshot ());
+    assertEquals (0, aInitial.getItemCount ());
+  }
+
+  @Test
+  public void testSetSnapshot ()
+  {
+    final SnapshotTree <String, String> aTree = new SnapshotTree <String, String> ();
+    aTree.setSnapshot (new TreeSnapshotBuilder <String, String> ().addItem (null, "a", "A").build ());
+    assertEquals (1, aTree.getSnapshot ().getVersion ());
+
+    // A snapshot with a lower version does not move the version backwards
+    final TreeSnapshot <String, String> aOther = new TreeSnapshotBuilder <String, String> ().build ();
+    assertEquals (0, aOther.getVersion ());
+    final TreeSnapshot <String, String> aPublished = aTree.setSnapshot (aOther);
+    assertEquals (2, aPublished.getVersion ());
+    assertSame (aPublished, aTree.getSnapshot ());
+    assertEquals (0, aPublished.getItemCount ());
+    assertEquals (0, aOther.getVersion ());
+  }
+
+  @Test
+  public void testConcurrentReads () throws InterruptedException
+  {
+    final SnapshotTree <Integer, String> aTree = new SnapshotTree <Integer, String> ();
+    final AtomicBoolean aStop = new AtomicBoolean (false);
+    final AtomicBoolean aInconsistent = new AtomicBoolean (false);
+    final Thread aReader = new Thread (new Runnable ()
+    {
+      public void run ()
+      {
+        while (!aStop.get ())
+        {
+          // Each snapshot must contain a complete chain
+          final TreeSnapshot <Integer, String> aSnapshot = aTree.getSnapshot ();
+          final int nCount = aSnapshot.getItemCount ();
+          if (nCount > 0 && !aSnapshot.isItemSameOrDescendant (Integer.valueOf (0), Integer.valueOf (nCount - 1)))
+            aInconsistent.set (true);
+        }
+      }
+    });
+    aReader.start ();
+    for (int i = 0; i < 200; ++i)
+    {
+      final int nIndex = i;
+      aTree.update (new INonThrowingRunnableWithParameter <TreeSnapshotBuilder <Integer, String>> ()
+      {
+        public void run (@Nonnull final TreeSnapshotBuilder <Integer, String> aBuilder)
+        {
+          aBuilder.addItem (nIndex == 0 ? null : Integer.valueOf (nIndex - 1), Integer.valueOf (nIndex), "v" + nIndex);
+        }
+      });
+    }
+    aStop.set (true);
+    aReader.join ();
+    assertFalse (aInconsistent.get ());
+    assertEquals (200, aTree.getSnapshot ().getItemCount ());
+  }
+
+  @Test
+  public void testAncestry ()
+  {
+    // A deep chain plus a second branch
+    final TreeSnapshotBuilder <Integer, String> aBuilder = new TreeSnapshotBuilder <Integer, String> ();
+    for (int i = 0; i < 5000; ++i)
+      aBuilder.addItem (i == 0 ? null : Integer.valueOf (i - 1), Integer.valueOf (i), null);
+    aBuilder.addItem (Integer.valueOf (10), Integer.valueOf (-1), null);
+    aBuilder.addItem (null, Integer.valueOf (-2), null);
+    final TreeSnapshot <Integer, String> aSnapshot = aBuilder.build ();
+
+    assertTrue (aSnapshot.isItemSameOrDescendant (Integer.valueOf (0), Integer.valueOf (4999)));
+    assertTrue (aSnapshot.isItemSameOrDescendant (Integer.valueOf (10), Integer.valueOf (-1)));
+    assertTrue (aSnapshot.isItemSameOrDescendant (Integer.valueOf (4999), Integer.valueOf (4999)));
+    assertFalse (aSnapshot.isItemSameOrDescendant (Integer.valueOf (11), Integer.valueOf (-1)));
+    assertFalse (aSnapshot.isItemSameOrDescendant (Integer.valueOf (4999), Integer.valueOf (0)));
+    assertFalse (aSnapshot.isItemSameOrDescendant (Integer.valueOf (-2), Integer.valueOf (5)));
+    assertFalse (aSnapshot.isItemSameOrDescendant (Integer.valueOf (0), Integer.valueOf (-2)));
+
+    assertEquals (5000, aSnapshot.getDescendantCount (Integer.valueOf (0)));
+    assertEquals (4990, aSnapshot.getDescendantCount (Integer.valueOf (10)));
+    assertEquals (0, aSnapshot.getDescendantCount (Integer.valueOf (4999)));
+    assertEquals (0, aSnapshot.getDescendantCount (Integer.valueOf (12345)));
+    assertEquals (5002, aSnapshot.getDescendantCount (null));
+
+    // A modified version is numbered independently
+    final TreeSnapshotBuilder <Integer, String> aBuilder2 = new TreeSnapshotBuilder <Integer, String> (aSnapshot);
+    aBuilder2.removeItemWithID (Integer.valueOf (100));
+    aBuilder2.addItem (Integer.valueOf (-2), Integer.valueOf (100), null);
+    final TreeSnapshot <Integer, String> aSnapshot2 = aBuilder2.build ();
+    assertTrue (aSnapshot2.isItemSameOrDescendant (Integer.valueOf (-2), Integer.valueOf (100)));
+    assertFalse (aSnapshot2.isItemSameOrDescendant (Integer.valueOf (0), Integer.valueOf (100)));
+    assertEquals (100, aSnapshot2.getDescendantCount (Integer.valueOf (0)));
+    assertTrue (aSnapshot.isItemSameOrDescendant (Integer.valueOf (0), Integer.valueOf (100)));
+  }
+
+  @Test
+  public void testConcurrentAncestryOnSharedItems () throws InterruptedException
+  {
+    final TreeSnapshotBuilder <Integer, String> aBuilder = new TreeSnapshotBuilder <Integer, String> ();
+    for (int i = 0; i < 5000; ++i)
+      aBuilder.addItem (i == 0 ? null : Integer.valueOf (i - 1), Integer.valueOf (i), null);
+    final TreeSnapshot <Integer, String> aSnapshot = aBuilder.build ();
+    // Both snapshots share the same items
+    final TreeSnapshot <Integer, String> aSnapshot2 = aSnapshot.getWithVersion (aSnapshot.getVersion () + 1);
+
+    final CountDownLatch aStart = new CountDownLatch (1);
+    final AtomicBoolean aInconsistent = new AtomicBoolean (false);
+    final Thread [] aThreads = new Thread [8];
+    for (int i = 0; i < aThreads.length; ++i)
+    {
+      final TreeSnapshot <Integer, String> aQueried = (i % 2) == 0 ? aSnapshot : aSnapshot2;
+      aThreads[i] = new Thread (new Runnable ()
+      {
+        public void run ()
+        {
+          try
+          {
+            aStart.await ();
+          }
+          catch (final InterruptedException ex)
+          {
+            return;
+          }
+          if (!aQueried.isItemSameOrDescendant (Integer.valueOf (0), Integer.valueOf (4999)) ||
+              aQueried.isItemSameOrDescendant (Integer.valueOf (4999), Integer.valueOf (0)) ||
+              aQueried.getDescendantCount (Integer.valueOf (0)) != 4999)
+            aInconsistent.set (true);
+        }
+      });
+      aThreads[i].start ();
+    }
+    aStart.countDown ();
+    for (final Thread aThread : aThreads)
+      aThread.join ();
+    assertFalse (aInconsistent.get ());
+  }
+}
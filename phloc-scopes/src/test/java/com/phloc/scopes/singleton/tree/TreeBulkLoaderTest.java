@@ -0,0 +1,105 @@
+/**
+ * Copyright (C) 2006-2014 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.scopes.singleton.tree;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+/**
+ * Test class for class {@link TreeBulkLoader}.
+ * 
+ * @author Philip Helger
+ */
+public final class TreeBulkLoaderTest
+{
+  @Test
+  public void testAnyOrder ()
+  {
+    final TreeBulkLoader <String, String> aLoader = new TreeBulkLoader <String, String> (5);
+    // Children before their parents
+    aLoader.addItem ("b", "c", "C")
+           .addItem ("a", "b", "B")
+           .addItem ("a", "b2", "B2")
+           .addItem (null, "a", "A")
+           .addItem (null, "d", "D");
+    assertEquals (5, aLoader.getItemCount ());
+
+    final TreeSnapshot <String, String> aSnapshot = aLoader.build ();
+    assertEquals (5, aSnapshot.getItemCount ());
+    assertEquals (2, aSnapshot.getRootItem ().getChildCount ());
+    assertEquals ("a", aSnapshot.getRootItem ().getChildren ().get (0).getID ());
+    // Sibling order is kept
+    assertEquals ("b", aSnapshot.getChildren ("a").get (0).getID ());
+    assertEquals ("b2", aSnapshot.getChildren ("a").get (1).getID ());
+    assertEquals ("C", aSnapshot.getItemDataWithID ("c"));
+    assertTrue (aSnapshot.isItemSameOrDescendant ("a", "c"));
+  }
+
+  @Test
+  public void testLarge ()
+  {
+    final int nCount = 10000;
+    final TreeBulkLoader <Integer, String> aLoader = new TreeBulkLoader <Integer, String> (nCount);
+    // Reverse order: each item is the child of the item with half its index
+    for (int i = nCount; i >= 1; --i)
+      aLoader.addItem (i == 1 ? null : Integer.valueOf (i / 2), Integer.valueOf (i), "v" + i);
+    final TreeSnapshot <Integer, String> aSnapshot = aLoader.build ();
+    assertEquals (nCount, aSnapshot.getItemCount ());
+    assertEquals (14, aSnapshot.getItemWithID (Integer.valueOf (nCount)).getLevel ());
+  }
+
+  @Test
+  public void testInvalid ()
+  {
+    try
+    {
+      // Missing parent
+      new TreeBulkLoader <String, String> (2).addItem (null, "a", "A").addItem ("x", "b", "B").build ();
+      fail ();
+    }
+    catch (final IllegalStateException ex)
+    {}
+
+    try
+    {
+      // Cycle
+      new TreeBulkLoader <String, String> (3).addItem (null, "a", "A")
+                                             .addItem ("c", "b", "B")
+                                             .addItem ("b", "c", "C")
+                                             .build ();
+      fail ();
+    }
+    catch (final IllegalStateException ex)
+    {}
+
+    try
+    {
+      // Duplicate ID below different parents
+      new TreeBulkLoader <String, String> (3).addItem (null, "a", "A")
+                                             .addItem (null, "b", "B")
+                                             .addItem ("a", "b", "B2")
+                                             .build ();
+      fail ();
+    }
+    catch (final IllegalStateException ex)
+    {}
+  }
+}
@@ -0,0 +1,177 @@
+/**
+ * Copyright (C) 2006-2014 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.scopes.singleton.tree;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nonnull;
+
+import org.junit.Test;
+
+/**
+ * Test class for class {@link TreeSnapshotFile}.
+ * 
+ * @author Philip Helger
+ */
+public final class TreeSnapshotFileTest
+{
+  private static final ITreeSnapshotCodec <String, String> CODEC = new ITreeSnapshotCodec <String, String> ()
+  {
+    public void writeID (@Nonnull final DataOutput aDO, @Nonnull final String aID) throws IOException
+    {
+      aDO.writeUTF (aID);
+    }
+
+    @Nonnull
+    public String readID (@Nonnull final DataInput aDI) throws IOException
+    {
+      return aDI.readUTF ();
+    }
+
+    public void writeData (@Nonnull final DataOutput aDO, @Nonnull final String aData) throws IOException
+    {
+      aDO.writeUTF (aData);
+    }
+
+    public String readData (@Nonnull final DataInput aDI) throws IOException
+    {
+      return aDI.readUTF ();
+    }
+  };
+
+  @Test
+  public void testWriteAndRead () throws IOException
+  {
+    final TreeSnapshot <String, String> aSnapshot = new TreeSnapshotBuilder <String, String> ().addItem (null,
+                                                                                                        "a",
+                                                                                                        "A")
+                                                                                               .addItem ("a", "b", null)
+                                                                                               .addItem ("b", "c", "C")
+                                                                                               .addItem ("a", "d", "D")
+                                                                                               .addItem (null, "e", "E")
+                                                                                               .build ();
+    final File aFile = File.createTempFile ("treesnapshot", ".bin");
+    try
+    {
+      assertTrue (TreeSnapshotFile.writeSnapshot (aSnapshot, aFile, CODEC).isSuccess ());
+
+      final TreeSnapshot <String, String> aRead = TreeSnapshotFile.readSnapshot (aFile, CODEC);
+      assertNotNull (aRead);
+      assertEquals (aSnapshot.getVersion (), aRead.getVersion ());
+      assertEquals (5, aRead.getItemCount ());
+      assertEquals ("A", aRead.getItemDataWithID ("a"));
+      assertNull (aRead.getItemDataWithID ("b"));
+      assertEquals ("b", aRead.getItemWithID ("c").getParent ().getID ());
+      assertEquals ("b", aRead.getChildren ("a").get (0).getID ());
+      assertEquals ("d", aRead.getChildren ("a").get (1).getID ());
+      assertEquals (2, aRead.getRootItem ().getChildCount ());
+      assertTrue (aRead.isItemSameOrDescendant ("a", "c"));
+
+      // Overwrite an existing file
+      assertTrue (TreeSnapshotFile.writeSnapshot (aRead, aFile, CODEC).isSuccess ());
+      assertEquals (5, TreeSnapshotFile.readSnapshot (aFile, CODEC).getItemCount ());
+    }
+    finally
+    {
+      aFile.delete ();
+    }
+  }
+
+  @Test
+  public void testInvalidFile () throws IOException
+  {
+    assertNull (TreeSnapshotFile.readSnapshot (new File ("does-not-exist.bin"), CODEC));
+
+    final File aFile = File.createTempFile ("treesnapshot", ".bin");
+    try
+    {
+      final FileOutputStream aFOS = new FileOutputStream (aFile);
+      aFOS.write (new byte [] { 1, 2, 3, 4, 5, 6 });
+      aFOS.close ();
+      assertNull (TreeSnapshotFile.readSnapshot (aFile, CODEC));
+
+      // Header with an item count that cannot fit into the file
+      final DataOutputStream aDOS = new DataOutputStream (new FileOutputStream (aFile));
+      aDOS.writeInt (TreeSnapshotFile.MAGIC);
+      aDOS.writeInt (TreeSnapshotFile.FORMAT_VERSION);
+      aDOS.writeLong (1);
+      aDOS.writeInt (Integer.MAX_VALUE);
+      aDOS.close ();
+      assertNull (TreeSnapshotFile.readSnapshot (aFile, CODEC));
+    }
+    finally
+    {
+      aFile.delete ();
+    }
+  }
+
+  @Test
+  public void testConcurrentWrite () throws Exception
+  {
+    final TreeSnapshot <String, String> aSnapshot = new TreeSnapshotBuilder <String, String> ().addItem (null,
+                                                                                                        "a",
+                                                                                                        "A")
+                                                                                               .addItem ("a", "b", "B")
+                                                                                               .build ();
+    final File aDir = File.createTempFile ("treesnapshot", "");
+    assertTrue (aDir.delete ());
+    assertTrue (aDir.mkdir ());
+    final File aFile = new File (aDir, "snapshot.bin");
+    try
+    {
+      final AtomicInteger aFailures = new AtomicInteger (0);
+      final ExecutorService aES = Executors.newFixedThreadPool (4);
+      for (int i = 0; i < 40; ++i)
+        aES.submit (new Runnable ()
+        {
+          public void run ()
+          {
+            if (TreeSnapshotFile.writeSnapshot (aSnapshot, aFile, CODEC).isFailure ())
+              aFailures.incrementAndGet ();
+          }
+        });
+      aES.shutdown ();
+      assertTrue (aES.awaitTermination (30, TimeUnit.SECONDS));
+
+      assertEquals (0, aFailures.get ());
+      assertEquals (2, TreeSnapshotFile.readSnapshot (aFile, CODEC).getItemCount ());
+      // No temporary files are left
+      assertEquals (1, aDir.listFiles ().length);
+    }
+    finally
+    {
+      for (final File aChild : aDir.listFiles ())
+        aChild.delete ();
+      aDir.delete ();
+    }
+  }
+}
@@ -0,0 +1,89 @@
+/**
+ * Copyright (C) 2006-2014 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.scopes.spi;
+
+import java.util.Set;
+
+import com.phloc.commons.annotations.IsSPIImplementation;
+import com.phloc.commons.collections.ContainerHelper;
+import com.phloc.scopes.domain.IApplicationScope;
+import com.phloc.scopes.domain.ISessionApplicationScope;
+
+/**
+ * Mock SPI implementation that is only interested in a single application
+ * 
+ * @author Philip Helger
+ */
+@IsSPIImplementation
+public final class MockFilteredApplicationScopeSPI implements
+                                                  IApplicationScopeSPI,
+                                                  ISessionApplicationScopeSPI,
+                                                  IApplicationFilteredScopeSPI
+{
+  public static final String HANDLED_APP_ID = "filtered-appid";
+
+  private static int s_nAppBegin = 0;
+  private static int s_nAppEnd = 0;
+  private static int s_nSessionAppBegin = 0;
+  private static int s_nSessionAppEnd = 0;
+
+  public Set <String> getAllHandledApplicationIDs ()
+  {
+    return ContainerHelper.newSet (HANDLED_APP_ID);
+  }
+
+  public void onApplicationScopeBegin (final IApplicationScope aScope)
+  {
+    s_nAppBegin++;
+  }
+
+  public void onApplicationScopeEnd (final IApplicationScope aScope)
+  {
+    s_nAppEnd++;
+  }
+
+  public void onSessionApplicationScopeBegin (final ISessionApplicationScope aScope)
+  {
+    s_nSessionAppBegin++;
+  }
+
+  public void onSessionApplicationScopeEnd (final ISessionApplicationScope aScope)
+  {
+    s_nSessionAppEnd++;
+  }
+
+  public static int getAppBegin ()
+  {
+    return s_nAppBegin;
+  }
+
+  public static int getAppEnd ()
+  {
+    return s_nAppEnd;
+  }
+
+  public static int getSessionAppBegin ()
+  {
+    return s_nSessionAppBegin;
+  }
+
+  public static int getSessionAppEnd ()
+  {
+    return s_nSessionAppEnd;
+  }
+}
@@ -0,0 +1,64 @@
+/**
+ * Copyright (C) 2006-2014 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.scopes.spi;
+
+import javax.annotation.Nonnull;
+
+import com.phloc.commons.annotations.IsSPIImplementation;
+import com.phloc.scopes.AbstractSingleton;
+import com.phloc.scopes.IScope;
+
+/**
+ * Mock implementation of {@link ISingletonLifeCycleSPI}
+ * 
+ * @author Philip Helger
+ */
+@IsSPIImplementation
+public final class MockSingletonLifeCycleSPI implements ISingletonLifeCycleSPI
+{
+  private static int s_nInstantiated = 0;
+  private static int s_nWait = 0;
+
+  public void onSingletonInstantiated (@Nonnull final IScope aScope,
+                                       @Nonnull final Class <? extends AbstractSingleton> aClass,
+                                       final long nDurationNanos)
+  {
+    if (nDurationNanos < 0)
+      throw new IllegalArgumentException ("Negative duration: " + nDurationNanos);
+    s_nInstantiated++;
+  }
+
+  public void onSingletonInstantiationWait (@Nonnull final IScope aScope,
+                                            @Nonnull final Class <? extends AbstractSingleton> aClass,
+                                            final long nWaitNanos)
+  {
+    if (nWaitNanos < 0)
+      throw new IllegalArgumentException ("Negative wait time: " + nWaitNanos);
+    s_nWait++;
+  }
+
+  public static int getInstantiated ()
+  {
+    return s_nInstantiated;
+  }
+
+  public static int getWait ()
+  {
+    return s_nWait;
+  }
+}
@@ -18,12 +18,14 @@
 package com.phloc.scopes.spi;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 
 import org.junit.Test;
 
 import com.phloc.scopes.ScopeUtils;
 import com.phloc.scopes.domain.ISessionScope;
 import com.phloc.scopes.mgr.ScopeManager;
+import com.phloc.scopes.singleton.MockGlobalSingleton;
 
 /**
  * Test class for class {@link ScopeSPIManager}.
@@ -305,4 +307,57 @@ public final class ScopeSPIManagerTest
     assertEquals (nPrev + 3, AbstractScopeSPI.getEnd ());
     assertEquals (nPrevT + 3, AbstractThrowingScopeSPI.getEnd ());
   }
+
+  @Test
+  public void testApplicationFilteredSPI ()
+  {
+    ScopeManager.onGlobalBegin ("global");
+    ScopeManager.onRequestBegin ("appid", "scopeid", "sessionid");
+
+    // Application not handled by the filtered SPI
+    int nPrev = MockFilteredApplicationScopeSPI.getAppBegin ();
+    ScopeManager.getApplicationScope ();
+    assertEquals (nPrev, MockFilteredApplicationScopeSPI.getAppBegin ());
+    nPrev = MockFilteredApplicationScopeSPI.getSessionAppBegin ();
+    final ISessionScope aSessionScope = ScopeManager.getSessionScope ();
+    ScopeManager.getSessionApplicationScope ();
+    assertEquals (nPrev, MockFilteredApplicationScopeSPI.getSessionAppBegin ());
+
+    // Application handled by the filtered SPI
+    nPrev = MockFilteredApplicationScopeSPI.getAppBegin ();
+    ScopeManager.getApplicationScope (MockFilteredApplicationScopeSPI.HANDLED_APP_ID);
+    assertEquals (nPrev + 1, MockFilteredApplicationScopeSPI.getAppBegin ());
+    nPrev = MockFilteredApplicationScopeSPI.getSessionAppBegin ();
+    ScopeManager.getSessionApplicationScope (MockFilteredApplicationScopeSPI.HANDLED_APP_ID);
+    assertEquals (nPrev + 1, MockFilteredApplicationScopeSPI.getSessionAppBegin ());
+
+    ScopeManager.onRequestEnd ();
+
+    // End session scope and session application scopes
+    nPrev = MockFilteredApplicationScopeSPI.getSessionAppEnd ();
+    ScopeManager.destroySessionScope (aSessionScope);
+    assertEquals (nPrev + 1, MockFilteredApplicationScopeSPI.getSessionAppEnd ());
+
+    // End global scope and application scopes
+    nPrev = MockFilteredApplicationScopeSPI.getAppEnd ();
+    ScopeManager.onGlobalEnd ();
+    assertEquals (nPrev + 1, MockFilteredApplicationScopeSPI.getAppEnd ());
+  }
+
+  @Test
+  public void testSingletonLifeCycleSPI ()
+  {
+    ScopeManager.onGlobalBegin ("global");
+
+    // First access instantiates the singleton
+    final int nPrev = MockSingletonLifeCycleSPI.getInstantiated ();
+    final MockGlobalSingleton aSingleton = MockGlobalSingleton.getInstance ();
+    assertEquals (nPrev + 1, MockSingletonLifeCycleSPI.getInstantiated ());
+
+    // Second access uses the existing singleton
+    assertSame (aSingleton, MockGlobalSingleton.getInstance ());
+    assertEquals (nPrev + 1, MockSingletonLifeCycleSPI.getInstantiated ());
+
+    ScopeManager.onGlobalEnd ();
+  }
 }
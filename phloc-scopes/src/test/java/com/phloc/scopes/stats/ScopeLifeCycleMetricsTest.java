@@ -0,0 +1,69 @@
+/**
+ * Copyright (C) 2006-2014 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.scopes.stats;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.phloc.scopes.mgr.EScope;
+import com.phloc.scopes.mgr.ScopeManager;
+
+/**
+ * Test class for class {@link ScopeLifeCycleMetrics}.
+ * 
+ * @author Philip Helger
+ */
+public final class ScopeLifeCycleMetricsTest
+{
+  @Test
+  public void testLifeCycle ()
+  {
+    final long nGlobal = ScopeLifeCycleMetrics.getCreatedScopeCount (EScope.GLOBAL);
+    final long nRequest = ScopeLifeCycleMetrics.getCreatedScopeCount (EScope.REQUEST);
+    final long nSPIFailures = ScopeLifeCycleMetrics.getSPIFailureCount ();
+
+    ScopeManager.onGlobalBegin ("global");
+    assertEquals (nGlobal + 1, ScopeLifeCycleMetrics.getCreatedScopeCount (EScope.GLOBAL));
+    assertEquals (1, ScopeLifeCycleMetrics.getActiveScopeCount (EScope.GLOBAL));
+    // The throwing mock SPIs are registered
+    assertTrue (ScopeLifeCycleMetrics.getSPIFailureCount () > nSPIFailures);
+
+    ScopeManager.onRequestBegin ("appid", "scopeid", "sessionid");
+    assertEquals (nRequest + 1, ScopeLifeCycleMetrics.getCreatedScopeCount (EScope.REQUEST));
+    assertEquals (1, ScopeLifeCycleMetrics.getActiveRequestScopeCount ());
+
+    ScopeManager.getApplicationScope ();
+    assertEquals (1, ScopeLifeCycleMetrics.getActiveApplicationScopeCount ());
+    ScopeManager.getSessionApplicationScope ();
+    assertEquals (1, ScopeLifeCycleMetrics.getActiveSessionScopeCount ());
+    assertEquals (1, ScopeLifeCycleMetrics.getActiveSessionApplicationScopeCount ());
+
+    ScopeManager.onRequestEnd ();
+    assertEquals (0, ScopeLifeCycleMetrics.getActiveRequestScopeCount ());
+
+    ScopeManager.onGlobalEnd ();
+    assertEquals (0, ScopeLifeCycleMetrics.getActiveScopeCount (EScope.GLOBAL));
+    assertEquals (0, ScopeLifeCycleMetrics.getActiveApplicationScopeCount ());
+    assertEquals (0, ScopeLifeCycleMetrics.getActiveSessionScopeCount ());
+    assertEquals (0, ScopeLifeCycleMetrics.getActiveSessionApplicationScopeCount ());
+    assertEquals (ScopeLifeCycleMetrics.getCreatedScopeCount (EScope.GLOBAL),
+                  ScopeLifeCycleMetrics.getDestroyedScopeCount (EScope.GLOBAL));
+  }
+}
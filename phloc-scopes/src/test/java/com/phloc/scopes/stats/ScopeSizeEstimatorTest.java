@@ -0,0 +1,115 @@
+/**
+ * Copyright (C) 2006-2014 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.scopes.stats;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.phloc.scopes.impl.SessionScope;
+
+/**
+ * Test class for class {@link ScopeSizeEstimator}.
+ * 
+ * @author Philip Helger
+ */
+public final class ScopeSizeEstimatorTest
+{
+  @Test
+  public void testBasic ()
+  {
+    final SessionScope aScope = new SessionScope ("sessionid");
+    try
+    {
+      final byte [] aBytes = new byte [1000];
+      aScope.setAttribute ("bytes", aBytes);
+      aScope.setAttribute ("string", "Hello world");
+      // Same object again - accounted only once
+      aScope.setAttribute ("bytes2", aBytes);
+      aScope.getSessionApplicationScope ("appid", true).setAttribute ("nested", new long [100]);
+
+      final ScopeSizeEstimate aEstimate = new ScopeSizeEstimator ().estimate (aScope);
+      assertEquals ("sessionid", aEstimate.getScopeID ());
+      assertFalse (aEstimate.isTruncated ());
+      assertFalse (aEstimate.isSampled ());
+
+      final Map <String, Long> aSizes = aEstimate.getAllAttributeSizes ();
+      assertEquals (3, aSizes.size ());
+      final long nBytes = aSizes.get ("bytes").longValue () + aSizes.get ("bytes2").longValue ();
+      assertTrue (nBytes >= 1000 && nBytes < 1100);
+      assertTrue (aSizes.get ("string").longValue () > 0);
+      assertEquals (aEstimate.getAttributeBytes (), nBytes + aSizes.get ("string").longValue ());
+
+      // Nested session application scope
+      final Map <String, ScopeSizeEstimate> aNested = aEstimate.getAllNestedScopeEstimates ();
+      assertEquals (1, aNested.size ());
+      final ScopeSizeEstimate aNestedEstimate = aNested.get (aScope.createApplicationScopeID ("appid"));
+      assertNotNull (aNestedEstimate);
+      assertTrue (aNestedEstimate.getAttributeBytes () >= 800);
+      assertEquals (aEstimate.getAttributeBytes () + aNestedEstimate.getAttributeBytes (), aEstimate.getTotalBytes ());
+    }
+    finally
+    {
+      aScope.destroyScope ();
+    }
+  }
+
+  @Test
+  public void testLimits ()
+  {
+    final SessionScope aScope = new SessionScope ("sessionid");
+    try
+    {
+      final List <String> aList = new ArrayList <String> ();
+      for (int i = 0; i < 1000; ++i)
+        aList.add ("Element " + i);
+      aScope.setAttribute ("list", aList);
+
+      // Sampled
+      ScopeSizeEstimate aEstimate = new ScopeSizeEstimator (100000, 10).estimate (aScope);
+      assertTrue (aEstimate.isSampled ());
+      assertFalse (aEstimate.isTruncated ());
+      final long nSampledBytes = aEstimate.getTotalBytes ();
+
+      // Not sampled
+      aEstimate = new ScopeSizeEstimator (100000, 10000).estimate (aScope);
+      assertFalse (aEstimate.isSampled ());
+      assertFalse (aEstimate.isTruncated ());
+      final long nFullBytes = aEstimate.getTotalBytes ();
+      // Rough equality (the sampling also hits unused array slots)
+      assertTrue (Math.abs (nFullBytes - nSampledBytes) < nFullBytes / 4);
+
+      // Truncated
+      aEstimate = new ScopeSizeEstimator (50, 10000).estimate (aScope);
+      assertTrue (aEstimate.isTruncated ());
+      assertEquals (50, aEstimate.getVisitedObjectCount ());
+      assertTrue (aEstimate.getTotalBytes () < nFullBytes);
+    }
+    finally
+    {
+      aScope.destroyScope ();
+    }
+  }
+}
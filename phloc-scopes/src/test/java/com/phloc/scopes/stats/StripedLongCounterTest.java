@@ -0,0 +1,79 @@
+/**
+ * Copyright (C) 2006-2014 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.scopes.stats;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+/**
+ * Test class for class {@link StripedLongCounter}.
+ * 
+ * @author Philip Helger
+ */
+public final class StripedLongCounterTest
+{
+  @Test
+  public void testBasic ()
+  {
+    final StripedLongCounter aCounter = new StripedLongCounter (3);
+    assertEquals (4, aCounter.getStripeCount ());
+    assertEquals (0, aCounter.get ());
+    aCounter.increment ();
+    aCounter.increment ();
+    assertEquals (2, aCounter.get ());
+    aCounter.add (5);
+    aCounter.add (-1);
+    assertEquals (6, aCounter.get ());
+    aCounter.reset ();
+    assertEquals (0, aCounter.get ());
+
+    try
+    {
+      new StripedLongCounter (0);
+      fail ();
+    }
+    catch (final IllegalArgumentException ex)
+    {}
+  }
+
+  @Test
+  public void testMultiThreaded () throws InterruptedException
+  {
+    final StripedLongCounter aCounter = new StripedLongCounter ();
+    final int nThreads = 8;
+    final int nIncrements = 10000;
+    final Thread [] aThreads = new Thread [nThreads];
+    for (int i = 0; i < nThreads; ++i)
+    {
+      aThreads[i] = new Thread (new Runnable ()
+      {
+        public void run ()
+        {
+          for (int j = 0; j < nIncrements; ++j)
+            aCounter.increment ();
+        }
+      });
+      aThreads[i].start ();
+    }
+    for (final Thread aThread : aThreads)
+      aThread.join ();
+    assertEquals (nThreads * nIncrements, aCounter.get ());
+  }
+}
@@ -0,0 +1,55 @@
+/**
+ * Copyright (C) 2006-2014 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.scopes.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+/**
+ * Test class for class {@link KeyedLock}.
+ * 
+ * @author Philip Helger
+ */
+public final class KeyedLockTest
+{
+  @Test
+  public void testBasic ()
+  {
+    final KeyedLock <String> aLock = new KeyedLock <String> ();
+    assertEquals (0, aLock.getLockedKeyCount ());
+    aLock.lock ("a");
+    aLock.lock ("a");
+    aLock.lock ("b");
+    assertEquals (2, aLock.getLockedKeyCount ());
+    aLock.unlock ("a");
+    assertEquals (2, aLock.getLockedKeyCount ());
+    aLock.unlock ("a");
+    aLock.unlock ("b");
+    assertEquals (0, aLock.getLockedKeyCount ());
+
+    try
+    {
+      aLock.unlock ("a");
+      fail ();
+    }
+    catch (final IllegalMonitorStateException ex)
+    {}
+  }
+}
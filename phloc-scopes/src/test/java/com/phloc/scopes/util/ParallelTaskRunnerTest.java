@@ -0,0 +1,162 @@
+/**
+ * Copyright (C) 2006-2014 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.scopes.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nonnull;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+
+import com.phloc.commons.callback.INonThrowingRunnableWithParameter;
+import com.phloc.scopes.domain.IRequestScope;
+import com.phloc.scopes.mgr.ScopeManager;
+import com.phloc.scopes.mock.ScopeTestRule;
+
+/**
+ * Test class for class {@link ParallelTaskRunner}.
+ * 
+ * @author Philip Helger
+ */
+public final class ParallelTaskRunnerTest
+{
+  @Rule
+  public final TestRule m_aScopeRule = new ScopeTestRule ();
+
+  private static final class MockAction implements INonThrowingRunnableWithParameter <Integer>
+  {
+    private final AtomicInteger m_aSum = new AtomicInteger (0);
+    private final Set <String> m_aThreadNames = Collections.synchronizedSet (new HashSet <String> ());
+    private final Set <IRequestScope> m_aRequestScopes = Collections.synchronizedSet (new HashSet <IRequestScope> ());
+
+    public void run (@Nonnull final Integer aItem)
+    {
+      if (aItem.intValue () < 0)
+        throw new IllegalArgumentException ("Negative value");
+      if (aItem.intValue () == 1000)
+        try
+        {
+          Thread.sleep (500);
+        }
+        catch (final InterruptedException ex)
+        {
+          // Not expected
+          return;
+        }
+      m_aSum.addAndGet (aItem.intValue ());
+      m_aThreadNames.add (Thread.currentThread ().getName ());
+      m_aRequestScopes.add (ScopeManager.getRequestScope ());
+    }
+  }
+
+  @Nonnull
+  private static List <Integer> _createItems (final int nCount)
+  {
+    final List <Integer> ret = new ArrayList <Integer> ();
+    for (int i = 0; i < nCount; ++i)
+      ret.add (Integer.valueOf (i));
+    return ret;
+  }
+
+  @Test
+  public void testSerial ()
+  {
+    final MockAction aAction = new MockAction ();
+    final long [] aDurations = ParallelTaskRunner.runAll (_createItems (10), aAction, 1, 0, "test");
+    assertEquals (10, aDurations.length);
+    for (final long nDuration : aDurations)
+      assertTrue (nDuration >= 0);
+    assertEquals (45, aAction.m_aSum.get ());
+    assertEquals (1, aAction.m_aThreadNames.size ());
+    assertTrue (aAction.m_aThreadNames.contains (Thread.currentThread ().getName ()));
+  }
+
+  @Test
+  public void testParallel ()
+  {
+    final MockAction aAction = new MockAction ();
+    final List <Integer> aItems = _createItems (20);
+    // Exceptions don't stop the processing
+    aItems.add (Integer.valueOf (-1));
+    final long [] aDurations = ParallelTaskRunner.runAll (aItems, aAction, 4, 0, "test");
+    assertEquals (21, aDurations.length);
+    for (final long nDuration : aDurations)
+      assertTrue (nDuration >= 0);
+    assertEquals (190, aAction.m_aSum.get ());
+    assertTrue (aAction.m_aThreadNames.size () <= 4);
+    assertTrue (!aAction.m_aThreadNames.contains (Thread.currentThread ().getName ()));
+  }
+
+  @Test
+  public void testTimeout () throws InterruptedException
+  {
+    final MockAction aAction = new MockAction ();
+    final List <Integer> aItems = _createItems (5);
+    aItems.add (Integer.valueOf (1000));
+    final long nStart = System.nanoTime ();
+    final long [] aDurations = ParallelTaskRunner.runAll (aItems, aAction, 2, 100, "test");
+    assertTrue (TimeUnit.NANOSECONDS.toMillis (System.nanoTime () - nStart) < 400);
+    assertEquals (6, aDurations.length);
+    for (int i = 0; i < 5; ++i)
+      assertTrue (aDurations[i] >= 0);
+    // The long running one is not waited for
+    assertEquals (-1, aDurations[5]);
+
+    // But it is not interrupted
+    for (int i = 0; i < 100 && aAction.m_aSum.get () != 1010; ++i)
+      Thread.sleep (20);
+    assertEquals (1010, aAction.m_aSum.get ());
+  }
+
+  @Test
+  public void testRequestScope ()
+  {
+    final IRequestScope aRequestScope = ScopeManager.getRequestScope ();
+    final MockAction aAction = new MockAction ();
+    ParallelTaskRunner.runAll (_createItems (20), aAction, 4, 0, "test");
+    assertEquals (1, aAction.m_aRequestScopes.size ());
+    assertSame (aRequestScope, aAction.m_aRequestScopes.iterator ().next ());
+
+    // Nested invocations work as well
+    final AtomicInteger aSum = new AtomicInteger (0);
+    ParallelTaskRunner.runAll (_createItems (4), new INonThrowingRunnableWithParameter <Integer> ()
+    {
+      public void run (@Nonnull final Integer aItem)
+      {
+        final MockAction aNestedAction = new MockAction ();
+        ParallelTaskRunner.runAll (_createItems (10), aNestedAction, 2, 0, "nested");
+        aSum.addAndGet (aNestedAction.m_aSum.get ());
+      }
+    }, 4, 0, "test");
+    assertEquals (4 * 45, aSum.get ());
+    assertNotNull (ScopeManager.getRequestScopeOrNull ());
+  }
+}